@@ -0,0 +1,69 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Optional application settings from sos.properties (dispatch, location, ...).
+ * Unlike db.properties the file may be missing, in which case every setting uses its default.
+ */
+public class AppConfig {
+    private final Properties props;
+
+    public AppConfig(Properties props) {
+        this.props = props;
+    }
+
+    public static AppConfig load(String path) {
+        Properties props = new Properties();
+        if (Files.exists(Paths.get(path))) {
+            try (FileInputStream fis = new FileInputStream(path)) {
+                props.load(fis);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load settings from " + path + ": " + e.getMessage(), e);
+            }
+        }
+        return new AppConfig(props);
+    }
+
+    public String get(String key, String def) {
+        String v = props.getProperty(key);
+        return v == null || v.isBlank() ? def : v.trim();
+    }
+
+    public int getInt(String key, int def) {
+        String v = get(key, null);
+        if (v == null) return def;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid integer for " + key + ": " + v, e);
+        }
+    }
+
+    public long getLong(String key, long def) {
+        String v = get(key, null);
+        if (v == null) return def;
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid integer for " + key + ": " + v, e);
+        }
+    }
+
+    public double getDouble(String key, double def) {
+        String v = get(key, null);
+        if (v == null) return def;
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid number for " + key + ": " + v, e);
+        }
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        String v = get(key, null);
+        return v == null ? def : Boolean.parseBoolean(v);
+    }
+}
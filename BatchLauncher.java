@@ -0,0 +1,187 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Batch SOS mode: instead of one Desktop.browse per contact, serves a single page on the shared
+ * {@link LocalHttpServer} listing every contact's send links and opens it once. Links on the page all
+ * target the same named WhatsApp Web tab, and the page reports each contact's progress back to /status
+ * so the app can show it.
+ */
+public class BatchLauncher {
+    public enum State { PENDING, OPENED, SENT, FAILED }
+
+    public interface Listener {
+        /** Called on the server thread when the page reports a state change for contact {@code index}. */
+        void onStatus(int index, State state, int opened, int sent, int total);
+    }
+
+    private final Desktop desktop;
+    private final SecureRandom random = new SecureRandom();
+    private LocalHttpServer server; // registered lazily on the shared local endpoint
+
+    private volatile Batch current;
+
+    public BatchLauncher(Desktop desktop) {
+        this.desktop = desktop;
+    }
+
+    /**
+     * Publishes a new batch page for the payload and opens it in the browser. Invalid contacts are listed
+     * on the page but have no links. Replaces any previous batch.
+     */
+    public synchronized void launch(SosStandby.Snapshot payload, Listener listener) throws IOException {
+        if (desktop == null) throw new IOException("Desktop browsing is not supported");
+        ensureStarted();
+        byte[] tokenBytes = new byte[12];
+        random.nextBytes(tokenBytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : tokenBytes) token.append(String.format("%02x", b));
+        Batch batch = new Batch(token.toString(), payload.contacts, listener);
+        current = batch;
+        desktop.browse(URI.create(server.url("/batch/" + batch.token)));
+    }
+
+    /** Expires the current batch page. */
+    public synchronized void stop() {
+        current = null;
+    }
+
+    private void ensureStarted() throws IOException {
+        if (server != null) return;
+        server = LocalHttpServer.get();
+        server.createContext("/batch/", this::handle);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Batch batch = current;
+        String path = exchange.getRequestURI().getPath();
+        String rest = path.substring("/batch/".length());
+        String token = rest.contains("/") ? rest.substring(0, rest.indexOf('/')) : rest;
+        if (batch == null || !batch.token.equals(token)) {
+            respond(exchange, 410, "text/plain", "This SOS batch has expired.");
+            return;
+        }
+        if (rest.endsWith("/status")) {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                respond(exchange, 405, "text/plain", "");
+                return;
+            }
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            int index = -1;
+            State state = null;
+            for (String pair : body.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq < 0) continue;
+                String key = pair.substring(0, eq);
+                String value = URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                try {
+                    if (key.equals("i")) index = Integer.parseInt(value);
+                    if (key.equals("state")) state = State.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException ignored) {
+                    // malformed report, ignored below
+                }
+            }
+            if (index < 0 || index >= batch.states.length || state == null) {
+                respond(exchange, 400, "text/plain", "bad status");
+                return;
+            }
+            batch.update(index, state);
+            respond(exchange, 200, "text/plain", "OK");
+            return;
+        }
+        respond(exchange, 200, "text/html; charset=utf-8", batch.renderPage());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) { os.write(bytes); }
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append("&quot;"); break;
+                case '\'': sb.append("&#39;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class Batch {
+        final String token;
+        final List<SosStandby.PreparedContact> contacts;
+        final Listener listener;
+        final State[] states;
+
+        Batch(String token, List<SosStandby.PreparedContact> contacts, Listener listener) {
+            this.token = token;
+            this.contacts = contacts;
+            this.listener = listener;
+            this.states = new State[contacts.size()];
+            for (int i = 0; i < states.length; i++) states[i] = contacts.get(i).isValid() ? State.PENDING : State.FAILED;
+        }
+
+        synchronized void update(int index, State state) {
+            // Never downgrade: a contact marked sent stays sent even if its link is clicked again
+            if (states[index] == State.SENT || states[index] == state) return;
+            states[index] = state;
+            int opened = 0, sent = 0;
+            for (State s : states) {
+                if (s == State.OPENED) opened++;
+                if (s == State.SENT) { sent++; opened++; }
+            }
+            if (listener != null) listener.onStatus(index, state, opened, sent, states.length);
+        }
+
+        synchronized String renderPage() {
+            StringBuilder rows = new StringBuilder();
+            for (int i = 0; i < contacts.size(); i++) {
+                SosStandby.PreparedContact pc = contacts.get(i);
+                rows.append("<tr id=\"r").append(i).append("\" class=\"").append(states[i].name().toLowerCase()).append("\"><td>")
+                    .append(escape(pc.contact.getName())).append("<br><small>").append(escape(pc.rawPhone)).append("</small></td><td>");
+                if (pc.isValid()) {
+                    rows.append("<a href=\"").append(escape(pc.webUri.toString())).append("\" target=\"sos-whatsapp\" onclick=\"report(").append(i).append(",'opened')\">WhatsApp Web</a> ")
+                        .append("<a href=\"").append(escape(pc.desktopUri.toString())).append("\" onclick=\"report(").append(i).append(",'opened')\">App</a> ")
+                        .append("<button onclick=\"report(").append(i).append(",'sent')\">Mark sent</button>");
+                } else {
+                    rows.append("Invalid number - edit this contact in the app");
+                }
+                rows.append("</td><td class=\"st\">").append(states[i].name().toLowerCase()).append("</td></tr>");
+            }
+            return "<!doctype html><html><head><meta charset=\"utf-8\"><title>SOS - send to contacts</title><style>"
+                + "body{font-family:Segoe UI,sans-serif;margin:20px}table{border-collapse:collapse;width:100%}td{padding:8px;border-bottom:1px solid #ddd}"
+                + "a,button{margin-right:8px}.opened{background:#fff8e1}.sent{background:#e8f5e9}.failed{color:#999}"
+                + "#next{background:#dc3545;color:#fff;border:0;padding:10px 18px;font-size:16px}</style></head><body>"
+                + "<h2 style=\"color:#dc3545\">Send SOS to your contacts</h2>"
+                + "<p>Each link opens in the same WhatsApp Web tab. Click <b>Send</b> in WhatsApp, then come back for the next contact.</p>"
+                + "<p><button id=\"next\" onclick=\"openNext()\">Open next contact</button></p>"
+                + "<table>" + rows + "</table><script>"
+                + "function report(i,s){var r=document.getElementById('r'+i);if(r.className!=='sent'){r.className=s;r.querySelector('.st').textContent=s;}"
+                + "fetch('/batch/" + token + "/status',{method:'POST',headers:{'Content-Type':'application/x-www-form-urlencoded'},body:'i='+i+'&state='+s});}"
+                + "function openNext(){var rs=document.querySelectorAll('tr.pending');if(!rs.length){document.getElementById('next').textContent='All contacts opened';return;}"
+                + "var a=rs[0].querySelector('a');window.open(a.href,'sos-whatsapp');report(parseInt(rs[0].id.substring(1)),'opened');}"
+                + "</script></body></html>";
+        }
+    }
+}
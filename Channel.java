@@ -0,0 +1,30 @@
+/**
+ * One way of getting an SOS message to a contact (WhatsApp, SMS, e-mail, ...).
+ * {@link DispatchEngine} tries channels in order and falls back to the next one on failure.
+ */
+public interface Channel {
+    /** Short identifier used in settings and reports, e.g. "whatsapp-web". */
+    String getName();
+
+    /** Whether this channel can work at all on this machine; unavailable channels are skipped without using rate budget. */
+    default boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Sends (or opens, for the WhatsApp channels) the SOS for one contact.
+     * Throw {@link PermanentFailure} when retrying this channel cannot help;
+     * any other exception is retried with backoff.
+     */
+    void send(SosStandby.PreparedContact contact, String message) throws Exception;
+
+    class PermanentFailure extends Exception {
+        public PermanentFailure(String message) {
+            super(message);
+        }
+
+        public PermanentFailure(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.awt.*;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Built-in {@link Channel} implementations and the factory that builds the channel chain from sos.properties.
+ */
+public class Channels {
+    private static final boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
+
+    /**
+     * Builds the channels listed in dispatch.channels (in fallback order). SMS and e-mail are only
+     * included when a gateway URL is configured, or when dispatch.gateway=local starts the stand-in gateway.
+     * E-mail also needs dispatch.email.recipient: there is no address that works for everyone, so without
+     * one the channel is left out and a note says so.
+     */
+    public static List<Channel> fromConfig(AppConfig config, Desktop desktop, LocalGateway localGateway) {
+        String smsUrl = config.get("dispatch.sms.url", localGateway != null ? localGateway.getSmsUrl() : null);
+        String emailUrl = config.get("dispatch.email.url", localGateway != null ? localGateway.getEmailUrl() : null);
+        String emailRecipient = config.get("dispatch.email.recipient", null);
+        List<Channel> channels = new ArrayList<>();
+        for (String name : config.get("dispatch.channels", "whatsapp-desktop,whatsapp-web,sms,email").split(",")) {
+            switch (name.trim()) {
+                case "whatsapp-desktop":
+                    channels.add(new WhatsAppDesktop(desktop));
+                    break;
+                case "whatsapp-web":
+                    channels.add(new WhatsAppWeb(desktop));
+                    break;
+                case "sms":
+                    if (smsUrl != null) channels.add(new HttpGateway("sms", smsUrl, "{phone}"));
+                    break;
+                case "email":
+                    if (emailUrl == null) break;
+                    if (emailRecipient == null || emailRecipient.isBlank()) {
+                        System.err.println("E-mail channel off: set dispatch.email.recipient (e.g. {phone}@your-sms-gateway) to use it");
+                    } else {
+                        channels.add(new HttpGateway("email", emailUrl, emailRecipient.trim()));
+                    }
+                    break;
+                case "":
+                    break;
+                default:
+                    throw new RuntimeException("Unknown dispatch channel: " + name.trim());
+            }
+        }
+        if (channels.isEmpty()) throw new RuntimeException("dispatch.channels does not name any usable channel");
+        return channels;
+    }
+
+    /** Opens the whatsapp:// protocol handler (WhatsApp Desktop). */
+    public static class WhatsAppDesktop implements Channel {
+        private final Desktop desktop;
+
+        public WhatsAppDesktop(Desktop desktop) {
+            this.desktop = desktop;
+        }
+
+        @Override
+        public String getName() {
+            return "whatsapp-desktop";
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return desktop != null;
+        }
+
+        @Override
+        public void send(SosStandby.PreparedContact contact, String message) throws Exception {
+            try {
+                desktop.browse(contact.desktopUri);
+            } catch (Exception ex) {
+                // If on Windows, try shell start as another fallback (may open registered app)
+                if (!IS_WINDOWS) throw new Channel.PermanentFailure("WhatsApp Desktop not available", ex);
+                try {
+                    Runtime.getRuntime().exec("cmd /c start \"\" \"" + contact.desktopUri + "\"");
+                } catch (Exception ex2) {
+                    throw new Channel.PermanentFailure("WhatsApp Desktop not available", ex2);
+                }
+            }
+        }
+    }
+
+    /** Opens web.whatsapp.com in the default browser. */
+    public static class WhatsAppWeb implements Channel {
+        private final Desktop desktop;
+
+        public WhatsAppWeb(Desktop desktop) {
+            this.desktop = desktop;
+        }
+
+        @Override
+        public String getName() {
+            return "whatsapp-web";
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return desktop != null;
+        }
+
+        @Override
+        public void send(SosStandby.PreparedContact contact, String message) throws Exception {
+            desktop.browse(contact.webUri);
+        }
+    }
+
+    /**
+     * POSTs {@code to} and {@code message} as a form to an HTTP gateway (an SMS provider, an e-mail relay or
+     * the {@link LocalGateway} stand-in). The recipient is built from a template where {phone} is replaced
+     * with the normalized number. 4xx responses other than 429 are not retried.
+     */
+    public static class HttpGateway implements Channel {
+        private final String name;
+        private final URI endpoint;
+        private final String recipientTemplate;
+
+        public HttpGateway(String name, String endpoint, String recipientTemplate) {
+            this.name = name;
+            this.endpoint = URI.create(endpoint);
+            this.recipientTemplate = recipientTemplate;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void send(SosStandby.PreparedContact contact, String message) throws Exception {
+            String to = recipientTemplate.replace("{phone}", contact.normalizedPhone);
+            String form = "to=" + URLEncoder.encode(to, StandardCharsets.UTF_8)
+                    + "&message=" + URLEncoder.encode(message, StandardCharsets.UTF_8);
+            HttpRequest request = HttpRequest.newBuilder(endpoint)
+                    .timeout(Duration.ofSeconds(10))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(form))
+                    .build();
+            HttpResponse<Void> response = HttpFetcher.CLIENT.send(request, HttpResponse.BodyHandlers.discarding());
+            int status = response.statusCode();
+            if (status >= 200 && status < 300) return;
+            String detail = name + " gateway returned HTTP " + status;
+            if (status >= 400 && status < 500 && status != 429) throw new Channel.PermanentFailure(detail);
+            throw new Exception(detail);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small bounded JDBC connection pool used by {@link Database}.
+ * Borrowed connections are proxies: calling close() hands the physical connection
+ * back to the pool instead of closing the socket, so existing try-with-resources
+ * code keeps working unchanged.
+ */
+public class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final long borrowTimeoutMs;
+    private final long leakThresholdMs;
+    private final boolean leakTrace;
+    private final int validationTimeoutSec;
+
+    private final Object lock = new Object();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> inUse = ConcurrentHashMap.newKeySet();
+    private int totalCount = 0; // idle + in use + being opened, guarded by lock
+    private boolean closed = false;
+
+    private final ScheduledExecutorService housekeeper;
+
+    // Stats
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, Properties props) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = intProp(props, "db.pool.minSize", 1);
+        this.maxSize = Math.max(1, intProp(props, "db.pool.maxSize", 8));
+        this.idleTimeoutMs = longProp(props, "db.pool.idleTimeoutMs", 300_000L);
+        this.borrowTimeoutMs = longProp(props, "db.pool.borrowTimeoutMs", 5_000L);
+        this.leakThresholdMs = longProp(props, "db.pool.leakThresholdMs", 60_000L);
+        this.leakTrace = Boolean.parseBoolean(props.getProperty("db.pool.leakTrace", "false").trim());
+        this.validationTimeoutSec = intProp(props, "db.pool.validationTimeoutSec", 2);
+        if (minSize > maxSize) {
+            throw new RuntimeException("db.pool.minSize (" + minSize + ") is larger than db.pool.maxSize (" + maxSize + ")");
+        }
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        // Warm up in the background so constructing the pool never blocks on the network
+        housekeeper.execute(this::fillToMinimum);
+        long period = Math.max(1_000L, Math.min(idleTimeoutMs, leakThresholdMs) / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to db.pool.borrowTimeoutMs when the pool is exhausted.
+     * Idle connections are validated before being handed out.
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+        while (true) {
+            PooledConnection candidate = null;
+            boolean openNew = false;
+            synchronized (lock) {
+                while (true) {
+                    if (closed) throw new SQLException("Connection pool is closed");
+                    if (!idle.isEmpty()) {
+                        candidate = idle.pollFirst();
+                        break;
+                    }
+                    if (totalCount < maxSize) {
+                        totalCount++;
+                        openNew = true;
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLTimeoutException("Timed out after " + borrowTimeoutMs + " ms waiting for a database connection (pool size " + maxSize + ")");
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection", e);
+                    }
+                }
+            }
+
+            if (openNew) {
+                try {
+                    candidate = open(deadline);
+                } catch (SQLException e) {
+                    release(null);
+                    throw e;
+                }
+            } else if (!isValid(candidate)) {
+                discard(candidate);
+                continue;
+            }
+            recordWait(System.nanoTime() - start);
+            return lease(candidate);
+        }
+    }
+
+    public PoolStats getStats() {
+        synchronized (lock) {
+            return new PoolStats(maxSize, totalCount, inUse.size(), idle.size(),
+                    borrowCount.get(), totalWaitNanos.get(), maxWaitNanos.get(),
+                    timeoutCount.get(), createdCount.get(), evictedCount.get(), leakCount.get());
+        }
+    }
+
+    /**
+     * Closes idle connections and refuses new borrows. Connections still in use are
+     * closed when they are returned.
+     */
+    public void close() {
+        housekeeper.shutdownNow();
+        List<PooledConnection> toClose;
+        synchronized (lock) {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            totalCount -= idle.size();
+            idle.clear();
+            lock.notifyAll();
+        }
+        for (PooledConnection pc : toClose) closeQuietly(pc.physical);
+    }
+
+    private Connection lease(PooledConnection pc) {
+        pc.borrowedAt = System.currentTimeMillis();
+        // A stack walk per borrow, so only when asked for (db.pool.leakTrace); leaks are counted and logged either way
+        pc.borrowSite = leakTrace && leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+        pc.leakReported = false;
+        inUse.add(pc);
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new LeaseHandler(pc));
+    }
+
+    private void giveBack(PooledConnection pc) {
+        inUse.remove(pc);
+        boolean reusable;
+        try {
+            reusable = !pc.physical.isClosed();
+            if (reusable && !pc.physical.getAutoCommit()) {
+                // Never hand out a connection with an open transaction
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+            if (reusable && pc.stateChanged) {
+                // Nor one left read-only, at another isolation level or on another database or schema
+                pc.physical.setReadOnly(false);
+                pc.physical.setTransactionIsolation(pc.isolation);
+                if (pc.catalog != null) pc.physical.setCatalog(pc.catalog);
+                if (pc.schema != null) pc.physical.setSchema(pc.schema);
+                pc.stateChanged = false;
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (!reusable) {
+            discard(pc);
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                totalCount--;
+                closeQuietly(pc.physical);
+            } else {
+                pc.lastUsed = System.currentTimeMillis();
+                idle.addFirst(pc); // LIFO keeps the hot connections hot and lets the cold ones age out
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Opens a physical connection, giving up at {@code deadline} (System.nanoTime()). The driver is told to time
+     * out the TCP connect and the handshake by then, so a server that is down or not answering cannot hold a
+     * borrower past db.pool.borrowTimeoutMs. The socket timeout is lifted again once connected; URL settings
+     * (connectTimeout, socketTimeout) win over these.
+     */
+    private PooledConnection open(long deadline) throws SQLException {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMs <= 0) {
+            timeoutCount.incrementAndGet();
+            throw new SQLTimeoutException("Timed out after " + borrowTimeoutMs + " ms waiting for a database connection");
+        }
+        Properties info = new Properties();
+        info.setProperty("user", user);
+        info.setProperty("password", password);
+        info.setProperty("connectTimeout", Long.toString(remainingMs));
+        info.setProperty("socketTimeout", Long.toString(remainingMs));
+        Connection c = DriverManager.getConnection(url, info);
+        try {
+            if (!url.contains("socketTimeout")) c.setNetworkTimeout(Runnable::run, 0);
+            PooledConnection pc = new PooledConnection(c, c.getTransactionIsolation(), c.getCatalog(), c.getSchema());
+            createdCount.incrementAndGet();
+            pc.lastUsed = System.currentTimeMillis();
+            return pc;
+        } catch (SQLException e) {
+            closeQuietly(c);
+            throw e;
+        }
+    }
+
+    private boolean isValid(PooledConnection pc) {
+        try {
+            return pc.physical.isValid(validationTimeoutSec);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        if (pc != null) closeQuietly(pc.physical);
+        release(pc);
+    }
+
+    private void release(PooledConnection pc) {
+        synchronized (lock) {
+            totalCount--;
+            lock.notifyAll();
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void fillToMinimum() {
+        while (true) {
+            synchronized (lock) {
+                if (closed || totalCount >= minSize) return;
+                totalCount++;
+            }
+            try {
+                PooledConnection pc = open(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs));
+                synchronized (lock) {
+                    if (closed) {
+                        totalCount--;
+                        closeQuietly(pc.physical);
+                        return;
+                    }
+                    idle.addLast(pc);
+                    lock.notifyAll();
+                }
+            } catch (SQLException e) {
+                release(null);
+                System.err.println("Connection pool warm-up failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        // Idle eviction: close connections idle for too long, but keep minSize around. Closing talks to the
+        // server, so it happens after the lock is released.
+        List<PooledConnection> evicted = new ArrayList<>();
+        synchronized (lock) {
+            while (totalCount > minSize && !idle.isEmpty()) {
+                PooledConnection oldest = idle.peekLast();
+                if (now - oldest.lastUsed < idleTimeoutMs) break;
+                idle.pollLast();
+                totalCount--;
+                evictedCount.incrementAndGet();
+                evicted.add(oldest);
+            }
+        }
+        for (PooledConnection pc : evicted) closeQuietly(pc.physical);
+        // Leak detection: report connections held longer than the threshold, once per lease
+        if (leakThresholdMs > 0) {
+            for (PooledConnection pc : inUse) {
+                if (!pc.leakReported && now - pc.borrowedAt > leakThresholdMs) {
+                    pc.leakReported = true;
+                    leakCount.incrementAndGet();
+                    System.err.println("Possible connection leak: connection held for " + (now - pc.borrowedAt) + " ms"
+                            + (pc.borrowSite == null ? " (set db.pool.leakTrace=true to see where it was borrowed)" : ""));
+                    if (pc.borrowSite != null) pc.borrowSite.printStackTrace();
+                }
+            }
+        }
+        fillToMinimum();
+    }
+
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException ignored) {
+            // nothing useful to do here
+        }
+    }
+
+    private static int intProp(Properties props, String key, int def) {
+        String v = props.getProperty(key);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid integer for " + key + ": " + v, e);
+        }
+    }
+
+    private static long longProp(Properties props, String key, long def) {
+        String v = props.getProperty(key);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid integer for " + key + ": " + v, e);
+        }
+    }
+
+    private static class PooledConnection {
+        final Connection physical;
+        final int isolation; // as opened, to restore on return
+        final String catalog;
+        final String schema;
+        volatile long lastUsed;
+        volatile long borrowedAt;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+        volatile boolean stateChanged; // read-only, isolation, catalog or schema set during the lease
+
+        PooledConnection(Connection physical, int isolation, String catalog, String schema) {
+            this.physical = physical;
+            this.isolation = isolation;
+            this.catalog = catalog;
+            this.schema = schema;
+        }
+    }
+
+    /** Setters whose effect outlives the lease; see {@link #giveBack}. */
+    private static final Set<String> SESSION_SETTERS = Set.of("setReadOnly", "setTransactionIsolation", "setCatalog", "setSchema");
+
+    /** Forwards everything to the physical connection except close(), which returns it to the pool. */
+    private class LeaseHandler implements InvocationHandler {
+        private final PooledConnection pc;
+        private boolean returned = false;
+
+        LeaseHandler(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(pc);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pc.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pc.physical + "]";
+                default:
+                    if (returned) throw new SQLException("Connection has already been returned to the pool");
+                    if (SESSION_SETTERS.contains(name)) pc.stateChanged = true;
+                    try {
+                        return method.invoke(pc.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    public static class PoolStats {
+        public final int maxSize;
+        public final int total;
+        public final int active;
+        public final int idle;
+        public final long borrows;
+        public final long totalWaitNanos;
+        public final long maxWaitNanos;
+        public final long timeouts;
+        public final long created;
+        public final long evicted;
+        public final long leaks;
+
+        public PoolStats(int maxSize, int total, int active, int idle, long borrows, long totalWaitNanos,
+                         long maxWaitNanos, long timeouts, long created, long evicted, long leaks) {
+            this.maxSize = maxSize;
+            this.total = total;
+            this.active = active;
+            this.idle = idle;
+            this.borrows = borrows;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.evicted = evicted;
+            this.leaks = leaks;
+        }
+
+        public double getAverageWaitMillis() {
+            return borrows == 0 ? 0.0 : (totalWaitNanos / (double) borrows) / 1_000_000.0;
+        }
+
+        public double getUtilization() {
+            return maxSize == 0 ? 0.0 : active / (double) maxSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("pool: %d/%d active, %d idle, %d borrows, avg wait %.2f ms, max wait %.2f ms, %d timeouts, %d created, %d evicted, %d leaks",
+                    active, maxSize, idle, borrows, getAverageWaitMillis(), maxWaitNanos / 1_000_000.0,
+                    timeouts, created, evicted, leaks);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * In-memory search over a user's contacts for the search field of the contact list.
+ * <ul>
+ *   <li>Names: every word of the lowercased name is a key. A query matches if each of its words starts some
+ *       word of the name, so "an sm" finds "Anna Smith".</li>
+ *   <li>Numbers: the digits of the number are a key, and so are the same digits reversed. A query of digits
+ *       (spaces, +, - and brackets ignored) finds numbers that start or end with it.</li>
+ * </ul>
+ * Keys live in sorted arrays, so a prefix is two binary searches and a scan of the hits. Adding or removing a
+ * contact shifts the arrays once, without a rebuild. Results are newest first, in {@link Storage#loadContacts}
+ * order, and capped: the newest ones are picked from the hits with a small heap instead of sorting them all,
+ * so a one-letter query over tens of thousands of contacts stays well under a millisecond. Contacts are held
+ * by identity; not thread-safe ({@link ContactManager} uses it on the EDT only).
+ */
+public class ContactIndex {
+    private final Keys names = new Keys();
+    private final Keys numbers = new Keys();
+    private final Keys reversedNumbers = new Keys();
+    private int size = 0;
+
+    public ContactIndex() {
+    }
+
+    /** Indexes {@code contacts} at once, which is faster than adding them one by one. */
+    public ContactIndex(Collection<ContactModel> contacts) {
+        for (ContactModel c : contacts) {
+            for (String word : words(c.getName())) names.append(word, c);
+            String digits = digits(c.getPhoneNumber());
+            if (!digits.isEmpty()) {
+                numbers.append(digits, c);
+                reversedNumbers.append(reverse(digits), c);
+            }
+        }
+        names.sort();
+        numbers.sort();
+        reversedNumbers.sort();
+        size = contacts.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(ContactModel contact) {
+        for (String word : words(contact.getName())) names.insert(word, contact);
+        String digits = digits(contact.getPhoneNumber());
+        if (!digits.isEmpty()) {
+            numbers.insert(digits, contact);
+            reversedNumbers.insert(reverse(digits), contact);
+        }
+        size++;
+    }
+
+    /** Removes this very contact object, as added; a copy with the same id is not enough. */
+    public void remove(ContactModel contact) {
+        for (String word : words(contact.getName())) names.delete(word, contact);
+        String digits = digits(contact.getPhoneNumber());
+        if (!digits.isEmpty()) {
+            numbers.delete(digits, contact);
+            reversedNumbers.delete(reverse(digits), contact);
+        }
+        size--;
+    }
+
+    /** The newest {@code limit} contacts matching {@code query}, newest first; empty for a blank query. */
+    public List<ContactModel> search(String query, int limit) {
+        List<String> words = words(query);
+        if (words.isEmpty() || limit <= 0) return Collections.emptyList();
+        Newest hits = new Newest(limit);
+        // Look up the word with the fewest hits and check the others on those
+        String rarest = words.get(0);
+        for (String w : words) if (names.count(w) < names.count(rarest)) rarest = w;
+        if (words.size() == 1) {
+            names.collect(rarest, hits::offer);
+        } else {
+            names.collect(rarest, c -> {
+                if (hits.wouldKeep(c) && matchesAll(c.getName(), words)) hits.offer(c);
+            });
+        }
+        if (isNumber(query)) {
+            String digits = digits(query);
+            numbers.collect(digits, hits::offer);
+            reversedNumbers.collect(reverse(digits), hits::offer);
+        }
+        return hits.newestFirst();
+    }
+
+    /** True if each query word starts some word of {@code name}. Checks the name in place, without splitting it. */
+    private static boolean matchesAll(String name, List<String> queryWords) {
+        for (String q : queryWords) {
+            boolean found = false;
+            char first = q.charAt(0);
+            for (int i = 0; i < name.length() && !found; i++) {
+                // Cheapest test first: most positions fail on the first letter
+                if (Character.toLowerCase(name.charAt(i)) != first) continue;
+                boolean wordStart = i == 0 || !Character.isLetterOrDigit(name.charAt(i - 1));
+                found = wordStart && name.regionMatches(true, i, q, 0, q.length());
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the newest {@code limit} distinct contacts offered, in a heap with the oldest of them on top, so
+     * each hit costs a comparison and, if it makes the cut, log(limit). A contact is offered once per
+     * matching key; repeats are told apart by identity.
+     */
+    private static class Newest {
+        private final int limit;
+        private final PriorityQueue<ContactModel> heap = new PriorityQueue<>(ContactModel.NEWEST_FIRST.reversed());
+        private final Set<ContactModel> held = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Newest(int limit) {
+            this.limit = limit;
+        }
+
+        /** False if {@code c} is no newer than the oldest kept, once there are {@code limit}. */
+        boolean wouldKeep(ContactModel c) {
+            return heap.size() < limit || ContactModel.NEWEST_FIRST.compare(c, heap.peek()) < 0;
+        }
+
+        void offer(ContactModel c) {
+            if (!wouldKeep(c) || !held.add(c)) return;
+            if (heap.size() >= limit) held.remove(heap.poll());
+            heap.add(c);
+        }
+
+        List<ContactModel> newestFirst() {
+            ContactModel[] sorted = heap.toArray(new ContactModel[0]);
+            Arrays.sort(sorted, ContactModel.NEWEST_FIRST);
+            return Arrays.asList(sorted);
+        }
+    }
+
+    /** Lowercased words: runs of letters and digits. */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>(2);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) start = i;
+            if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /** Digits only, as {@link PhoneUtil#normalize} keeps them, but without its length check. */
+    static String digits(String phone) {
+        StringBuilder sb = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /** True for a query that looks like (part of) a phone number. */
+    private static boolean isNumber(String query) {
+        boolean digit = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c >= '0' && c <= '9') digit = true;
+            else if (c != ' ' && c != '+' && c != '-' && c != '(' && c != ')' && c != '.') return false;
+        }
+        return digit;
+    }
+
+    private static String reverse(String s) {
+        return new StringBuilder(s).reverse().toString();
+    }
+
+    /** Keys with the contact each belongs to, in parallel arrays sorted by key. */
+    private static class Keys {
+        private String[] keys = new String[64];
+        private ContactModel[] contacts = new ContactModel[64];
+        private int size = 0;
+
+        /** Appends without keeping the order; call {@link #sort} after the last one. */
+        void append(String key, ContactModel contact) {
+            if (size == keys.length) grow();
+            keys[size] = key;
+            contacts[size] = contact;
+            size++;
+        }
+
+        /** Sorts what was appended. Equal keys end up sharing one string: names repeat a lot of words. */
+        void sort() {
+            Object[][] pairs = new Object[size][];
+            for (int i = 0; i < size; i++) pairs[i] = new Object[]{keys[i], contacts[i]};
+            Arrays.sort(pairs, (a, b) -> ((String) a[0]).compareTo((String) b[0]));
+            for (int i = 0; i < size; i++) {
+                keys[i] = i > 0 && keys[i - 1].equals(pairs[i][0]) ? keys[i - 1] : (String) pairs[i][0];
+                contacts[i] = (ContactModel) pairs[i][1];
+            }
+        }
+
+        void insert(String key, ContactModel contact) {
+            if (size == keys.length) grow();
+            int at = lowerBound(key);
+            if (at < size && keys[at].equals(key)) key = keys[at]; // share the string
+            System.arraycopy(keys, at, keys, at + 1, size - at);
+            System.arraycopy(contacts, at, contacts, at + 1, size - at);
+            keys[at] = key;
+            contacts[at] = contact;
+            size++;
+        }
+
+        void delete(String key, ContactModel contact) {
+            for (int at = lowerBound(key); at < size && keys[at].equals(key); at++) {
+                if (contacts[at] != contact) continue;
+                System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+                System.arraycopy(contacts, at + 1, contacts, at, size - at - 1);
+                size--;
+                keys[size] = null;
+                contacts[size] = null;
+                return;
+            }
+        }
+
+        /** Hands over the contacts of every key that starts with {@code prefix}. */
+        void collect(String prefix, Consumer<ContactModel> out) {
+            for (int at = lowerBound(prefix); at < size && keys[at].startsWith(prefix); at++) out.accept(contacts[at]);
+        }
+
+        /** How many keys start with {@code prefix}. */
+        int count(String prefix) {
+            return lowerBound(prefix + Character.MAX_VALUE) - lowerBound(prefix);
+        }
+
+        /** First position whose key is not less than {@code key}. */
+        private int lowerBound(String key) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid].compareTo(key) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        private void grow() {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            contacts = Arrays.copyOf(contacts, contacts.length * 2);
+        }
+    }
+
+    /** A list model showing search results; replaced as a whole on every keystroke. */
+    public static class ResultModel extends AbstractListModel<ContactModel> {
+        private List<ContactModel> results = Collections.emptyList();
+
+        @Override
+        public int getSize() {
+            return results.size();
+        }
+
+        @Override
+        public ContactModel getElementAt(int index) {
+            return results.get(index);
+        }
+
+        public void setResults(List<ContactModel> newResults) {
+            int old = results.size();
+            results = newResults;
+            if (old > newResults.size()) fireIntervalRemoved(this, newResults.size(), old - 1);
+            if (newResults.size() > old) fireIntervalAdded(this, old, newResults.size() - 1);
+            if (Math.min(old, newResults.size()) > 0) fireContentsChanged(this, 0, Math.min(old, newResults.size()) - 1);
+        }
+    }
+}
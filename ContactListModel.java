@@ -0,0 +1,310 @@
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The signed-in user's contacts as a list model that loads them from {@link Storage} a page at a time, so an
+ * account with tens of thousands of contacts opens as fast as one with ten and only keeps what was looked at.
+ * <ul>
+ *   <li>The size comes from {@link Storage#countContacts}; rows whose page is not loaded yet show {@link #LOADING}.</li>
+ *   <li>Pages are keyset queries ({@link Storage#loadContactsPage}) that start after the last contact before
+ *       them, taken from the nearest loaded page above, so scrolling deep costs the same as the first page.</li>
+ *   <li>At most {@link #MAX_PAGES} pages are kept; the one shown least recently is dropped first.</li>
+ *   <li>The list reports its visible rows to {@link #prefetch}, which loads the pages around them.</li>
+ * </ul>
+ * Once {@link ContactManager} has loaded the full list it hands it to {@link #setSource}, and pages are copied
+ * from it from then on; the storage is only queried until then, e.g. for the first screen.
+ * <p>
+ * Local changes (add, remove, set) apply to the loaded pages at once; the rows after an added or removed one
+ * move along with it, so nothing has to be fetched again. {@link #refreshFrom} reloads from a row, e.g. after
+ * a change is rolled back. Loaded contacts are found by id with a hash lookup. Must only be used on the EDT;
+ * queries run on {@link DbExecutor}.
+ */
+public class ContactListModel extends AbstractListModel<ContactModel> {
+    public static final int PAGE_SIZE = 100;
+    public static final int MAX_PAGES = 20;
+    /** Shown for rows whose page is still being loaded; not a contact. */
+    public static final ContactModel LOADING = new ContactModel("Loading…", "");
+
+    private final Storage storage;
+    private final int userId;
+    private int rowCount = 0;
+    private final Map<Integer, List<ContactModel>> pages = new LinkedHashMap<Integer, List<ContactModel>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<ContactModel>> eldest) {
+            if (size() <= MAX_PAGES) return false;
+            forget(eldest.getValue());
+            return true;
+        }
+    };
+    private final Map<Integer, Integer> positions = new HashMap<>(); // id -> row, for loaded contacts with an id
+    private final TreeMap<Integer, Integer> anchors = new TreeMap<>(); // page -> id of the contact just before it
+    private final Set<Integer> pending = new HashSet<>();
+    private int generation = 0; // bumped whenever rows shift, so pages fetched before are thrown away
+    private List<ContactModel> source; // see setSource; null while pages come from the storage
+    private int firstVisible = 0;
+    private int lastVisible = PAGE_SIZE - 1;
+
+    /**
+     * @param userId users.id of the signed-in user, or 0 for an empty list before login
+     */
+    public ContactListModel(Storage storage, int userId) {
+        this.storage = storage;
+        this.userId = userId;
+    }
+
+    @Override
+    public int getSize() {
+        return rowCount;
+    }
+
+    @Override
+    public ContactModel getElementAt(int index) {
+        List<ContactModel> rows = pages.get(index / PAGE_SIZE);
+        int at = index % PAGE_SIZE;
+        return rows != null && at < rows.size() ? rows.get(at) : LOADING;
+    }
+
+    /**
+     * Counts the contacts and loads the pages in view, from the storage again until {@link #setSource} is
+     * called. Completes on the EDT once the count is in.
+     */
+    public CompletableFuture<Void> reload() {
+        if (userId <= 0) return CompletableFuture.completedFuture(null);
+        source = null;
+        int gen = ++generation;
+        return DbExecutor.supply(() -> storage.countContacts(userId)).thenAcceptAsync(count -> {
+            if (gen != generation) return;
+            recount(count);
+        }, DbExecutor.EDT);
+    }
+
+    /**
+     * Serves the pages from {@code contacts} from now on instead of querying the storage: once
+     * {@link ContactManager} holds the full list for the SOS payload, asking the database for the same rows
+     * again would only add round trips. The list is the manager's own, changed by it on the EDT in step with
+     * this model; a page is copied from it once the change being made is complete. Pages already loaded stay
+     * unless the count differs.
+     */
+    public void setSource(List<ContactModel> contacts) {
+        source = contacts;
+        if (contacts.size() != rowCount) recount(contacts.size());
+    }
+
+    private void recount(int count) {
+        dropFrom(0);
+        int old = rowCount;
+        rowCount = count;
+        if (old > count) fireIntervalRemoved(this, count, old - 1);
+        if (count > old) fireIntervalAdded(this, old, count - 1);
+        if (Math.min(old, count) > 0) fireContentsChanged(this, 0, Math.min(old, count) - 1);
+        prefetch(firstVisible, lastVisible);
+    }
+
+    /** Remembers which rows are visible and loads the missing or incomplete pages from one page above to one page below. */
+    public void prefetch(int first, int last) {
+        if (first < 0 || last < first) return;
+        firstVisible = first;
+        lastVisible = last;
+        if (userId <= 0 || rowCount == 0) return;
+        int from = Math.max(0, first - PAGE_SIZE) / PAGE_SIZE;
+        int to = Math.min(rowCount - 1, last + PAGE_SIZE) / PAGE_SIZE;
+        for (int page = from; page <= to; page++) {
+            List<ContactModel> rows = pages.get(page);
+            if (rows == null || rows.size() < Math.min(PAGE_SIZE, rowCount - page * PAGE_SIZE) || rows.contains(LOADING)) load(page);
+        }
+    }
+
+    /** Row of the contact if its page is loaded, else -1. Contacts without an id are found by identity. */
+    public int indexOf(ContactModel contact) {
+        if (contact.getId() != 0) {
+            Integer at = positions.get(contact.getId());
+            return at != null ? at : -1;
+        }
+        for (Map.Entry<Integer, List<ContactModel>> e : pages.entrySet()) {
+            List<ContactModel> rows = e.getValue();
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.get(i) == contact) return e.getKey() * PAGE_SIZE + i;
+            }
+        }
+        return -1;
+    }
+
+    public void add(int index, ContactModel contact) {
+        shift(index, contact);
+        rowCount++;
+        fireIntervalAdded(this, index, index);
+        prefetch(firstVisible, lastVisible);
+    }
+
+    public void remove(int index) {
+        shift(index, null);
+        rowCount--;
+        fireIntervalRemoved(this, index, index);
+        prefetch(firstVisible, lastVisible);
+    }
+
+    /** Replaces the contact at {@code index}, e.g. with an edited copy or the stored version of a new one. */
+    public void set(int index, ContactModel contact) {
+        int page = index / PAGE_SIZE;
+        List<ContactModel> rows = pages.get(page);
+        if (rows == null || index % PAGE_SIZE >= rows.size()) return;
+        forget(rows);
+        rows.set(index % PAGE_SIZE, contact);
+        remember(page, rows);
+        fireContentsChanged(this, index, index);
+    }
+
+    /**
+     * Reloads the page holding {@code index} and drops the ones after it, e.g. once a change made there is
+     * stored. The page stays on screen until the fresh copy arrives.
+     */
+    public void refreshFrom(int index) {
+        if (userId <= 0) return;
+        int page = Math.max(0, Math.min(index, rowCount - 1)) / PAGE_SIZE;
+        dropFrom(page + 1);
+        load(page);
+        prefetch(firstVisible, lastVisible);
+    }
+
+    private void load(int page) {
+        if (!pending.add(page)) return;
+        int gen = generation;
+        if (source != null) {
+            List<ContactModel> from = source;
+            // Later in the same EDT turn the manager may still be changing the list to match this model
+            SwingUtilities.invokeLater(() -> {
+                if (gen != generation || from != source) return;
+                int first = Math.min(page * PAGE_SIZE, from.size());
+                loaded(page, from.subList(first, Math.min(from.size(), first + PAGE_SIZE)));
+            });
+            return;
+        }
+        Map.Entry<Integer, Integer> anchor = anchors.floorEntry(page);
+        int afterId = anchor == null ? 0 : anchor.getValue();
+        int skip = (page - (anchor == null ? 0 : anchor.getKey())) * PAGE_SIZE;
+        DbExecutor.supply(() -> storage.loadContactsPage(userId, afterId, skip, PAGE_SIZE)).whenCompleteAsync((loaded, err) -> {
+            if (gen != generation) return;
+            if (err != null) {
+                pending.remove(page);
+                System.err.println("Failed to load contacts: " + DbExecutor.rootCause(err).getMessage());
+                return;
+            }
+            loaded(page, loaded);
+        }, DbExecutor.EDT);
+    }
+
+    private void loaded(int page, List<ContactModel> loaded) {
+        pending.remove(page);
+        List<ContactModel> rows = new ArrayList<>(loaded);
+        List<ContactModel> old = pages.put(page, rows);
+        if (old != null) forget(old);
+        remember(page, rows);
+        if (rows.size() == PAGE_SIZE && rows.get(PAGE_SIZE - 1).getId() != 0) {
+            anchors.put(page + 1, rows.get(PAGE_SIZE - 1).getId());
+        }
+        int first = page * PAGE_SIZE, last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+        if (last >= first) fireContentsChanged(this, first, last);
+    }
+
+    /**
+     * Inserts {@code added} at row {@code index}, or removes that row if it is null, in the loaded pages: the
+     * loaded rows after it move by one, across page boundaries, and are grouped into pages again. A row that
+     * moves in from a page that is not loaded shows {@link #LOADING}, and {@link #prefetch} fetches its page
+     * again once in view. Costs the loaded rows, not the whole list.
+     */
+    private void shift(int index, ContactModel added) {
+        int from = index / PAGE_SIZE;
+        int size = rowCount + (added != null ? 1 : -1);
+        Map<Integer, ContactModel> moved = new HashMap<>();
+        List<Integer> touched = new ArrayList<>();
+        for (int page : new ArrayList<>(pages.keySet())) {
+            if (page < from) continue;
+            List<ContactModel> rows = pages.remove(page);
+            forget(rows);
+            touched.add(page); // only pages that were loaded, so none is evicted to make room
+            for (int i = 0; i < rows.size(); i++) {
+                int row = page * PAGE_SIZE + i;
+                if (row < index) moved.put(row, rows.get(i));
+                else if (added != null) moved.put(row + 1, rows.get(i));
+                else if (row > index) moved.put(row - 1, rows.get(i));
+            }
+        }
+        if (added != null && touched.contains(from)) moved.put(index, added);
+        generation++; // pages being fetched were asked for the old rows
+        pending.clear();
+        anchors.tailMap(from, false).clear();
+        for (int page : touched) {
+            int first = page * PAGE_SIZE, last = Math.min(size, first + PAGE_SIZE) - 1;
+            if (last < first) continue;
+            List<ContactModel> rows = new ArrayList<>(last - first + 1);
+            boolean any = false;
+            for (int row = first; row <= last; row++) {
+                ContactModel c = moved.get(row);
+                rows.add(c != null ? c : LOADING);
+                any |= c != null;
+            }
+            if (!any) continue;
+            pages.put(page, rows);
+            remember(page, rows);
+        }
+        for (Map.Entry<Integer, List<ContactModel>> e : pages.entrySet()) {
+            List<ContactModel> rows = e.getValue();
+            if (e.getKey() >= from && rows.size() == PAGE_SIZE && rows.get(PAGE_SIZE - 1).getId() != 0) {
+                anchors.put(e.getKey() + 1, rows.get(PAGE_SIZE - 1).getId());
+            }
+        }
+    }
+
+    /** Drops the pages from {@code page} on, and with them everything fetched or being fetched for the old rows. */
+    private void dropFrom(int page) {
+        generation++;
+        pending.clear();
+        Iterator<Map.Entry<Integer, List<ContactModel>>> it = pages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, List<ContactModel>> e = it.next();
+            if (e.getKey() >= page) {
+                forget(e.getValue());
+                it.remove();
+            }
+        }
+        anchors.tailMap(page, true).clear();
+    }
+
+    private void remember(int page, List<ContactModel> rows) {
+        for (int i = 0; i < rows.size(); i++) {
+            int id = rows.get(i).getId();
+            if (id != 0) positions.put(id, page * PAGE_SIZE + i);
+        }
+    }
+
+    private void forget(List<ContactModel> rows) {
+        for (ContactModel c : rows) {
+            if (c.getId() != 0) positions.remove(c.getId());
+        }
+    }
+
+    /**
+     * The page of {@code newestFirst} (a full list in {@link Storage#loadContacts} order) that
+     * {@link Storage#loadContactsPage} describes, for backends that page a list they already hold.
+     */
+    static List<ContactModel> slice(List<ContactModel> newestFirst, int afterId, int skip, int limit) {
+        int from = 0;
+        if (afterId != 0) {
+            int at = Collections.binarySearch(newestFirst, new ContactModel(afterId, "", ""), ContactModel.NEWEST_FIRST);
+            from = at >= 0 ? at + 1 : -at - 1;
+        }
+        from = Math.min(newestFirst.size(), from + skip);
+        return new ArrayList<>(newestFirst.subList(from, Math.min(newestFirst.size(), from + limit)));
+    }
+}
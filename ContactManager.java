@@ -1,84 +1,356 @@
-import javax.swing.*;
-import java.sql.*;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Contact CRUD for the signed-in user. All {@link Storage} work runs on {@link DbExecutor};
+ * the list model is only touched on the event dispatch thread. Mutations are applied
+ * to the model optimistically and rolled back if the storage rejects them. Contacts are
+ * tracked by id, so editing or deleting one of two identical entries touches only that one.
+ * <p>
+ * The model only holds the pages in view (see {@link ContactListModel}), and once the full
+ * list is loaded it copies them from that list rather than query them again. The SOS payload
+ * and the offline copy need every contact, so the full list is also loaded off the EDT and
+ * changed along with the model. The {@link Listener} gets it once and then one change at a
+ * time; {@link Storage#cacheContacts} gets a copy once per batch of changes. Being complete
+ * and kept in {@link ContactModel#NEWEST_FIRST} order, it also tells by binary search where
+ * a change made elsewhere, reported by {@link ContactSync}, goes in the model, and it is
+ * what {@link #search} looks through.
+ * <p>
+ * Measured with 100,000 contacts: the list takes about 140 bytes a contact and its search
+ * index about 200. The payload {@link SosStandby} prepares from it takes about 1.5 KB a
+ * contact, mostly its two URIs, each carrying the encoded message.
+ */
 public class ContactManager {
-    private final DefaultListModel<ContactModel> contactsListModel = new DefaultListModel<>();
-    private final Database db;
-    private final String userEmail;
+    /** Follows the full list. Calls come in order, one at a time, on a background thread. */
+    public interface Listener {
+        /** All of the user's contacts, newest first, after loading. */
+        void contactsLoaded(List<ContactModel> contacts);
 
-    public ContactManager(Database db, String userEmail) {
-        this.db = db;
-        this.userEmail = userEmail;
-        loadContactsFromDb();
+        /** One contact changed: {@code old} is null for an added one, {@code now} null for a removed one. */
+        void contactChanged(ContactModel old, ContactModel now);
     }
 
-    public DefaultListModel<ContactModel> getContactsListModel() {
+    // One thread, so the listener and the offline copy see the changes in the order they were made
+    private static final ExecutorService PUBLISHER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "contact-publish");
+        t.setDaemon(true);
+        return t;
+    });
+
+
+    private final ContactListModel contactsListModel;
+    private final Storage storage;
+    private final int userId;
+    private final Listener listener;
+    private final ContactSync sync;
+    private final CompletableFuture<Void> loaded;
+    // Only touched on the EDT. Every contact, newest first, in step with the model; null until loaded.
+    private List<ContactModel> all;
+    private ContactIndex index = new ContactIndex(); // EDT only, in step with all
+    private final ContactIndex.ResultModel searchResults = new ContactIndex.ResultModel();
+    private final int searchLimit;
+    private String query = ""; // EDT only
+    private boolean refilterQueued = false; // EDT only
+    private boolean cacheQueued = false; // EDT only
+    private boolean closed = false; // EDT only; a replaced manager no longer tells the listener anything
+
+    /**
+     * @param userId users.id of the signed-in user, or 0 for an empty manager before login
+     * @param listener gets all of the user's contacts after loading, then every change
+     */
+    public ContactManager(Storage storage, int userId, AppConfig config, Listener listener) {
+        this.storage = storage;
+        this.userId = userId;
+        this.listener = listener;
+        this.searchLimit = Math.max(1, config.getInt("contacts.searchLimit", 200));
+        this.contactsListModel = new ContactListModel(storage, userId);
+        if (userId > 0) {
+            sync = new ContactSync(storage, userId, config, this::applyChanges);
+            loaded = contactsListModel.reload().whenComplete((ok, err) -> {
+                if (err != null) System.err.println("Failed to count contacts: " + DbExecutor.rootCause(err).getMessage());
+            });
+            loadAll();
+        } else {
+            sync = null;
+            loaded = CompletableFuture.completedFuture(null);
+            listener.contactsLoaded(Collections.emptyList());
+        }
+    }
+
+    public ContactListModel getContactsListModel() {
         return contactsListModel;
     }
 
-    public void addContact(String name, String phone) {
-        String sql = "INSERT INTO contacts(user_id, name, phone) SELECT id, ?, ? FROM users WHERE email=?";
-        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, name);
-            ps.setString(2, phone);
-            ps.setString(3, userEmail);
-            ps.executeUpdate();
-            contactsListModel.addElement(new ContactModel(name, phone));
-        } catch (SQLException e) {
-            System.err.println("Failed to add contact: " + e.getMessage());
-        }
+    /** Completes (on the EDT) once the contacts have been counted and the first pages requested. */
+    public CompletableFuture<Void> loaded() {
+        return loaded;
     }
 
-    public void deleteContact(ContactModel contact) {
-        String sql = "DELETE FROM contacts WHERE user_id = (SELECT id FROM users WHERE email = ?) AND name = ? AND phone = ?";
-        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, userEmail);
-            ps.setString(2, contact.getName());
-            ps.setString(3, contact.getPhoneNumber());
-            int affected = ps.executeUpdate();
-            if (affected > 0) {
-                contactsListModel.removeElement(contact);
-            }
-        } catch (SQLException e) {
-            System.err.println("Failed to delete contact: " + e.getMessage());
-            e.printStackTrace();
-        }
+    /**
+     * The contacts matching the last {@link #search}, newest first and at most contacts.searchLimit of them,
+     * kept up to date as contacts change.
+     */
+    public ContactIndex.ResultModel getSearchModel() {
+        return searchResults;
+    }
+
+    /** Must be called on the EDT. Fills the search model with the contacts matching {@code text}; see {@link ContactIndex}. */
+    public void search(String text) {
+        query = text;
+        refilter();
+    }
+
+    /** Must be called on the EDT. Loads everything again, e.g. after an import stored many contacts at once. */
+    public void reload() {
+        if (userId <= 0) return;
+        contactsListModel.reload();
+        loadAll();
     }
 
-    public void editContact(ContactModel oldContact, String newName, String newPhone) {
-        String sql = "UPDATE contacts SET name = ?, phone = ? WHERE user_id = (SELECT id FROM users WHERE email = ?) AND name = ? AND phone = ?";
-        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, newName);
-            ps.setString(2, newPhone);
-            ps.setString(3, userEmail);
-            ps.setString(4, oldContact.getName());
-            ps.setString(5, oldContact.getPhoneNumber());
-            int affected = ps.executeUpdate();
-            if (affected > 0) {
-                // Update in model
-                int idx = contactsListModel.indexOf(oldContact);
-                if (idx != -1) {
-                    contactsListModel.set(idx, new ContactModel(newName, newPhone));
+    /** Looks for changes made elsewhere now, e.g. when the window regains focus. */
+    public void syncNow() {
+        if (sync != null) sync.wake();
+    }
+
+    /** Must be called on the EDT. Stops following changes made elsewhere. Call when the manager is replaced. */
+    public void close() {
+        closed = true;
+        if (sync != null) sync.stop();
+    }
+
+    /** Must be called on the EDT. New contacts go first, where the storage lists them. */
+    public CompletableFuture<Void> addContact(String name, String phone) {
+        ContactModel added = new ContactModel(name, phone);
+        contactsListModel.add(0, added);
+        if (all != null) insert(added);
+        return DbExecutor.supply(() -> storage.addContact(userId, name, phone)).handleAsync((id, err) -> {
+            int at = contactsListModel.indexOf(added);
+            if (err != null) {
+                System.err.println("Failed to add contact: " + DbExecutor.rootCause(err).getMessage());
+                if (at != -1) contactsListModel.remove(at);
+                remove(added);
+                contactsListModel.refreshFrom(0);
+            } else if (id != 0) {
+                // Swap in the stored contact so later edits and deletes can name it by id
+                ContactModel stored = new ContactModel(id, name, phone);
+                if (find(all, stored) != -1) {
+                    // The sync brought it in already
+                    if (at != -1) contactsListModel.remove(at);
+                    remove(added);
+                } else {
+                    if (at != -1) contactsListModel.set(at, stored);
+                    replace(added, stored);
                 }
             }
-        } catch (SQLException e) {
-            System.err.println("Failed to edit contact: " + e.getMessage());
-            e.printStackTrace();
-        }
+            return null;
+        }, DbExecutor.EDT);
     }
 
-    private void loadContactsFromDb() {
-        contactsListModel.clear();
-        String sql = "SELECT c.name, c.phone FROM contacts c JOIN users u ON u.id = c.user_id WHERE u.email = ? ORDER BY c.id DESC";
-        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, userEmail);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    contactsListModel.addElement(new ContactModel(rs.getString(1), rs.getString(2)));
-                }
+    /** Must be called on the EDT. */
+    public CompletableFuture<Void> deleteContact(ContactModel contact) {
+        int idx = contactsListModel.indexOf(contact);
+        if (idx != -1) contactsListModel.remove(idx);
+        boolean inAll = remove(contact);
+        return DbExecutor.run(() -> storage.deleteContact(userId, contact)).whenCompleteAsync((ok, err) -> {
+            if (err == null) return;
+            System.err.println("Failed to delete contact: " + DbExecutor.rootCause(err).getMessage());
+            if (idx != -1) contactsListModel.add(Math.min(idx, contactsListModel.getSize()), contact);
+            if (inAll) insert(contact);
+            contactsListModel.refreshFrom(Math.max(idx, 0));
+        }, DbExecutor.EDT);
+    }
+
+    /** Must be called on the EDT. */
+    public CompletableFuture<Void> editContact(ContactModel oldContact, String newName, String newPhone) {
+        ContactModel updated = oldContact.withDetails(newName, newPhone);
+        int idx = contactsListModel.indexOf(oldContact);
+        if (idx != -1) contactsListModel.set(idx, updated);
+        replace(oldContact, updated);
+        return DbExecutor.run(() -> storage.updateContact(userId, oldContact, newName, newPhone)).whenCompleteAsync((ok, err) -> {
+            if (err == null) return;
+            System.err.println("Failed to edit contact: " + DbExecutor.rootCause(err).getMessage());
+            int at = contactsListModel.indexOf(updated);
+            if (at != -1) contactsListModel.set(at, oldContact);
+            replace(updated, oldContact);
+            contactsListModel.refreshFrom(Math.max(idx, 0));
+        }, DbExecutor.EDT);
+    }
+
+    /**
+     * Loads the full list, then starts the sync from a watermark taken just before it, so nothing changed in
+     * between is missed. If the database is unreachable the list is the saved copy and the sync starts without
+     * a watermark; its first poll that gets through has the list loaded again (see {@link ContactSync#start}).
+     */
+    private void loadAll() {
+        CompletableFuture<ContactSync.Changes> start = DbExecutor.supply(() -> storage.contactChanges(userId, 0))
+                .handle((c, e) -> e == null ? c : new ContactSync.Changes(Collections.emptyList(), Collections.emptyList(),
+                        Collections.emptyList(), Collections.emptyList(), 0, 0, true));
+        start.thenCompose(s -> DbExecutor.supply(() -> storage.loadContacts(userId))).whenCompleteAsync((rows, err) -> {
+            if (err != null) {
+                System.err.println("Failed to load contacts: " + DbExecutor.rootCause(err).getMessage());
+                return;
             }
-        } catch (SQLException e) {
-            System.err.println("Failed to load contacts: " + e.getMessage());
+            if (closed) return;
+            all = new ArrayList<>(rows);
+            all.sort(ContactModel.NEWEST_FIRST); // already in order; a stable sort only checks that
+            index = new ContactIndex(all);
+            refilter();
+            // The model pages this list from now on; a count taken at another moment is lined up with it
+            contactsListModel.setSource(all);
+            List<ContactModel> copy = new ArrayList<>(all);
+            PUBLISHER.execute(() -> listener.contactsLoaded(copy));
+            queueCache();
+            if (start.join() != null) sync.start(start.join().watermark);
+        }, DbExecutor.EDT);
+    }
+
+    /**
+     * Applies changes made elsewhere to the full list and, at the same positions, to the model, as single-row
+     * events. Idempotent: a change that is already in the list changes nothing. Runs on the EDT.
+     */
+    private void applyChanges(ContactSync.Changes changes) {
+        if (all == null) return;
+        if (!changes.complete) {
+            // More than a poll is meant to move; start over
+            contactsListModel.reload();
+            loadAll();
+            return;
+        }
+        boolean any = false;
+        for (ContactModel c : changes.changed) {
+            int at = find(all, c);
+            boolean added = at == -1;
+            if (!added) {
+                ContactModel old = all.get(at);
+                if (old.getName().equals(c.getName()) && old.getPhoneNumber().equals(c.getPhoneNumber())) continue;
+                replace(old, c);
+            } else {
+                at = insert(c);
+            }
+            // A page fetched after the change may show it already
+            int shown = contactsListModel.indexOf(c);
+            if (shown != -1) contactsListModel.set(shown, c);
+            else if (added) contactsListModel.add(Math.min(at, contactsListModel.getSize()), c);
+            any = true;
+        }
+        for (int id : changes.deleted) {
+            ContactModel gone = new ContactModel(id, "", "");
+            int at = find(all, gone);
+            if (at == -1) continue;
+            remove(gone);
+            int shown = contactsListModel.indexOf(gone);
+            if (shown != -1) {
+                contactsListModel.remove(shown);
+            } else if (at < contactsListModel.getSize() && contactsListModel.getElementAt(at) == ContactListModel.LOADING) {
+                contactsListModel.remove(at); // not loaded: only the count and the pages after it change
+            }
+            any = true;
+        }
+        if (!any) return;
+        // Should the model's count be out of step, recount rather than show it wrong
+        if (contactsListModel.getSize() != all.size()) contactsListModel.setSource(all);
+    }
+
+    // The full list is only changed through these, which keep it in order, keep the search index in step with
+    // it and pass the change on. They do nothing before the list is loaded.
+
+    /** Adds {@code contact} where it belongs; returns its position, or -1 before loading. */
+    private int insert(ContactModel contact) {
+        if (all == null) return -1;
+        int at = insertionPoint(all, contact);
+        all.add(at, contact);
+        index.add(contact);
+        changed(null, contact);
+        return at;
+    }
+
+    /** Puts {@code now} in place of {@code old}, which may have another id (a new contact once stored). */
+    private void replace(ContactModel old, ContactModel now) {
+        int at = find(all, old);
+        if (at == -1) return;
+        ContactModel was = all.get(at);
+        if (was.getId() == now.getId()) {
+            all.set(at, now);
+        } else {
+            all.remove(at);
+            all.add(insertionPoint(all, now), now);
+        }
+        index.remove(was);
+        index.add(now);
+        changed(was, now);
+    }
+
+    /** Returns whether {@code contact} was in the list. */
+    private boolean remove(ContactModel contact) {
+        int at = find(all, contact);
+        if (at == -1) return false;
+        ContactModel was = all.remove(at);
+        index.remove(was);
+        changed(was, null);
+        return true;
+    }
+
+    /** Passes one change on to the listener and queues the search and the offline copy for after the batch. */
+    private void changed(ContactModel old, ContactModel now) {
+        if (closed) return;
+        PUBLISHER.execute(() -> listener.contactChanged(old, now));
+        queueRefilter();
+        queueCache();
+    }
+
+    /**
+     * Hands a copy of the full list to the storage for offline use once the current batch of changes is
+     * applied, rather than after each one.
+     */
+    private void queueCache() {
+        if (cacheQueued) return;
+        cacheQueued = true;
+        SwingUtilities.invokeLater(() -> {
+            cacheQueued = false;
+            List<ContactModel> copy = new ArrayList<>(all);
+            PUBLISHER.execute(() -> storage.cacheContacts(userId, copy));
+        });
+    }
+
+    /** Runs the search again once the current batch of changes is applied, rather than after each one. */
+    private void queueRefilter() {
+        if (refilterQueued || query.trim().isEmpty()) return;
+        refilterQueued = true;
+        SwingUtilities.invokeLater(this::refilter);
+    }
+
+    private void refilter() {
+        refilterQueued = false;
+        searchResults.setResults(index.search(query, searchLimit));
+    }
+
+    /** Where {@code contact} goes in a list in {@link ContactModel#NEWEST_FIRST} order, by binary search. */
+    static int insertionPoint(List<ContactModel> contacts, ContactModel contact) {
+        if (contact.getId() == 0) return 0;
+        int at = Collections.binarySearch(contacts, contact, ContactModel.NEWEST_FIRST);
+        return at >= 0 ? at : -at - 1;
+    }
+
+    /**
+     * Position of {@code contact} in {@code contacts}, a list in {@link ContactModel#NEWEST_FIRST} order (-1 if
+     * absent or not loaded yet): by id with a binary search, or for a contact without one (the full list and
+     * the pages hold different copies) the first unsaved contact at the top with its name and number.
+     */
+    static int find(List<ContactModel> contacts, ContactModel contact) {
+        if (contacts == null) return -1;
+        if (contact.getId() != 0) {
+            int at = Collections.binarySearch(contacts, contact, ContactModel.NEWEST_FIRST);
+            return at >= 0 ? at : -1;
+        }
+        for (int i = 0; i < contacts.size() && contacts.get(i).getId() == 0; i++) {
+            ContactModel c = contacts.get(i);
+            if (c.getName().equals(contact.getName()) && c.getPhoneNumber().equals(contact.getPhoneNumber())) return i;
         }
+        return -1;
     }
-}
\ No newline at end of file
+}
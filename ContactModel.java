@@ -1,12 +1,33 @@
+import java.util.Comparator;
+
 public class ContactModel {
-    private String name;
-    private String phoneNumber;
+    /**
+     * The order {@link Storage#loadContacts} lists contacts in: those not stored yet (id 0) first, then by id,
+     * newest first. Contacts without an id compare equal to each other.
+     */
+    public static final Comparator<ContactModel> NEWEST_FIRST = (a, b) -> {
+        if (a.id == 0 || b.id == 0) return Boolean.compare(a.id != 0, b.id != 0);
+        return Integer.compare(b.id, a.id);
+    };
+
+    private final int id; // contacts.id; 0 until stored (or for people who are not saved contacts)
+    private final String name;
+    private final String phoneNumber;
 
     public ContactModel(String name, String phoneNumber) {
+        this(0, name, phoneNumber);
+    }
+
+    public ContactModel(int id, String name, String phoneNumber) {
+        this.id = id;
         this.name = name;
         this.phoneNumber = phoneNumber;
     }
 
+    public int getId() {
+        return id;
+    }
+
     public String getName() {
         return name;
     }
@@ -15,8 +36,30 @@ public class ContactModel {
         return phoneNumber;
     }
 
+    /** The same contact (same id) with new details. */
+    public ContactModel withDetails(String name, String phoneNumber) {
+        return new ContactModel(id, name, phoneNumber);
+    }
+
+    /**
+     * Stored contacts are equal when their ids are; an edited copy is still the same contact. A contact without
+     * an id is only equal to itself, so two unsaved duplicates stay distinct.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ContactModel)) return false;
+        ContactModel other = (ContactModel) o;
+        return id != 0 && id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != 0 ? Integer.hashCode(id) : System.identityHashCode(this);
+    }
+
     @Override
     public String toString() {
         return name;
     }
-}
\ No newline at end of file
+}
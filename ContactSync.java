@@ -0,0 +1,167 @@
+import javax.swing.SwingUtilities;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a user's contact list in step with changes made elsewhere (another app instance of the same user,
+ * another computer) by polling {@link Storage#contactChanges} for what changed since the last watermark.
+ * Each poll moves only the changed rows, not the whole list. Polls overlap, so most rows come back from the
+ * poll before; only those not passed on before with the same change time are.
+ * <p>
+ * The interval adapts: it starts at contacts.syncMinMs, doubles after every poll that finds nothing new up to
+ * contacts.syncMaxMs, and drops back to the minimum as soon as something changes or {@link #wake} is called.
+ * While the database is unreachable it polls at the maximum. Backends without a change feed are not polled.
+ */
+public class ContactSync {
+    /** Rows changed since a watermark, as returned by {@link Storage#contactChanges}. */
+    public static class Changes {
+        public final List<ContactModel> changed; // added or edited, with their ids
+        public final List<Long> changedMillis; // when each of changed was written
+        public final List<Integer> deleted; // ids
+        public final List<Long> deletedMillis; // when each of deleted was deleted
+        public final long latestMillis; // newest change time among them, 0 if none
+        public final long watermark; // pass to the next call
+        public final boolean complete; // false if there were too many to return or some may be lost; reload instead
+
+        public Changes(List<ContactModel> changed, List<Long> changedMillis, List<Integer> deleted, List<Long> deletedMillis,
+                       long latestMillis, long watermark, boolean complete) {
+            this.changed = changed;
+            this.changedMillis = changedMillis;
+            this.deleted = deleted;
+            this.deletedMillis = deletedMillis;
+            this.latestMillis = latestMillis;
+            this.watermark = watermark;
+            this.complete = complete;
+        }
+    }
+
+    private final Storage storage;
+    private final int userId;
+    private final long minMs;
+    private final long maxMs;
+    private final Consumer<Changes> apply;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "contact-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Only touched on the scheduler thread
+    private long watermark;
+    // id -> change time of the rows the last poll returned; the next one passes on only rows not among them
+    private Map<Integer, Long> seenChanged = new HashMap<>();
+    private Map<Integer, Long> seenDeleted = new HashMap<>();
+    private long delayMs;
+    private boolean offline = false;
+    private ScheduledFuture<?> next;
+
+    /**
+     * @param apply receives new changes on the EDT; after a reload they may repeat ones already loaded, so it must
+     *              be idempotent
+     */
+    public ContactSync(Storage storage, int userId, AppConfig config, Consumer<Changes> apply) {
+        this.storage = storage;
+        this.userId = userId;
+        this.minMs = Math.max(250, config.getLong("contacts.syncMinMs", 2_000));
+        this.maxMs = Math.max(minMs, config.getLong("contacts.syncMaxMs", 60_000));
+        this.apply = apply;
+        this.delayMs = minMs;
+    }
+
+    /**
+     * Starts polling for changes after {@code watermark}, taken before the list being kept in step was loaded.
+     * Calling it again moves the watermark. With 0 (no watermark could be taken) the first poll that gets
+     * through asks for a reload ({@code complete=false}), since changes made before it cannot be told apart.
+     */
+    public void start(long watermark) {
+        if (scheduler.isShutdown()) return;
+        scheduler.execute(() -> {
+            this.watermark = watermark;
+            if (next != null) next.cancel(false); // started again after a reload: one chain of polls only
+            next = scheduler.schedule(this::poll, delayMs, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /** Polls now and then at the shortest interval again, e.g. when the window regains focus. */
+    public void wake() {
+        if (scheduler.isShutdown()) return;
+        scheduler.execute(() -> {
+            if (next == null || !next.cancel(false)) return; // not started, or a poll is running
+            delayMs = minMs;
+            next = scheduler.schedule(this::poll, 0, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void poll() {
+        try {
+            boolean anchored = watermark != 0;
+            Changes changes = storage.contactChanges(userId, watermark);
+            if (changes == null) return; // no change feed; nothing to do
+            if (offline) System.err.println("Contact sync resumed");
+            offline = false;
+            watermark = changes.watermark;
+            // A late commit stamped before the last poll is still new here: it was not among the rows seen then.
+            // Without a watermark nothing says what the list missed before this one; have it reloaded.
+            Changes fresh = anchored ? unseen(changes)
+                    : new Changes(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), 0, watermark, false);
+            boolean active = !fresh.changed.isEmpty() || !fresh.deleted.isEmpty() || !fresh.complete;
+            if (active) SwingUtilities.invokeLater(() -> apply.accept(fresh));
+            delayMs = active ? minMs : Math.min(maxMs, delayMs * 2);
+        } catch (SQLException e) {
+            if ("42S22".equals(e.getSQLState()) || "42S02".equals(e.getSQLState())) {
+                System.err.println("Contact sync is off: contacts.updated_at or contact_tombstones is missing (see schema.sql)");
+                return;
+            }
+            if (!offline) System.err.println("Contact sync failed (will retry): " + e.getMessage());
+            offline = true;
+            delayMs = maxMs;
+        } catch (RuntimeException e) {
+            System.err.println("Contact sync failed (will retry): " + e);
+            delayMs = maxMs;
+        }
+        if (!scheduler.isShutdown()) next = scheduler.schedule(this::poll, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** The rows of {@code changes} the last poll did not return with the same change time; remembers these ones. */
+    private Changes unseen(Changes changes) {
+        Map<Integer, Long> changedNow = new HashMap<>();
+        List<ContactModel> changed = new ArrayList<>();
+        List<Long> changedMillis = new ArrayList<>();
+        for (int i = 0; i < changes.changed.size(); i++) {
+            ContactModel c = changes.changed.get(i);
+            Long at = changes.changedMillis.get(i);
+            changedNow.put(c.getId(), at);
+            if (!at.equals(seenChanged.get(c.getId()))) {
+                changed.add(c);
+                changedMillis.add(at);
+            }
+        }
+        Map<Integer, Long> deletedNow = new HashMap<>();
+        List<Integer> deleted = new ArrayList<>();
+        List<Long> deletedMillis = new ArrayList<>();
+        for (int i = 0; i < changes.deleted.size(); i++) {
+            Integer id = changes.deleted.get(i);
+            Long at = changes.deletedMillis.get(i);
+            deletedNow.put(id, at);
+            if (!at.equals(seenDeleted.get(id))) {
+                deleted.add(id);
+                deletedMillis.add(at);
+            }
+        }
+        seenChanged = changedNow;
+        seenDeleted = deletedNow;
+        return new Changes(changed, changedMillis, deleted, deletedMillis, changes.latestMillis, changes.watermark, changes.complete);
+    }
+}
@@ -0,0 +1,514 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Imports contacts from CSV or vCard (3.0 and 4.0) files and exports them to either format, streaming both
+ * ways: a file of a million rows takes no more memory than one of ten, apart from the set of numbers already
+ * seen (a long each).
+ * <ul>
+ *   <li>Numbers are normalized with {@link PhoneUtil#normalize} and stored as +digits. A number the user already
+ *       has, or that came earlier in the file, is skipped as a duplicate.</li>
+ *   <li>Rows are written {@code batchSize} at a time through {@link Storage#addContacts}, one transaction each,
+ *       so a crash or a failure keeps the batches before it.</li>
+ *   <li>Rows that cannot be imported are counted and the first {@link #MAX_ERRORS} are described in the
+ *       result; the rest of the file still goes in.</li>
+ * </ul>
+ * Blocking; run it off the EDT.
+ */
+public class ContactTransfer {
+    public enum Format {
+        CSV("csv", "CSV"),
+        VCARD("vcf", "vCard");
+
+        public final String extension;
+        public final String description;
+
+        Format(String extension, String description) {
+            this.extension = extension;
+            this.description = description;
+        }
+    }
+
+    /** Counts of an import so far, or at the end. */
+    public static class Result {
+        public long read;
+        public long added;
+        public long duplicates;
+        public long failed;
+        public boolean cancelled;
+        public final List<String> errors = new ArrayList<>(); // the first MAX_ERRORS, as "line N: reason"
+
+        Result copy() {
+            Result r = new Result();
+            r.read = read;
+            r.added = added;
+            r.duplicates = duplicates;
+            r.failed = failed;
+            r.cancelled = cancelled;
+            return r;
+        }
+    }
+
+    public interface ProgressListener {
+        /** Called from the working thread at most every few hundred milliseconds, and once at the end. */
+        void onProgress(Result soFar);
+    }
+
+    public static final int MAX_ERRORS = 100;
+    private static final long PROGRESS_INTERVAL_NANOS = 250_000_000L;
+    private static final int NAME_MAX = 100; // contacts.name
+    private static final int EXPORT_PAGE = 1_000;
+
+    private final Storage storage;
+    private final int userId;
+    private final int batchSize;
+    private volatile boolean cancelled = false;
+
+    public ContactTransfer(Storage storage, int userId, int batchSize) {
+        this.storage = storage;
+        this.userId = userId;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /** Stops a running import after the current batch (what was written stays) or a running export (nothing is). */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Imports {@code source}, a vCard file if it starts with BEGIN:VCARD and CSV otherwise. A CSV file may start
+     * with a header naming its columns (e.g. Name and Phone, or First Name, Last Name and Mobile Phone);
+     * without one the first column is the name and the second the number.
+     *
+     * @throws SQLException if a batch cannot be stored; the batches before it are kept
+     */
+    public Result importFrom(Path source, ProgressListener progress) throws IOException, SQLException {
+        Result result = new Result();
+        Set<Long> seen = new HashSet<>();
+        for (ContactModel c : storage.loadContacts(userId)) {
+            String digits = PhoneUtil.normalize(c.getPhoneNumber());
+            if (digits != null) seen.add(Long.parseLong(digits));
+        }
+        List<ContactModel> batch = new ArrayList<>(batchSize);
+        long lastReport = System.nanoTime();
+        try (BufferedReader in = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            Rows rows = isVCard(in) ? new VCardRows(in) : new CsvRows(in);
+            for (Row row = rows.next(); row != null; row = rows.next()) {
+                if (cancelled) {
+                    result.cancelled = true;
+                    break;
+                }
+                result.read++;
+                String error = row.error != null ? row.error : check(row);
+                if (error != null) {
+                    result.failed++;
+                    if (result.errors.size() < MAX_ERRORS) result.errors.add("line " + row.line + ": " + error);
+                } else {
+                    String digits = PhoneUtil.normalize(row.phone);
+                    if (!seen.add(Long.parseLong(digits))) {
+                        result.duplicates++;
+                    } else {
+                        batch.add(new ContactModel(row.name.trim(), "+" + digits));
+                        if (batch.size() == batchSize) {
+                            store(batch, result);
+                        }
+                    }
+                }
+                long now = System.nanoTime();
+                if (progress != null && now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    lastReport = now;
+                    progress.onProgress(result.copy());
+                }
+            }
+        }
+        if (!batch.isEmpty()) store(batch, result);
+        if (progress != null) progress.onProgress(result.copy());
+        return result;
+    }
+
+    private void store(List<ContactModel> batch, Result result) throws SQLException {
+        try {
+            storage.addContacts(userId, batch);
+        } catch (SQLException e) {
+            throw new SQLException("Stopped after importing " + result.added + " contacts: " + e.getMessage(), e.getSQLState(), e);
+        }
+        result.added += batch.size();
+        batch.clear();
+    }
+
+    /** Why {@code row} cannot be imported, or null if it can. */
+    private static String check(Row row) {
+        if (row.name == null || row.name.trim().isEmpty()) return "no name";
+        if (row.name.trim().length() > NAME_MAX) return "name is longer than " + NAME_MAX + " characters";
+        if (row.phone == null || row.phone.trim().isEmpty()) return "no phone number";
+        if (PhoneUtil.normalize(row.phone) == null) return "\"" + row.phone.trim() + "\" is not a number with country code (11-15 digits)";
+        return null;
+    }
+
+    /**
+     * Writes all of the user's contacts to {@code target}, newest first, a page at a time. The file is written next
+     * to the target and moved into place at the end, so a failed or cancelled export leaves no partial file.
+     *
+     * @return the number of contacts written
+     */
+    public long export(Format format, Path target, ProgressListener progress) throws IOException, SQLException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".part");
+        Result result = new Result();
+        long lastReport = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Writer out = new BufferedWriter(java.nio.channels.Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), 1 << 16)) {
+            if (format == Format.CSV) out.write("Name,Phone\r\n");
+            int afterId = 0, skip = 0;
+            while (true) {
+                if (cancelled) throw new java.io.InterruptedIOException("export cancelled");
+                List<ContactModel> page = storage.loadContactsPage(userId, afterId, skip, EXPORT_PAGE);
+                for (ContactModel c : page) {
+                    if (format == Format.CSV) writeCsv(out, c);
+                    else writeVCard(out, c);
+                }
+                result.read += page.size();
+                result.added = result.read;
+                if (page.size() < EXPORT_PAGE) break;
+                // Contacts not stored yet (offline) have no id to page after; they are all at the top
+                int last = page.get(page.size() - 1).getId();
+                if (last != 0) {
+                    afterId = last;
+                    skip = 0;
+                } else {
+                    skip += page.size();
+                }
+                long now = System.nanoTime();
+                if (progress != null && now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    lastReport = now;
+                    progress.onProgress(result.copy());
+                }
+            }
+            out.flush();
+            channel.force(false);
+        } catch (SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (progress != null) progress.onProgress(result.copy());
+        return result.read;
+    }
+
+    // ---- Formats ----
+
+    /** One imported row: a name and a number, or why the row could not be read. */
+    private static class Row {
+        final long line;
+        final String name;
+        final String phone;
+        final String error;
+
+        Row(long line, String name, String phone, String error) {
+            this.line = line;
+            this.name = name;
+            this.phone = phone;
+            this.error = error;
+        }
+    }
+
+    private interface Rows {
+        /** The next row, or null at the end of the file. */
+        Row next() throws IOException;
+    }
+
+    /** True if the file starts (after blank lines and a byte order mark) with BEGIN:VCARD. Leaves it unread. */
+    private static boolean isVCard(BufferedReader in) throws IOException {
+        in.mark(8192);
+        String line;
+        do {
+            line = in.readLine();
+        } while (line != null && line.replace("\uFEFF", "").trim().isEmpty());
+        in.reset();
+        return line != null && line.replace("\uFEFF", "").trim().toUpperCase(Locale.ROOT).startsWith("BEGIN:VCARD");
+    }
+
+    /** RFC 4180: quoted fields may hold commas, doubled quotes and line breaks. */
+    private static class CsvRows implements Rows {
+        private final BufferedReader in;
+        private long line = 1;
+        private int nameCol = 0, firstCol = -1, lastCol = -1, phoneCol = 1;
+        private List<String> pending; // the first record, if it was not a header
+        private long pendingLine;
+
+        CsvRows(BufferedReader in) throws IOException {
+            this.in = in;
+            long start = line;
+            List<String> first = record();
+            if (first == null) return;
+            if (!header(first)) {
+                pending = first;
+                pendingLine = start;
+            }
+        }
+
+        @Override
+        public Row next() throws IOException {
+            List<String> fields;
+            long start;
+            if (pending != null) {
+                fields = pending;
+                start = pendingLine;
+                pending = null;
+            } else {
+                do {
+                    start = line;
+                    fields = record();
+                } while (fields != null && fields.size() == 1 && fields.get(0).trim().isEmpty()); // blank line
+                if (fields == null) return null;
+            }
+            String name = firstCol >= 0 || lastCol >= 0
+                    ? (field(fields, firstCol) + " " + field(fields, lastCol)).trim()
+                    : field(fields, nameCol);
+            String phone = field(fields, phoneCol);
+            int multi = phone.indexOf(":::"); // Google Contacts puts several numbers in one cell
+            if (multi >= 0) phone = phone.substring(0, multi);
+            return new Row(start, name, phone, null);
+        }
+
+        /** Picks the columns from a header row; false if {@code fields} does not look like one. */
+        private boolean header(List<String> fields) {
+            int name = -1, first = -1, last = -1, phone = -1;
+            for (int i = 0; i < fields.size(); i++) {
+                String h = fields.get(i).replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT);
+                if (name < 0 && (h.equals("name") || h.equals("full name") || h.equals("display name") || h.equals("fn"))) name = i;
+                else if (first < 0 && (h.equals("first name") || h.equals("given name"))) first = i;
+                else if (last < 0 && (h.equals("last name") || h.equals("family name") || h.equals("surname"))) last = i;
+                else if (phone < 0 && (h.contains("phone") || h.contains("mobile") || h.contains("tel") || h.equals("number"))
+                        && !h.contains("type") && !h.contains("label")) phone = i;
+            }
+            if (phone < 0 || (name < 0 && first < 0 && last < 0)) return false;
+            phoneCol = phone;
+            if (name >= 0) {
+                nameCol = name;
+            } else {
+                firstCol = first;
+                lastCol = last;
+            }
+            return true;
+        }
+
+        private static String field(List<String> fields, int col) {
+            return col >= 0 && col < fields.size() ? fields.get(col) : "";
+        }
+
+        /** The next record's fields, or null at the end of the file. */
+        private List<String> record() throws IOException {
+            int c = in.read();
+            if (c < 0) return null;
+            List<String> fields = new ArrayList<>(4);
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (; c >= 0; c = in.read()) {
+                if (quoted) {
+                    if (c == '"') {
+                        in.mark(1);
+                        if (in.read() == '"') {
+                            field.append('"');
+                        } else {
+                            in.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        if (c == '\n') line++;
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        in.mark(1);
+                        if (in.read() != '\n') in.reset();
+                    }
+                    line++;
+                    break;
+                } else if (c != '\uFEFF') {
+                    field.append((char) c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+
+    /**
+     * vCard 3.0 (RFC 2426) and 4.0 (RFC 6350): folded lines are joined, the name is FN (or N if there is none)
+     * and the number is the first mobile TEL, else the first TEL. A card without a number is reported, not skipped.
+     */
+    private static class VCardRows implements Rows {
+        private final BufferedReader in;
+        private long line = 0;
+        private String lookahead;
+
+        VCardRows(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String l;
+            do {
+                l = logicalLine();
+                if (l == null) return null;
+            } while (!l.trim().equalsIgnoreCase("BEGIN:VCARD"));
+            long start = line;
+            String fn = null, n = null, tel = null, mobile = null;
+            while ((l = logicalLine()) != null && !l.trim().equalsIgnoreCase("END:VCARD")) {
+                int colon = valueStart(l);
+                if (colon < 0) continue;
+                String[] params = l.substring(0, colon).split(";");
+                String property = params[0].substring(params[0].indexOf('.') + 1).toUpperCase(Locale.ROOT); // drop a group
+                String value = l.substring(colon + 1);
+                if (property.equals("FN") && fn == null) {
+                    fn = unescape(value);
+                } else if (property.equals("N") && n == null) {
+                    n = structuredName(value);
+                } else if (property.equals("TEL")) {
+                    String number = value.trim();
+                    if (number.regionMatches(true, 0, "tel:", 0, 4)) number = number.substring(4);
+                    int ext = number.indexOf(';');
+                    if (ext >= 0) number = number.substring(0, ext);
+                    if (tel == null) tel = number;
+                    String types = l.substring(0, colon).toLowerCase(Locale.ROOT);
+                    if (mobile == null && (types.contains("cell") || types.contains("mobile"))) mobile = number;
+                }
+            }
+            if (l == null) return new Row(start, null, null, "card has no END:VCARD");
+            String name = fn != null && !fn.trim().isEmpty() ? fn : n;
+            return new Row(start, name, mobile != null ? mobile : tel, null);
+        }
+
+        /** The next line with its folded continuations joined, or null at the end of the file. */
+        private String logicalLine() throws IOException {
+            String l = lookahead != null ? lookahead : in.readLine();
+            lookahead = null;
+            if (l == null) return null;
+            line++;
+            StringBuilder joined = null;
+            while (true) {
+                String next = in.readLine();
+                if (next != null && !next.isEmpty() && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+                    if (joined == null) joined = new StringBuilder(l);
+                    joined.append(next, 1, next.length());
+                    line++;
+                } else {
+                    lookahead = next;
+                    break;
+                }
+            }
+            return joined != null ? joined.toString() : l;
+        }
+
+        /** Position of the colon that ends the property name and parameters; quoted parameter values may hold colons. */
+        private static int valueStart(String l) {
+            boolean quoted = false;
+            for (int i = 0; i < l.length(); i++) {
+                char c = l.charAt(i);
+                if (c == '"') quoted = !quoted;
+                else if (c == ':' && !quoted) return i;
+            }
+            return -1;
+        }
+
+        /** N is family;given;additional;prefix;suffix. Gives "given additional family". */
+        private static String structuredName(String value) {
+            List<String> parts = new ArrayList<>(5);
+            StringBuilder part = new StringBuilder();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' && i + 1 < value.length()) {
+                    part.append(c).append(value.charAt(++i));
+                } else if (c == ';') {
+                    parts.add(unescape(part.toString()));
+                    part.setLength(0);
+                } else {
+                    part.append(c);
+                }
+            }
+            parts.add(unescape(part.toString()));
+            StringBuilder name = new StringBuilder();
+            for (int i : new int[]{1, 2, 0}) {
+                if (i < parts.size() && !parts.get(i).trim().isEmpty()) {
+                    if (name.length() > 0) name.append(' ');
+                    name.append(parts.get(i).trim());
+                }
+            }
+            return name.toString();
+        }
+
+        private static String unescape(String value) {
+            StringBuilder sb = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' && i + 1 < value.length()) {
+                    char e = value.charAt(++i);
+                    sb.append(e == 'n' || e == 'N' ? ' ' : e); // a name has no line breaks
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static void writeCsv(Writer out, ContactModel c) throws IOException {
+        out.write(csvField(c.getName()));
+        out.write(',');
+        out.write(csvField(c.getPhoneNumber()));
+        out.write("\r\n");
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /** vCard 3.0, which 4.0 readers accept as well. Lines end in CRLF and are folded at 75 characters. */
+    private static void writeVCard(Writer out, ContactModel c) throws IOException {
+        out.write("BEGIN:VCARD\r\nVERSION:3.0\r\n");
+        writeFolded(out, "FN:" + vCardText(c.getName()));
+        writeFolded(out, "N:;" + vCardText(c.getName()) + ";;;");
+        writeFolded(out, "TEL;TYPE=CELL:" + c.getPhoneNumber());
+        out.write("END:VCARD\r\n");
+    }
+
+    private static String vCardText(String value) {
+        return value.replace("\\", "\\\\").replace(",", "\\,").replace(";", "\\;").replace("\r", "").replace("\n", "\\n");
+    }
+
+    private static void writeFolded(Writer out, String line) throws IOException {
+        int at = 0;
+        int width = 75;
+        while (line.length() - at > width) {
+            int cut = Character.isHighSurrogate(line.charAt(at + width - 1)) ? width - 1 : width; // keep pairs whole
+            out.write(line, at, cut);
+            out.write("\r\n ");
+            at += cut;
+            width = 74; // the leading space counts
+        }
+        out.write(line, at, line.length() - at);
+        out.write("\r\n");
+    }
+}
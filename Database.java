@@ -1,12 +1,28 @@
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 public class Database {
+    /** Cells per bounding-box query; more cells hug the box tighter but mean more index ranges. */
+    private static final int AREA_MAX_CELLS = 16;
+    private static final int AREA_MAX_HOURS = 168;
+    private static final int BACKFILL_CHUNK = 1000;
+
     private final String url;
     private final String user;
     private final String password;
+    private final ConnectionPool pool;
+    private final Outbox outbox;
+    private final LocalSnapshot snapshot;
+    private final LocationWriter locationWriter;
+    private final TrackCompressor trackCompressor;
+    private final LocationRetention locationRetention;
+    private volatile boolean closing = false;
 
     public Database(String propertiesPath) {
         Properties props = new Properties();
@@ -26,10 +42,62 @@ public class Database {
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("MySQL JDBC Driver not found. Add mysql-connector-j to classpath.", e);
         }
+        this.pool = new ConnectionPool(url, user, password, props);
+        try {
+            this.outbox = new Outbox(this, props);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open the offline outbox: " + e.getMessage(), e);
+        }
+        this.snapshot = new LocalSnapshot(Paths.get(props.getProperty("offline.dir", "offline").trim()),
+                Math.max(0, Long.parseLong(props.getProperty("offline.saveDelayMs", "1000").trim())));
+        this.locationWriter = new LocationWriter(this, props);
+        this.trackCompressor = new TrackCompressor(locationWriter, props);
+        this.locationRetention = new LocationRetention(this, props);
+        locationRetention.start();
+        Thread backfill = new Thread(this::backfillAreaKeys, "area-key-backfill");
+        backfill.setDaemon(true);
+        backfill.setPriority(Thread.MIN_PRIORITY);
+        backfill.start();
     }
 
+    /**
+     * Borrows a pooled connection. Closing it returns it to the pool.
+     */
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        return pool.borrow();
+    }
+
+    /** Writes that could not reach the database wait here until it is back. */
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    /** Local copy of accounts and contacts for reads while the database is unreachable. */
+    public LocalSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public ConnectionPool.PoolStats getPoolStats() {
+        return pool.getStats();
+    }
+
+    /**
+     * Stops the retention job, stores held track points, flushes pending location writes (into the outbox if
+     * the database is unreachable), then closes the outbox and the pool.
+     */
+    public void close() {
+        closing = true;
+        locationRetention.stop();
+        trackCompressor.shutdown(5, TimeUnit.SECONDS);
+        locationWriter.shutdown(5, TimeUnit.SECONDS);
+        outbox.close();
+        snapshot.close();
+        System.out.println("Database " + trackCompressor.getStats());
+        System.out.println("Database " + locationRetention.getStats());
+        System.out.println("Database " + locationWriter.getStats());
+        System.out.println("Database " + outbox.getStats());
+        System.out.println("Database " + pool.getStats());
+        pool.close();
     }
 
     public String getUrl() {
@@ -51,15 +119,122 @@ public class Database {
         }
     }
 
-    public void saveLocation(String email, double lat, double lon) {
-        String sql = "INSERT INTO locations(user_id, latitude, longitude) SELECT id, ?, ? FROM users WHERE email = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setDouble(1, lat);
-            ps.setDouble(2, lon);
-            ps.setString(3, email);
-            ps.executeUpdate();
+    /**
+     * Offers a location fix. The {@link TrackCompressor} drops fixes that add nothing to the track, and the
+     * rest are written asynchronously in batches by the {@link LocationWriter}.
+     */
+    public void saveLocation(int userId, double lat, double lon) {
+        trackCompressor.offer(userId, lat, lon, System.currentTimeMillis());
+    }
+
+    /**
+     * Fixes of all users inside the box during [from, to), oldest first, at most {@code limit}. The box is
+     * turned into a few geohash key ranges (see {@link GeoCells#cover}) that are scanned on
+     * idx_locations_geo_time for each hour of the window, then trimmed to the exact box and window.
+     * {@code minLon > maxLon} means the box crosses the antimeridian. Rows written before the spatial key
+     * existed are found once they are backfilled.
+     */
+    public List<AreaFix> findFixesInArea(double minLat, double minLon, double maxLat, double maxLon,
+                                         Timestamp from, Timestamp to, int limit) throws SQLException {
+        List<long[]> ranges = GeoCells.cover(minLat, minLon, maxLat, maxLon, AREA_MAX_CELLS);
+        int firstHour = GeoCells.hourBucket(from.getTime()), lastHour = GeoCells.hourBucket(to.getTime() - 1);
+        // Listing the hours gives MySQL hours x cells exact ranges; past a week it takes the hour range
+        // and filters geohash inside the index instead
+        boolean listHours = lastHour - firstHour < AREA_MAX_HOURS;
+        StringBuilder sql = new StringBuilder("SELECT id, user_id, latitude, longitude, recorded_at FROM locations WHERE ");
+        if (listHours) {
+            sql.append("hour_bucket IN (");
+            for (int h = firstHour; h <= lastHour; h++) sql.append(h == firstHour ? "?" : ", ?");
+            sql.append(")");
+        } else {
+            sql.append("hour_bucket BETWEEN ? AND ?");
+        }
+        sql.append(" AND (");
+        for (int i = 0; i < ranges.size(); i++) sql.append(i == 0 ? "" : " OR ").append("geohash BETWEEN ? AND ?");
+        sql.append(") AND recorded_at >= ? AND recorded_at < ? AND latitude BETWEEN ? AND ?")
+                .append(minLon <= maxLon ? " AND longitude BETWEEN ? AND ?" : " AND (longitude >= ? OR longitude <= ?)")
+                .append(" ORDER BY recorded_at, id LIMIT ?");
+        List<AreaFix> fixes = new ArrayList<>();
+        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            int i = 1;
+            if (listHours) {
+                for (int h = firstHour; h <= lastHour; h++) ps.setInt(i++, h);
+            } else {
+                ps.setInt(i++, firstHour);
+                ps.setInt(i++, lastHour);
+            }
+            for (long[] r : ranges) {
+                ps.setLong(i++, r[0]);
+                ps.setLong(i++, r[1]);
+            }
+            ps.setTimestamp(i++, from);
+            ps.setTimestamp(i++, to);
+            ps.setDouble(i++, minLat);
+            ps.setDouble(i++, maxLat);
+            ps.setDouble(i++, minLon);
+            ps.setDouble(i++, maxLon);
+            ps.setInt(i, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    fixes.add(new AreaFix(rs.getLong(1), rs.getInt(2), rs.getDouble(3), rs.getDouble(4), rs.getTimestamp(5).getTime()));
+                }
+            }
+        }
+        return fixes;
+    }
+
+    /** Fills the spatial key of rows stored before it existed, a chunk at a time; quits when none are left. */
+    private void backfillAreaKeys() {
+        long total = 0;
+        try {
+            while (!closing) {
+                List<AreaFix> rows = new ArrayList<>(BACKFILL_CHUNK);
+                try (Connection conn = getConnection();
+                     PreparedStatement ps = conn.prepareStatement("SELECT id, latitude, longitude, recorded_at FROM locations"
+                             + " WHERE hour_bucket IS NULL LIMIT " + BACKFILL_CHUNK)) {
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) rows.add(new AreaFix(rs.getLong(1), 0, rs.getDouble(2), rs.getDouble(3), rs.getTimestamp(4).getTime()));
+                    }
+                    if (rows.isEmpty()) {
+                        if (total > 0) System.out.println("Spatial key backfill done: " + total + " location(s) updated");
+                        return;
+                    }
+                    try (PreparedStatement update = conn.prepareStatement("UPDATE locations SET hour_bucket = ?, geohash = ? WHERE id = ?")) {
+                        conn.setAutoCommit(false);
+                        for (AreaFix r : rows) {
+                            update.setInt(1, GeoCells.hourBucket(r.recordedAt));
+                            update.setLong(2, GeoCells.encode(r.latitude, r.longitude));
+                            update.setLong(3, r.id);
+                            update.addBatch();
+                        }
+                        update.executeBatch();
+                        conn.commit();
+                    }
+                }
+                total += rows.size();
+                Thread.sleep(200);
+            }
         } catch (SQLException e) {
-            System.err.println("Failed to save location: " + e.getMessage());
+            if (!closing) System.err.println("Spatial key backfill stopped (will resume next start): " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** One stored fix returned by {@link #findFixesInArea}. */
+    public static class AreaFix {
+        public final long id;
+        public final int userId;
+        public final double latitude;
+        public final double longitude;
+        public final long recordedAt;
+
+        AreaFix(long id, int userId, double latitude, double longitude, long recordedAt) {
+            this.id = id;
+            this.userId = userId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.recordedAt = recordedAt;
         }
     }
 }
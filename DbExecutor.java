@@ -0,0 +1,80 @@
+import javax.swing.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs database (and other blocking) work off the Swing event dispatch thread.
+ * Use {@link #supply} to start the work and continue with {@code thenAcceptAsync(..., DbExecutor.EDT)}
+ * to touch Swing components with the result. The SOS path uses {@link #supplyUrgent} instead, which has
+ * threads of its own, so it never queues behind imports, exports or analytics on the shared pool.
+ */
+public class DbExecutor {
+    /** Executes continuations on the Swing event dispatch thread. */
+    public static final Executor EDT = SwingUtilities::invokeLater;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService IO = Executors.newFixedThreadPool(4, r -> {
+        Thread t = new Thread(r, "db-io-" + THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private static final AtomicInteger URGENT_THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService URGENT = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "sos-io-" + URGENT_THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private DbExecutor() {
+    }
+
+    public static <T> CompletableFuture<T> supply(Callable<T> work) {
+        return supply(work, IO);
+    }
+
+    public static CompletableFuture<Void> run(IoRunnable work) {
+        return supply(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /** Like {@link #supply}, for work an SOS is waiting on. */
+    public static <T> CompletableFuture<T> supplyUrgent(Callable<T> work) {
+        return supply(work, URGENT);
+    }
+
+    public static CompletableFuture<Void> runUrgent(IoRunnable work) {
+        return supplyUrgent(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    private static <T> CompletableFuture<T> supply(Callable<T> work, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return work.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /** Unwraps the CompletionException layer CompletableFuture adds around failures. */
+    public static Throwable rootCause(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) t = t.getCause();
+        return t;
+    }
+
+    public interface IoRunnable {
+        void run() throws Exception;
+    }
+}
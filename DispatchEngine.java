@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Fans an SOS out to all contacts concurrently. Each contact walks the channel chain in order:
+ * a channel is retried with exponential backoff on transient errors and the next channel is tried
+ * when it fails for good. Every channel has its own token bucket, which replaces the old fixed
+ * sleep between browser launches.
+ */
+public class DispatchEngine {
+    private final List<Channel> channels;
+    private final Map<String, TokenBucket> limits = new HashMap<>();
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final ExecutorService workers;
+
+    public DispatchEngine(List<Channel> channels, AppConfig config) {
+        this.channels = new ArrayList<>(channels);
+        this.maxAttempts = Math.max(1, config.getInt("dispatch.maxAttempts", 3));
+        this.backoffMs = Math.max(0, config.getLong("dispatch.backoffMs", 250));
+        for (Channel c : channels) {
+            // Browser launches need some spacing; HTTP gateways can go faster
+            boolean browser = c.getName().startsWith("whatsapp");
+            double rate = config.getDouble("dispatch." + c.getName() + ".ratePerSecond", browser ? 2.0 : 10.0);
+            int burst = config.getInt("dispatch." + c.getName() + ".burst", browser ? 3 : 10);
+            limits.put(c.getName(), new TokenBucket(rate, burst));
+        }
+        int concurrency = Math.max(1, config.getInt("dispatch.concurrency", 8));
+        AtomicInteger n = new AtomicInteger();
+        // Pre-started so a press never waits for thread creation
+        this.workers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "sos-dispatch-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < concurrency; i++) workers.execute(() -> { });
+    }
+
+    public List<Channel> getChannels() {
+        return channels;
+    }
+
+    /**
+     * Dispatches the payload to every contact. {@code onOutcome} is called from worker threads as soon as
+     * each contact is done; the returned future completes with all outcomes in contact order.
+     */
+    public CompletableFuture<List<Outcome>> dispatch(SosStandby.Snapshot payload, Consumer<Outcome> onOutcome) {
+        List<CompletableFuture<Outcome>> futures = new ArrayList<>(payload.contacts.size());
+        for (SosStandby.PreparedContact pc : payload.contacts) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                Outcome o = deliver(pc, payload.message);
+                if (onOutcome != null) onOutcome.accept(o);
+                return o;
+            }, workers));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Outcome> outcomes = new ArrayList<>(futures.size());
+            for (CompletableFuture<Outcome> f : futures) outcomes.add(f.join());
+            return outcomes;
+        });
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private Outcome deliver(SosStandby.PreparedContact pc, String message) {
+        if (!pc.isValid()) return new Outcome(pc, null, false, 0, "invalid number");
+        int attempts = 0;
+        String lastError = "no channel available";
+        for (Channel channel : channels) {
+            if (!channel.isAvailable()) continue;
+            TokenBucket bucket = limits.get(channel.getName());
+            for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                attempts++;
+                try {
+                    bucket.acquire();
+                    channel.send(pc, message);
+                    return new Outcome(pc, channel.getName(), true, attempts, null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return new Outcome(pc, channel.getName(), false, attempts, "interrupted");
+                } catch (Channel.PermanentFailure e) {
+                    lastError = channel.getName() + ": " + e.getMessage();
+                    break;
+                } catch (Exception e) {
+                    lastError = channel.getName() + ": " + e.getMessage();
+                    if (attempt == maxAttempts) break;
+                    try {
+                        long delay = (backoffMs << (attempt - 1));
+                        Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return new Outcome(pc, channel.getName(), false, attempts, "interrupted");
+                    }
+                }
+            }
+        }
+        return new Outcome(pc, null, false, attempts, lastError);
+    }
+
+    /** Result of dispatching to one contact. */
+    public static class Outcome {
+        public final SosStandby.PreparedContact contact;
+        public final String channel; // channel that delivered, or the last one tried
+        public final boolean sent;
+        public final int attempts;
+        public final String error;
+
+        Outcome(SosStandby.PreparedContact contact, String channel, boolean sent, int attempts, String error) {
+            this.contact = contact;
+            this.channel = channel;
+            this.sent = sent;
+            this.attempts = attempts;
+            this.error = error;
+        }
+    }
+}
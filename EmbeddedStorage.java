@@ -0,0 +1,458 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link Storage} in a single local file (db.file), for single-user installs that have no MySQL server:
+ * it opens in milliseconds and never touches the network.
+ * <ul>
+ *   <li>Everything is held in memory. Each change is appended to the file as a CRC-checked record (see
+ *       {@link RecordLog}) and forced to disk before the call returns.</li>
+ *   <li>Opening replays the records; a tail torn by a crash is cut off.</li>
+ *   <li>One process at a time: opening takes a lock on db.file + ".lock" and fails if another copy of the app
+ *       holds it, since each appends from its own idea of where the file ends. The lock is on a file of its
+ *       own because compaction replaces the database file.</li>
+ *   <li>Once the file holds more than twice the live records (edits and deletes leave old ones behind) it is
+ *       rewritten compactly beside the old one and moved into place.</li>
+ * </ul>
+ * Contacts behave as on MySQL: an update or delete changes the one contact with the given id, or for a contact
+ * without one, the oldest with its name and number.
+ * Fixes are stored as offered; there is no track compression, retention or area index here.
+ */
+public class EmbeddedStorage implements Storage {
+    private static final int MAGIC = 0x534F5345; // "SOSE"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int COMPACT_MIN_RECORDS = 1000;
+
+    private static final byte USER = 1, CONTACT_ADD = 2, CONTACT_UPDATE = 3, CONTACT_DELETE = 4, FIX = 5, SESSION = 6;
+
+    private final Path path;
+    private final FileChannel lockChannel; // holds the lock until close
+    private FileChannel channel;
+    private long end;
+
+    // Guarded by this
+    private final Map<String, UserManager.User> users = new HashMap<>(); // by lower-case email, like MySQL's collation
+    private final Map<Integer, TreeMap<Long, ContactModel>> contacts = new HashMap<>(); // by user, then by id
+    private final Map<Integer, List<LocationHistory.Row>> fixes = new HashMap<>();
+    private String session;
+    private int nextUserId = 1;
+    private long nextContactId = 1;
+    private long nextFixId = 1;
+    private long liveRecords = 0;
+    private long fileRecords = 0;
+
+    public EmbeddedStorage(Path path) throws IOException {
+        this.path = path;
+        lockChannel = lock(path);
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    private static FileChannel lock(Path path) throws IOException {
+        Path lockFile = path.resolveSibling(path.getFileName() + ".lock");
+        FileChannel ch = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = ch.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // held by this process, through another EmbeddedStorage
+        }
+        if (lock == null) {
+            ch.close();
+            throw new IOException(path + " is already in use by another copy of the app (" + lockFile + " is locked)");
+        }
+        return ch;
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            end = RecordLog.write(channel, header, 0);
+            channel.truncate(end);
+            channel.force(true);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        RecordLog.readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not a local SOS database");
+        }
+        long pos = HEADER_BYTES;
+        byte[] payload;
+        while ((payload = RecordLog.read(channel, pos, channel.size())) != null) {
+            apply(new DataInputStream(new ByteArrayInputStream(payload)));
+            fileRecords++;
+            pos += RecordLog.size(payload);
+        }
+        if (pos < channel.size()) {
+            System.err.println("Local database: dropping " + (channel.size() - pos) + " byte(s) of a record torn by a crash");
+            channel.truncate(pos);
+            channel.force(true);
+        }
+        end = pos;
+    }
+
+    // ---- Users ----
+
+    @Override
+    public synchronized UserManager.User findUser(String email) {
+        return users.get(email.toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public synchronized UserManager.User insertUser(UserManager.User user, String passwordHash) throws SQLException {
+        if (users.containsKey(user.email.toLowerCase(Locale.ROOT))) {
+            throw new SQLException("Duplicate entry '" + user.email + "' for key 'users.email'", "23000");
+        }
+        UserManager.User stored = new UserManager.User(nextUserId, user.fullName, user.idType, user.idNumber,
+                user.email, user.phone, passwordHash);
+        write(USER, out -> {
+            out.writeInt(stored.id);
+            out.writeUTF(stored.fullName);
+            out.writeUTF(stored.idType);
+            out.writeUTF(stored.idNumber);
+            out.writeUTF(stored.email);
+            out.writeUTF(stored.phone);
+            out.writeUTF(stored.password);
+        });
+        return stored;
+    }
+
+    // ---- Contacts ----
+
+    @Override
+    public synchronized List<ContactModel> loadContacts(int userId) {
+        TreeMap<Long, ContactModel> own = contacts.get(userId);
+        return own == null ? new ArrayList<>() : new ArrayList<>(own.descendingMap().values());
+    }
+
+    @Override
+    public synchronized int countContacts(int userId) {
+        TreeMap<Long, ContactModel> own = contacts.get(userId);
+        return own == null ? 0 : own.size();
+    }
+
+    @Override
+    public synchronized List<ContactModel> loadContactsPage(int userId, int afterId, int skip, int limit) {
+        List<ContactModel> rows = new ArrayList<>(limit);
+        TreeMap<Long, ContactModel> own = contacts.get(userId);
+        if (own == null) return rows;
+        Map<Long, ContactModel> older = afterId != 0 ? own.headMap((long) afterId, false).descendingMap() : own.descendingMap();
+        for (ContactModel c : older.values()) {
+            if (skip > 0) {
+                skip--;
+            } else if (rows.size() < limit) {
+                rows.add(c);
+            } else {
+                break;
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public synchronized int addContact(int userId, String name, String phone) throws SQLException {
+        requireUser(userId);
+        long id = nextContactId;
+        write(CONTACT_ADD, out -> {
+            out.writeLong(id);
+            out.writeInt(userId);
+            out.writeUTF(name);
+            out.writeUTF(phone);
+        });
+        return (int) id;
+    }
+
+    @Override
+    public synchronized void addContacts(int userId, List<ContactModel> batch) throws SQLException {
+        requireUser(userId);
+        List<Body> bodies = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            long id = nextContactId + i;
+            ContactModel c = batch.get(i);
+            bodies.add(out -> {
+                out.writeLong(id);
+                out.writeInt(userId);
+                out.writeUTF(c.getName());
+                out.writeUTF(c.getPhoneNumber());
+            });
+        }
+        write(CONTACT_ADD, bodies);
+    }
+
+    @Override
+    public synchronized void updateContact(int userId, ContactModel contact, String newName, String newPhone) throws SQLException {
+        Long id = find(userId, contact);
+        if (id != null) {
+            write(CONTACT_UPDATE, out -> {
+                out.writeLong(id);
+                out.writeInt(userId);
+                out.writeUTF(newName);
+                out.writeUTF(newPhone);
+            });
+        }
+    }
+
+    @Override
+    public synchronized void deleteContact(int userId, ContactModel contact) throws SQLException {
+        Long id = find(userId, contact);
+        if (id != null) {
+            write(CONTACT_DELETE, out -> {
+                out.writeLong(id);
+                out.writeInt(userId);
+            });
+        }
+    }
+
+    /** Id of the user's contact named by {@code contact} (see {@link Storage#updateContact}), or null. */
+    private Long find(int userId, ContactModel contact) {
+        TreeMap<Long, ContactModel> own = contacts.get(userId);
+        if (own == null) return null;
+        if (contact.getId() != 0) return own.containsKey((long) contact.getId()) ? (long) contact.getId() : null;
+        for (Map.Entry<Long, ContactModel> e : own.entrySet()) {
+            if (e.getValue().getName().equals(contact.getName()) && e.getValue().getPhoneNumber().equals(contact.getPhoneNumber())) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /** Mirrors the foreign keys on MySQL. */
+    private void requireUser(int userId) throws SQLException {
+        for (UserManager.User u : users.values()) {
+            if (u.id == userId) return;
+        }
+        throw new SQLException("Cannot add or update a child row: no user " + userId, "23000");
+    }
+
+    // ---- Locations ----
+
+    @Override
+    public synchronized void saveLocation(int userId, double lat, double lon) {
+        long time = System.currentTimeMillis();
+        try {
+            requireUser(userId);
+            write(FIX, out -> {
+                out.writeInt(userId);
+                out.writeDouble(lat);
+                out.writeDouble(lon);
+                out.writeLong(time);
+            });
+        } catch (SQLException e) {
+            System.err.println("Failed to save location: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized List<LocationHistory.Row> findLocations(int userId, long fromMillis, long toMillis, int limit) {
+        List<LocationHistory.Row> found = new ArrayList<>();
+        for (LocationHistory.Row r : fixes.getOrDefault(userId, new ArrayList<>())) {
+            if (r.recordedAt >= fromMillis && r.recordedAt < toMillis) found.add(r);
+        }
+        found.sort((a, b) -> a.recordedAt != b.recordedAt ? Long.compare(a.recordedAt, b.recordedAt) : Long.compare(a.id, b.id));
+        return found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found;
+    }
+
+    // ---- Session ----
+
+    @Override
+    public synchronized String loadSession() {
+        return session;
+    }
+
+    @Override
+    public synchronized void saveSession(String email) {
+        try {
+            write(SESSION, out -> out.writeUTF(email));
+        } catch (SQLException e) {
+            System.err.println("Failed to save session: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void clearSession() {
+        if (session == null) return;
+        saveSession("");
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Local database: close failed: " + e.getMessage());
+        }
+        try {
+            lockChannel.close(); // releases the lock
+        } catch (IOException e) {
+            System.err.println("Local database: could not release the lock: " + e.getMessage());
+        }
+    }
+
+    // ---- File ----
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Appends a record, forces it to disk and applies it to the in-memory state. */
+    private void write(byte type, Body body) throws SQLException {
+        write(type, Collections.singletonList(body));
+    }
+
+    /** Appends records and forces them to disk together, then applies them. A crash can keep a prefix of them. */
+    private void write(byte type, List<Body> bodies) throws SQLException {
+        try {
+            List<byte[]> payloads = new ArrayList<>(bodies.size());
+            for (Body body : bodies) payloads.add(encode(type, body));
+            for (byte[] payload : payloads) end = RecordLog.write(channel, RecordLog.frame(payload), end);
+            channel.force(false);
+            fileRecords += payloads.size();
+            for (byte[] payload : payloads) apply(new DataInputStream(new ByteArrayInputStream(payload)));
+            if (fileRecords > COMPACT_MIN_RECORDS && fileRecords > 2 * liveRecords) compact();
+        } catch (IOException e) {
+            throw new SQLException("Local database write failed: " + e.getMessage(), "58030", e);
+        }
+    }
+
+    private static byte[] encode(byte type, Body body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        body.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Applies one record to the in-memory state; used both when opening the file and after each write. */
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case USER: {
+                UserManager.User u = new UserManager.User(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF(),
+                        in.readUTF(), in.readUTF(), in.readUTF());
+                users.put(u.email.toLowerCase(Locale.ROOT), u);
+                nextUserId = Math.max(nextUserId, u.id + 1);
+                liveRecords++;
+                break;
+            }
+            case CONTACT_ADD: {
+                long id = in.readLong();
+                int userId = in.readInt();
+                contacts.computeIfAbsent(userId, k -> new TreeMap<>()).put(id, new ContactModel((int) id, in.readUTF(), in.readUTF()));
+                nextContactId = Math.max(nextContactId, id + 1);
+                liveRecords++;
+                break;
+            }
+            case CONTACT_UPDATE: {
+                long id = in.readLong();
+                TreeMap<Long, ContactModel> own = contacts.get(in.readInt());
+                ContactModel updated = new ContactModel((int) id, in.readUTF(), in.readUTF());
+                if (own != null && own.containsKey(id)) own.put(id, updated);
+                break;
+            }
+            case CONTACT_DELETE: {
+                long id = in.readLong();
+                TreeMap<Long, ContactModel> own = contacts.get(in.readInt());
+                if (own != null && own.remove(id) != null) liveRecords--;
+                break;
+            }
+            case FIX: {
+                int userId = in.readInt();
+                LocationHistory.Row row = new LocationHistory.Row(nextFixId++, in.readDouble(), in.readDouble(), in.readLong(), 1);
+                fixes.computeIfAbsent(userId, k -> new ArrayList<>()).add(row);
+                liveRecords++;
+                break;
+            }
+            case SESSION: {
+                String email = in.readUTF();
+                if (session == null) liveRecords++;
+                session = email.isEmpty() ? null : email;
+                if (session == null) liveRecords--;
+                break;
+            }
+            default:
+                throw new IOException("Unknown record type " + type + " in " + path);
+        }
+    }
+
+    /** Rewrites the file with one record per live row. */
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        long records, newEnd;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            long pos = RecordLog.write(out, header, 0);
+            List<byte[]> live = new ArrayList<>();
+            for (UserManager.User u : users.values()) {
+                live.add(encode(USER, o -> {
+                    o.writeInt(u.id);
+                    o.writeUTF(u.fullName);
+                    o.writeUTF(u.idType);
+                    o.writeUTF(u.idNumber);
+                    o.writeUTF(u.email);
+                    o.writeUTF(u.phone);
+                    o.writeUTF(u.password);
+                }));
+            }
+            for (Map.Entry<Integer, TreeMap<Long, ContactModel>> own : contacts.entrySet()) {
+                for (Map.Entry<Long, ContactModel> c : own.getValue().entrySet()) {
+                    live.add(encode(CONTACT_ADD, o -> {
+                        o.writeLong(c.getKey());
+                        o.writeInt(own.getKey());
+                        o.writeUTF(c.getValue().getName());
+                        o.writeUTF(c.getValue().getPhoneNumber());
+                    }));
+                }
+            }
+            for (Map.Entry<Integer, List<LocationHistory.Row>> own : fixes.entrySet()) {
+                for (LocationHistory.Row r : own.getValue()) {
+                    live.add(encode(FIX, o -> {
+                        o.writeInt(own.getKey());
+                        o.writeDouble(r.latitude);
+                        o.writeDouble(r.longitude);
+                        o.writeLong(r.recordedAt);
+                    }));
+                }
+            }
+            if (session != null) live.add(encode(SESSION, o -> o.writeUTF(session)));
+            for (byte[] payload : live) pos = RecordLog.write(out, RecordLog.frame(payload), pos);
+            out.force(true);
+            records = live.size();
+            newEnd = pos;
+        }
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = newEnd;
+        fileRecords = records;
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spatio-temporal keys of the locations table. The spatial key is a binary geohash: longitude and latitude
+ * are each quantized to {@value #BITS} bits and interleaved (longitude first, like a text geohash), so it
+ * fits a positive BIGINT and resolves about 1 cm. Every geohash cell is one contiguous key range. Indexed
+ * as (hour_bucket, geohash), a box over a time window becomes a few key ranges per hour, so a query reads
+ * only the fixes near the box in those hours, however large the table grows.
+ */
+public final class GeoCells {
+    static final int BITS = 31;
+
+    private GeoCells() {
+    }
+
+    /** Hours since the epoch; the hour_bucket column. */
+    public static int hourBucket(long timeMillis) {
+        return (int) Math.floorDiv(timeMillis, 3_600_000L);
+    }
+
+    /** Key of the finest cell containing the point. */
+    public static long encode(double lat, double lon) {
+        return spread(quantize(lon + 180, 360, BITS)) << 1 | spread(quantize(lat + 90, 180, BITS));
+    }
+
+    /**
+     * Key ranges, inclusive and sorted, whose cells together cover the box. Uses the finest cell size that
+     * covers it with at most {@code maxCells} cells, merging neighbours that are adjacent in key order.
+     * A box with {@code minLon > maxLon} crosses the antimeridian and is split in two.
+     */
+    public static List<long[]> cover(double minLat, double minLon, double maxLat, double maxLon, int maxCells) {
+        List<long[]> ranges = new ArrayList<>();
+        if (minLon > maxLon) {
+            ranges.addAll(cover(minLat, minLon, maxLat, 180, Math.max(1, maxCells / 2)));
+            ranges.addAll(cover(minLat, -180, maxLat, maxLon, Math.max(1, maxCells / 2)));
+            ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+            return ranges;
+        }
+        for (int level = BITS; level >= 0; level--) {
+            int x0 = quantize(minLon + 180, 360, level), x1 = quantize(maxLon + 180, 360, level);
+            int y0 = quantize(minLat + 90, 180, level), y1 = quantize(maxLat + 90, 180, level);
+            if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > maxCells && level > 0) continue;
+            int shift = 2 * (BITS - level);
+            List<Long> prefixes = new ArrayList<>();
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) prefixes.add(spread(x) << 1 | spread(y));
+            }
+            prefixes.sort(null);
+            for (long p : prefixes) {
+                long start = p << shift, end = ((p + 1) << shift) - 1;
+                long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && last[1] + 1 == start) last[1] = end;
+                else ranges.add(new long[]{start, end});
+            }
+            break;
+        }
+        return ranges;
+    }
+
+    /** Cell index of {@code offset} in [0, span) at {@code bits} bits, clamped to the last cell. */
+    private static int quantize(double offset, double span, int bits) {
+        long cells = 1L << bits;
+        long i = (long) Math.floor(offset / span * cells);
+        return (int) Math.max(0, Math.min(cells - 1, i));
+    }
+
+    /** Spreads the low 32 bits of {@code v} onto the even bits of a long. */
+    private static long spread(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | x << 16) & 0x0000FFFF0000FFFFL;
+        x = (x | x << 8) & 0x00FF00FF00FF00FFL;
+        x = (x | x << 4) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | x << 2) & 0x3333333333333333L;
+        x = (x | x << 1) & 0x5555555555555555L;
+        return x;
+    }
+}
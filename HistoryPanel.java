@@ -0,0 +1,300 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.net.URI;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+/**
+ * Location history view: a downsampled overview of the chosen range drawn as a track, and the individual
+ * fixes newest first, loaded one keyset page at a time. All queries run on {@link DbExecutor}.
+ */
+public class HistoryPanel extends JPanel {
+    private static final int PAGE_SIZE = 100;
+    private static final int OVERVIEW_POINTS = 400;
+    private static final String[] RANGES = {"Last 24 hours", "Last 7 days", "Last 30 days", "Last year"};
+    private static final long[] RANGE_MILLIS = {86_400_000L, 7 * 86_400_000L, 30 * 86_400_000L, 365 * 86_400_000L};
+
+    private final LocationHistory history;
+    private final Desktop desktop;
+    private final JComboBox<String> rangeBox = new JComboBox<>(RANGES);
+    private final TrackView trackView = new TrackView();
+    private final DefaultListModel<LocationHistory.Row> rowsModel = new DefaultListModel<>();
+    private final JList<LocationHistory.Row> rowsList = new JList<>(rowsModel);
+    private final JButton moreButton = new JButton("Load more");
+    private final JLabel summaryLabel = new JLabel(" ");
+    private final JButton exportButton = new JButton("Export...");
+    private final JProgressBar exportProgress = new JProgressBar(0, 1000);
+    private final JButton cancelExportButton = new JButton("Cancel");
+    private LocationExporter exporter; // the running export, if any
+
+    private int userId = 0;
+    private int generation = 0; // bumped on every reload so late results of an older one are ignored
+    private Timestamp from;
+    private Timestamp to;
+    private LocationHistory.Cursor next;
+
+    public HistoryPanel(LocationHistory history, Desktop desktop) {
+        super(new BorderLayout(15, 15));
+        this.history = history;
+        this.desktop = desktop;
+        setBackground(new Color(245, 245, 250));
+        setBorder(new EmptyBorder(20, 20, 20, 20));
+
+        JLabel titleLabel = new JLabel("Location History", SwingConstants.CENTER);
+        titleLabel.setFont(AppStyles.getAppFont(Font.BOLD, 26f));
+        titleLabel.setForeground(new Color(220, 53, 69));
+
+        JButton refreshButton = new JButton("Refresh");
+        refreshButton.addActionListener(e -> reload());
+        rangeBox.addActionListener(e -> reload());
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controls.setOpaque(false);
+        controls.add(rangeBox);
+        controls.add(refreshButton);
+        controls.add(exportButton);
+        controls.add(exportProgress);
+        controls.add(cancelExportButton);
+        controls.add(summaryLabel);
+        exportButton.addActionListener(e -> export());
+        cancelExportButton.addActionListener(e -> {
+            LocationExporter running = exporter;
+            if (running != null) running.cancel();
+        });
+        exportProgress.setStringPainted(true);
+        exportProgress.setVisible(false);
+        cancelExportButton.setVisible(false);
+
+        JPanel north = new JPanel(new BorderLayout());
+        north.setOpaque(false);
+        north.add(titleLabel, BorderLayout.NORTH);
+        north.add(controls, BorderLayout.SOUTH);
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        rowsList.setFont(AppStyles.getAppFont(Font.PLAIN, 13f));
+        rowsList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                LocationHistory.Row row = (LocationHistory.Row) value;
+                String text = format.format(new Date(row.recordedAt)) + "    "
+                        + String.format(Locale.ROOT, "%.6f, %.6f", row.latitude, row.longitude);
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        rowsList.setToolTipText("Double-click to open in Google Maps");
+        rowsList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                LocationHistory.Row row = rowsList.getSelectedValue();
+                if (e.getClickCount() != 2 || row == null || desktop == null) return;
+                try {
+                    desktop.browse(new URI(String.format(Locale.ROOT, "https://www.google.com/maps?q=%f,%f", row.latitude, row.longitude)));
+                } catch (Exception ex) {
+                    System.err.println("Could not open map: " + ex.getMessage());
+                }
+            }
+        });
+        moreButton.addActionListener(e -> loadPage());
+        moreButton.setEnabled(false);
+
+        JPanel listPanel = new JPanel(new BorderLayout());
+        listPanel.setOpaque(false);
+        JScrollPane scroll = new JScrollPane(rowsList);
+        scroll.setBorder(BorderFactory.createLineBorder(AppStyles.ACCENT_COLOR));
+        listPanel.add(scroll, BorderLayout.CENTER);
+        listPanel.add(moreButton, BorderLayout.SOUTH);
+
+        trackView.setPreferredSize(new Dimension(0, 200));
+        trackView.setBorder(BorderFactory.createLineBorder(AppStyles.ACCENT_COLOR));
+        JPanel center = new JPanel(new BorderLayout(0, 10));
+        center.setOpaque(false);
+        center.add(trackView, BorderLayout.NORTH);
+        center.add(listPanel, BorderLayout.CENTER);
+
+        add(north, BorderLayout.NORTH);
+        add(center, BorderLayout.CENTER);
+
+        // Load whenever the card is shown, so the view is current without polling
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentShown(ComponentEvent e) {
+                reload();
+            }
+        });
+    }
+
+    /** Switches to another user (0 = signed out); called on the EDT. */
+    public void setUser(int userId) {
+        this.userId = userId;
+        if (isShowing()) reload();
+        else clear();
+    }
+
+    private void clear() {
+        generation++;
+        rowsModel.clear();
+        trackView.setRows(List.of());
+        next = null;
+        moreButton.setEnabled(false);
+        summaryLabel.setText(userId == 0 ? "Log in to see your history" : " ");
+    }
+
+    private void reload() {
+        clear();
+        if (userId == 0) return;
+        long now = System.currentTimeMillis();
+        to = new Timestamp(now + 1000);
+        from = new Timestamp(now - RANGE_MILLIS[rangeBox.getSelectedIndex()]);
+        int gen = generation;
+        int uid = userId;
+        Timestamp f = from, t = to;
+        summaryLabel.setText("Loading...");
+        DbExecutor.supply(() -> history.downsample(uid, f, t, OVERVIEW_POINTS))
+            .whenCompleteAsync((rows, err) -> {
+                if (gen != generation) return;
+                if (err != null) {
+                    summaryLabel.setText("Could not load history: " + DbExecutor.rootCause(err).getMessage());
+                    return;
+                }
+                long total = 0;
+                for (LocationHistory.Row r : rows) total += r.count;
+                summaryLabel.setText(total + " fixes");
+                trackView.setRows(rows);
+            }, DbExecutor.EDT);
+        loadPage();
+    }
+
+    private void loadPage() {
+        if (userId == 0) return;
+        int gen = generation;
+        int uid = userId;
+        LocationHistory.Cursor after = next;
+        Timestamp f = from, t = to;
+        moreButton.setEnabled(false);
+        DbExecutor.supply(() -> history.page(uid, f, t, after, true, PAGE_SIZE))
+            .whenCompleteAsync((page, err) -> {
+                if (gen != generation) return;
+                if (err != null) {
+                    summaryLabel.setText("Could not load history: " + DbExecutor.rootCause(err).getMessage());
+                    moreButton.setEnabled(after != null || next != null);
+                    return;
+                }
+                for (LocationHistory.Row r : page.rows) rowsModel.addElement(r);
+                next = page.next;
+                moreButton.setEnabled(next != null);
+            }, DbExecutor.EDT);
+    }
+
+    /**
+     * Exports the selected range to a GPX or GeoJSON file chosen by the user. The export streams on
+     * {@link DbExecutor}, with progress shown in the panel; only one runs at a time.
+     */
+    private void export() {
+        if (userId == 0 || exporter != null) return;
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export location history");
+        chooser.setAcceptAllFileFilterUsed(false);
+        for (LocationExporter.Format f : LocationExporter.Format.values()) {
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter(f.description + " (*." + f.extension + ")", f.extension));
+        }
+        chooser.setSelectedFile(new File("location-history." + LocationExporter.Format.GPX.extension));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        String ext = ((FileNameExtensionFilter) chooser.getFileFilter()).getExtensions()[0];
+        LocationExporter.Format format = ext.equals(LocationExporter.Format.GPX.extension)
+                ? LocationExporter.Format.GPX : LocationExporter.Format.GEOJSON;
+        File file = chooser.getSelectedFile();
+        if (!file.getName().toLowerCase(Locale.ROOT).endsWith("." + ext)) file = new File(file.getPath() + "." + ext);
+        File target = file;
+
+        long now = System.currentTimeMillis();
+        Timestamp t = new Timestamp(now + 1000);
+        Timestamp f = new Timestamp(now - RANGE_MILLIS[rangeBox.getSelectedIndex()]);
+        int uid = userId;
+        LocationExporter running = new LocationExporter(history);
+        exporter = running;
+        exportButton.setEnabled(false);
+        exportProgress.setValue(0);
+        exportProgress.setString("Exporting...");
+        exportProgress.setVisible(true);
+        cancelExportButton.setVisible(true);
+        revalidate();
+        DbExecutor.supply(() -> running.export(uid, f, t, format, target.toPath(), (written, total) ->
+                SwingUtilities.invokeLater(() -> {
+                    exportProgress.setValue(total == 0 ? 1000 : (int) (written * 1000 / total));
+                    exportProgress.setString(written + " / " + total);
+                })))
+            .whenCompleteAsync((count, err) -> {
+                exporter = null;
+                exportButton.setEnabled(true);
+                exportProgress.setVisible(false);
+                cancelExportButton.setVisible(false);
+                revalidate();
+                if (err == null) {
+                    JOptionPane.showMessageDialog(this, "Exported " + count + " locations to\n" + target.getPath(),
+                            "Export", JOptionPane.INFORMATION_MESSAGE);
+                } else if (!(DbExecutor.rootCause(err) instanceof java.io.InterruptedIOException)) {
+                    JOptionPane.showMessageDialog(this, "Export failed:\n" + DbExecutor.rootCause(err).getMessage(),
+                            "Export", JOptionPane.ERROR_MESSAGE);
+                }
+            }, DbExecutor.EDT);
+    }
+
+    /** Draws downsampled rows as a polyline, scaled to fit (longitude corrected for latitude). */
+    private static class TrackView extends JComponent {
+        private List<LocationHistory.Row> rows = List.of();
+
+        void setRows(List<LocationHistory.Row> rows) {
+            this.rows = rows;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setColor(Color.WHITE);
+            g2.fillRect(0, 0, getWidth(), getHeight());
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            if (rows.isEmpty()) {
+                g2.setColor(AppStyles.SECONDARY_TEXT_COLOR);
+                g2.drawString("No locations in this range", 10, 20);
+                g2.dispose();
+                return;
+            }
+            double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+            for (LocationHistory.Row r : rows) {
+                minLat = Math.min(minLat, r.latitude);
+                maxLat = Math.max(maxLat, r.latitude);
+                minLon = Math.min(minLon, r.longitude);
+                maxLon = Math.max(maxLon, r.longitude);
+            }
+            double cos = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+            double spanX = Math.max((maxLon - minLon) * cos, 1e-6), spanY = Math.max(maxLat - minLat, 1e-6);
+            int pad = 12;
+            double scale = Math.min((getWidth() - 2 * pad) / spanX, (getHeight() - 2 * pad) / spanY);
+            int prevX = 0, prevY = 0;
+            for (int i = 0; i < rows.size(); i++) {
+                LocationHistory.Row r = rows.get(i);
+                int x = pad + (int) ((r.longitude - minLon) * cos * scale);
+                int y = getHeight() - pad - (int) ((r.latitude - minLat) * scale);
+                g2.setColor(AppStyles.ACCENT_COLOR);
+                if (i > 0) g2.drawLine(prevX, prevY, x, y);
+                if (i == rows.size() - 1) {
+                    g2.setColor(AppStyles.DARK_RED);
+                    g2.fillOval(x - 4, y - 4, 8, 8);
+                }
+                prevX = x;
+                prevY = y;
+            }
+            g2.dispose();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GET with strict timeouts on the app's shared {@link HttpClient}, so connections are reused across
+ * requests. Parsed results are cached for a TTL per URL and per network identity (the set of local
+ * interface addresses), so repeated refreshes on the same network don't hit the service again but
+ * moving to another network does. Expired entries are revalidated with If-None-Match /
+ * If-Modified-Since; a 304 keeps the cached value without downloading or parsing the body.
+ */
+public class HttpFetcher {
+    /** Shared by all HTTP callers in the app (see also {@link Channels.HttpGateway}). */
+    static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    /** Parses a response body while it streams in. */
+    public interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+    private final Duration timeout;
+    private final long ttlMillis;
+    private final Map<String, Entry<?>> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    /**
+     * @param timeout   upper bound for a whole request, connect included
+     * @param ttlMillis how long a result is used without asking the server again (0 disables caching)
+     */
+    public HttpFetcher(Duration timeout, long ttlMillis) {
+        this.timeout = timeout;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /** Blocking fetch; call it off the EDT. */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String url, BodyParser<T> parser) throws IOException {
+        String key = networkIdentity() + " " + url;
+        Entry<T> cached = (Entry<T>) cache.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.fetchedAt < ttlMillis) return cached.value;
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .GET();
+        if (cached != null && cached.etag != null) request.header("If-None-Match", cached.etag);
+        if (cached != null && cached.lastModified != null) request.header("If-Modified-Since", cached.lastModified);
+
+        HttpResponse<InputStream> response;
+        try {
+            requests.incrementAndGet();
+            response = CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+        try (InputStream body = response.body()) {
+            long now = System.currentTimeMillis();
+            int status = response.statusCode();
+            if (status == 304 && cached != null) {
+                notModified.incrementAndGet();
+                cache.put(key, new Entry<>(cached.value, cached.etag, cached.lastModified, now));
+                return cached.value;
+            }
+            if (status != 200) throw new IOException(url + " returned HTTP " + status);
+            T value = parser.parse(body);
+            if (ttlMillis > 0) {
+                cache.put(key, new Entry<>(value, response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null), now));
+            }
+            return value;
+        }
+    }
+
+    /** Drops all cached results, e.g. when the caller knows the answer has changed. */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /** Requests actually sent (cache hits excluded) and how many of them were answered with 304. */
+    public String getStats() {
+        return "requests=" + requests + ", notModified=" + notModified + ", cached=" + cache.size();
+    }
+
+    /**
+     * A string identifying the current network attachment: the addresses of all up, non-loopback
+     * interfaces. It changes when the machine joins another network or gets a new address.
+     */
+    static String networkIdentity() {
+        List<String> addresses = new ArrayList<>();
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface ni = interfaces.nextElement();
+                if (!ni.isUp() || ni.isLoopback()) continue;
+                for (InetAddress a : Collections.list(ni.getInetAddresses())) {
+                    if (!a.isLinkLocalAddress()) addresses.add(ni.getName() + "=" + a.getHostAddress());
+                }
+            }
+        } catch (SocketException e) {
+            return "unknown";
+        }
+        Collections.sort(addresses);
+        return Integer.toHexString(addresses.hashCode());
+    }
+
+    private static class Entry<T> {
+        final T value;
+        final String etag;
+        final String lastModified;
+        final long fetchedAt;
+
+        Entry(T value, String etag, String lastModified, long fetchedAt) {
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
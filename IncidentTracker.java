@@ -0,0 +1,323 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * High-frequency tracking while an SOS is active. Every fix is written into a fixed-size ring of slots in a
+ * memory-mapped file (incident.file), and a drainer moves them to the locations table in batches.
+ * <ul>
+ *   <li>{@link #record} allocates nothing and never touches the database: it writes one slot in place.</li>
+ *   <li>A slot's sequence number is written last and covered by a checksum, so a slot torn by a crash is
+ *       recognised and skipped. The mapped pages survive a JVM crash; the drainer also forces them to disk
+ *       once per cycle against power loss.</li>
+ *   <li>The drainer commits each batch together with its progress in job_state, so after a restart it
+ *       replays exactly the fixes that never reached the database, even ones recorded while it was down.
+ *       Until it has read job_state it trusts the progress in the file header.</li>
+ *   <li>When the ring is full the oldest undrained fix is overwritten (and counted), so tracking never stops.</li>
+ * </ul>
+ */
+public class IncidentTracker {
+    private static final int MAGIC = 0x534F5352; // "SOSR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 40;
+    // Header layout
+    private static final int H_MAGIC = 0, H_VERSION = 4, H_CAPACITY = 8, H_FILE_ID = 16, H_DRAINED = 24;
+    // Slot layout: sequence (0 = empty) | user id | checksum | latitude | longitude | time
+    private static final int S_SEQ = 0, S_USER = 8, S_CHECK = 12, S_LAT = 16, S_LON = 24, S_TIME = 32;
+
+    private static final String STATE_GET_SQL = "SELECT value FROM job_state WHERE name = ?";
+    private static final String STATE_PUT_SQL = "INSERT INTO job_state(name, value) VALUES(?, ?)"
+            + " ON DUPLICATE KEY UPDATE value = VALUES(value)";
+
+    private final Database db;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int capacity;
+    private final String stateKey;
+    private final long sampleMs;
+    private final long drainMs;
+    private final int batchSize;
+    private final long maxTrackMs;
+    // Separate threads, so a slow or unreachable database never delays sampling
+    private final ScheduledExecutorService scheduler = daemonScheduler("incident-sampler");
+    private final ScheduledExecutorService drainer = daemonScheduler("incident-drain");
+
+    private final Object lock = new Object();
+    // Guarded by lock: sequences below drained are in the database, head is the next one to write
+    private long head;
+    private long drained;
+    private boolean dirty = false;
+    private long recorded = 0;
+    private long overwritten = 0;
+    private long written = 0;
+
+    // Tracking session, only touched on the sampler thread
+    private int activeUser = 0;
+    private long activeUntil = 0;
+    private long lastSampled = 0;
+    private LocationService source;
+    private ScheduledFuture<?> sampler;
+    private volatile boolean active = false;
+    private volatile Consumer<Boolean> listener;
+    private boolean failing = false; // drainer thread only
+    private boolean progressLoaded = false; // drainer thread only: job_state has been read
+
+    public IncidentTracker(Database db, AppConfig config) throws IOException {
+        this.db = db;
+        this.sampleMs = Math.max(100, config.getLong("incident.sampleMs", 1000));
+        this.drainMs = Math.max(100, config.getLong("incident.drainMs", 1000));
+        this.batchSize = Math.max(1, config.getInt("incident.batchSize", 500));
+        this.maxTrackMs = Math.max(1, config.getLong("incident.maxMinutes", 60)) * 60_000L;
+        Path path = Paths.get(config.get("incident.file", "incident.ring"));
+        int wanted = Math.max(16, config.getInt("incident.capacity", 65_536));
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean existing = channel.size() >= HEADER_BYTES;
+        int fileCapacity = wanted;
+        if (existing) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION) {
+                throw new IOException(path + " is not an incident ring file; move it away to start a new one");
+            }
+            fileCapacity = header.getInt(H_CAPACITY);
+            if (fileCapacity != wanted) {
+                System.err.println("Keeping incident ring capacity " + fileCapacity + " from " + path + " (incident.capacity is " + wanted + ")");
+            }
+        }
+        this.capacity = fileCapacity;
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * SLOT_BYTES);
+        if (!existing) {
+            map.putInt(H_MAGIC, MAGIC);
+            map.putInt(H_VERSION, VERSION);
+            map.putInt(H_CAPACITY, capacity);
+            map.putLong(H_FILE_ID, new SecureRandom().nextLong());
+            map.putLong(H_DRAINED, 1);
+            map.force();
+        }
+        this.stateKey = "incident-ring." + Long.toHexString(map.getLong(H_FILE_ID)) + ".drained";
+        recover();
+        drainer.scheduleWithFixedDelay(this::drain, 0, drainMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledExecutorService daemonScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Finds the newest intact slot and where draining has to resume, from the file alone; the drainer
+     * corrects the latter from job_state before its first batch ({@link #loadProgress}).
+     */
+    private void recover() {
+        long maxSeq = 0;
+        for (int i = 0; i < capacity; i++) {
+            int off = HEADER_BYTES + i * SLOT_BYTES;
+            long seq = map.getLong(off + S_SEQ);
+            if (seq > maxSeq && slotIntact(off, seq)) maxSeq = seq;
+        }
+        synchronized (lock) {
+            head = maxSeq + 1;
+            drained = Math.min(head, Math.max(map.getLong(H_DRAINED), head - capacity));
+            if (head > drained) System.out.println("Incident ring: replaying " + (head - drained) + " fix(es) recorded before the last shutdown");
+        }
+    }
+
+    /** The database is authoritative (it commits with the rows); the header may lag one batch behind. */
+    private void loadProgress() throws SQLException {
+        long fromDb = Long.parseLong(getState());
+        synchronized (lock) {
+            drained = Math.min(head, Math.max(drained, fromDb));
+        }
+        progressLoaded = true;
+    }
+
+    public void setListener(Consumer<Boolean> listener) {
+        this.listener = listener;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Starts (or extends) tracking {@code userId}: every incident.sampleMs the newest measured fix from
+     * {@code source} is recorded, for up to incident.maxMinutes.
+     */
+    public void start(int userId, LocationService source) {
+        scheduler.execute(() -> {
+            this.source = source;
+            if (activeUser != userId) lastSampled = 0;
+            activeUser = userId;
+            activeUntil = System.currentTimeMillis() + maxTrackMs;
+            if (sampler == null) sampler = scheduler.scheduleAtFixedRate(this::sample, 0, sampleMs, TimeUnit.MILLISECONDS);
+            setActive(true);
+            source.refreshNow();
+        });
+    }
+
+    /** Stops sampling; fixes already recorded are still drained. */
+    public void stop() {
+        scheduler.execute(this::stopSampling);
+    }
+
+    private void stopSampling() {
+        if (sampler != null) sampler.cancel(false);
+        sampler = null;
+        activeUser = 0;
+        setActive(false);
+    }
+
+    private void setActive(boolean value) {
+        if (active == value) return;
+        active = value;
+        Consumer<Boolean> l = listener;
+        if (l != null) l.accept(value);
+    }
+
+    private void sample() {
+        if (System.currentTimeMillis() > activeUntil) {
+            stopSampling();
+            return;
+        }
+        LocationFix fix = source.getLastFix();
+        if (fix == null || !fix.isMeasured() || fix.timestampMillis <= lastSampled) return;
+        lastSampled = fix.timestampMillis;
+        record(activeUser, fix.latitude, fix.longitude, fix.timestampMillis);
+    }
+
+    /** Appends one fix to the ring. Allocation-free; safe from any thread. */
+    public void record(int userId, double lat, double lon, long timeMillis) {
+        synchronized (lock) {
+            long seq = head;
+            if (seq - drained >= capacity) {
+                drained = seq - capacity + 1; // the slot we are about to reuse was never drained
+                overwritten++;
+            }
+            int off = HEADER_BYTES + (int) (seq % capacity) * SLOT_BYTES;
+            map.putLong(off + S_SEQ, 0);
+            map.putInt(off + S_USER, userId);
+            map.putDouble(off + S_LAT, lat);
+            map.putDouble(off + S_LON, lon);
+            map.putLong(off + S_TIME, timeMillis);
+            map.putInt(off + S_CHECK, checksum(seq, userId, lat, lon, timeMillis));
+            map.putLong(off + S_SEQ, seq);
+            head = seq + 1;
+            dirty = true;
+            recorded++;
+        }
+    }
+
+    /** Moves recorded fixes to the database until the ring is drained or the database fails. */
+    private void drain() {
+        try {
+            if (!progressLoaded) loadProgress();
+            while (true) {
+                long from, to;
+                List<LocationWriter.Fix> batch = new ArrayList<>();
+                synchronized (lock) {
+                    from = drained;
+                    to = Math.min(head, from + batchSize);
+                    for (long seq = from; seq < to; seq++) {
+                        int off = HEADER_BYTES + (int) (seq % capacity) * SLOT_BYTES;
+                        if (map.getLong(off + S_SEQ) != seq || !slotIntact(off, seq)) continue; // torn by a crash
+                        batch.add(new LocationWriter.Fix(map.getInt(off + S_USER), map.getDouble(off + S_LAT),
+                                map.getDouble(off + S_LON), new Timestamp(map.getLong(off + S_TIME))));
+                    }
+                }
+                if (from == to) break;
+                try (Connection conn = db.getConnection()) {
+                    conn.setAutoCommit(false);
+                    if (!batch.isEmpty()) LocationWriter.insert(conn, batch);
+                    try (PreparedStatement ps = conn.prepareStatement(STATE_PUT_SQL)) {
+                        ps.setString(1, stateKey);
+                        ps.setString(2, Long.toString(to));
+                        ps.executeUpdate();
+                    }
+                    conn.commit();
+                }
+                synchronized (lock) {
+                    drained = Math.max(drained, to);
+                    map.putLong(H_DRAINED, drained);
+                    written += batch.size();
+                }
+                if (failing) System.out.println("Incident ring: database reachable again, draining");
+                failing = false;
+            }
+        } catch (SQLException e) {
+            if (!failing) System.err.println("Incident ring: could not save fixes, will keep retrying: " + e.getMessage());
+            failing = true;
+        }
+        boolean force;
+        synchronized (lock) {
+            force = dirty;
+            dirty = false;
+        }
+        if (force) map.force();
+    }
+
+    /** Stops tracking, drains what it can and flushes the ring to disk. */
+    public void close() {
+        scheduler.shutdownNow();
+        drainer.shutdown();
+        try {
+            drainer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Incident ring: close failed: " + e.getMessage());
+        }
+    }
+
+    public String getStats() {
+        synchronized (lock) {
+            return "incident ring: " + recorded + " recorded, " + written + " written, " + (head - drained) + " pending, "
+                    + overwritten + " overwritten";
+        }
+    }
+
+    private String getState() throws SQLException {
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(STATE_GET_SQL)) {
+            ps.setString(1, stateKey);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : "0";
+            }
+        }
+    }
+
+    private boolean slotIntact(int off, long seq) {
+        return map.getInt(off + S_CHECK) == checksum(seq, map.getInt(off + S_USER), map.getDouble(off + S_LAT),
+                map.getDouble(off + S_LON), map.getLong(off + S_TIME));
+    }
+
+    private static int checksum(long seq, int userId, double lat, double lon, long time) {
+        long h = seq * 0x9E3779B97F4A7C15L ^ userId;
+        h = (h ^ Double.doubleToRawLongBits(lat)) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ Double.doubleToRawLongBits(lon)) * 0x165667B19E3779F9L;
+        h = (h ^ time) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+}
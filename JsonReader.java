@@ -0,0 +1,227 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+
+/**
+ * Minimal streaming (pull) JSON reader. It reads tokens straight from a Reader, so a response is never
+ * buffered whole, and values the caller doesn't need are skipped without being materialized.
+ * Only what the app's endpoints need is supported: objects, arrays, strings, numbers, booleans and null.
+ */
+public class JsonReader implements Closeable {
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private final Reader in;
+    private int peeked = -2; // next unread char, -2 = nothing buffered
+    private boolean expectName = false; // inside an object, before a name
+    private final ArrayDeque<Boolean> scopes = new ArrayDeque<>(); // true = object, false = array
+    private final StringBuilder buf = new StringBuilder();
+
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    /** The type of the next token, without consuming it. */
+    public Token peek() throws IOException {
+        int c = nextNonSeparator();
+        switch (c) {
+            case -1: return Token.END_DOCUMENT;
+            case '{': return Token.BEGIN_OBJECT;
+            case '}': return Token.END_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case ']': return Token.END_ARRAY;
+            case '"': return expectName ? Token.NAME : Token.STRING;
+            case 't': case 'f': return Token.BOOLEAN;
+            case 'n': return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return Token.NUMBER;
+                throw syntax("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect('{');
+        scopes.push(true);
+        expectName = true;
+    }
+
+    public void endObject() throws IOException {
+        expect('}');
+        scopes.pop();
+        afterValue(null);
+    }
+
+    public void beginArray() throws IOException {
+        expect('[');
+        scopes.push(false);
+        expectName = false;
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+        scopes.pop();
+        afterValue(null);
+    }
+
+    /** True while the current object or array has more members. */
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        if (peek() != Token.NAME) throw syntax("expected a name");
+        String name = readString();
+        if (nextNonSeparator() != ':') throw syntax("expected ':'");
+        consume();
+        expectName = false;
+        return name;
+    }
+
+    public String nextString() throws IOException {
+        Token t = peek();
+        if (t == Token.STRING) return afterValue(readString());
+        if (t == Token.NUMBER || t == Token.BOOLEAN) return afterValue(readLiteral());
+        throw syntax("expected a string");
+    }
+
+    /** Reads a number; numeric strings such as "12.5" are accepted as well. */
+    public double nextDouble() throws IOException {
+        Token t = peek();
+        if (t != Token.NUMBER && t != Token.STRING) throw syntax("expected a number");
+        String s = t == Token.STRING ? readString() : readLiteral();
+        try {
+            return afterValue(Double.parseDouble(s));
+        } catch (NumberFormatException e) {
+            throw syntax("not a number: " + s);
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        if (peek() != Token.BOOLEAN) throw syntax("expected a boolean");
+        String s = readLiteral();
+        if (!s.equals("true") && !s.equals("false")) throw syntax("bad literal " + s);
+        return afterValue(s.equals("true"));
+    }
+
+    public void nextNull() throws IOException {
+        if (peek() != Token.NULL || !readLiteral().equals("null")) throw syntax("expected null");
+        afterValue(null);
+    }
+
+    /** Skips the next value, including nested objects and arrays. */
+    public void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) skipValue();
+                endArray();
+                break;
+            case STRING:
+                afterValue(readString());
+                break;
+            case NUMBER: case BOOLEAN: case NULL:
+                afterValue(readLiteral());
+                break;
+            default:
+                throw syntax("expected a value");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** After a value inside an object the next token is a name again (or the closing brace). */
+    private <T> T afterValue(T value) {
+        expectName = !scopes.isEmpty() && scopes.peek();
+        return value;
+    }
+
+    private void expect(char c) throws IOException {
+        if (nextNonSeparator() != c) throw syntax("expected '" + c + "'");
+        consume();
+    }
+
+    private String readString() throws IOException {
+        consume(); // opening quote
+        buf.setLength(0);
+        while (true) {
+            int c = in.read();
+            if (c == -1) throw syntax("unterminated string");
+            if (c == '"') return buf.toString();
+            if (c != '\\') {
+                buf.append((char) c);
+                continue;
+            }
+            int e = in.read();
+            switch (e) {
+                case '"': case '\\': case '/': buf.append((char) e); break;
+                case 'b': buf.append('\b'); break;
+                case 'f': buf.append('\f'); break;
+                case 'n': buf.append('\n'); break;
+                case 'r': buf.append('\r'); break;
+                case 't': buf.append('\t'); break;
+                case 'u':
+                    char[] hex = new char[4];
+                    for (int i = 0; i < 4; i++) {
+                        int h = in.read();
+                        if (h == -1) throw syntax("unterminated escape");
+                        hex[i] = (char) h;
+                    }
+                    try {
+                        buf.append((char) Integer.parseInt(new String(hex), 16));
+                    } catch (NumberFormatException ex) {
+                        throw syntax("bad unicode escape");
+                    }
+                    break;
+                default:
+                    throw syntax("bad escape");
+            }
+        }
+    }
+
+    /** Reads an unquoted number or literal up to the next structural character. */
+    private String readLiteral() throws IOException {
+        buf.setLength(0);
+        int c = nextNonSeparator();
+        while (c != -1 && c != ',' && c != '}' && c != ']' && c != ':' && !Character.isWhitespace(c)) {
+            buf.append((char) c);
+            consume();
+            c = peekChar();
+        }
+        return buf.toString();
+    }
+
+    /** Skips whitespace and value separators and returns (without consuming) the next char. */
+    private int nextNonSeparator() throws IOException {
+        int c = peekChar();
+        while (c == ',' || Character.isWhitespace(c)) {
+            consume();
+            c = peekChar();
+        }
+        return c;
+    }
+
+    private int peekChar() throws IOException {
+        if (peeked == -2) peeked = in.read();
+        return peeked;
+    }
+
+    private void consume() {
+        peeked = -2;
+    }
+
+    private IOException syntax(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets
+ * (bucket i counts samples in [2^(i-1), 2^i) us). Cheap enough to record on hot paths.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1_000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        total.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * Upper bound (in microseconds) of the bucket containing the given percentile, e.g. 0.99.
+     */
+    public long percentileMicros(double p) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(i == 0 ? 1 : 1L << i, maxMicros.get());
+        }
+        return maxMicros.get();
+    }
+
+    @Override
+    public String toString() {
+        long n = total.get();
+        if (n == 0) return name + ": no samples";
+        return String.format("%s: n=%d mean=%.2fms p50<=%.2fms p90<=%.2fms p99<=%.2fms max=%.2fms",
+                name, n, sumMicros.get() / (double) n / 1000.0,
+                percentileMicros(0.50) / 1000.0, percentileMicros(0.90) / 1000.0,
+                percentileMicros(0.99) / 1000.0, maxMicros.get() / 1000.0);
+    }
+}
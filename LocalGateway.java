@@ -0,0 +1,69 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in SMS / e-mail gateway on localhost for trying out the dispatch engine without a provider
+ * account. Every POST to /sms or /email is logged to stdout and acknowledged with 200.
+ * Enable with dispatch.gateway=local in sos.properties.
+ */
+public class LocalGateway {
+    private final HttpServer server;
+    private final AtomicInteger received = new AtomicInteger();
+
+    public LocalGateway(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/sms", exchange -> handle("sms", exchange));
+        server.createContext("/email", exchange -> handle("email", exchange));
+        server.start();
+    }
+
+    public String getSmsUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/sms";
+    }
+
+    public String getEmailUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/email";
+    }
+
+    public int getReceivedCount() {
+        return received.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(String kind, HttpExchange exchange) throws IOException {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String to = "", message = "";
+        for (String pair : body.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            String value = URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            if (pair.startsWith("to=")) to = value;
+            if (pair.startsWith("message=")) message = value;
+        }
+        received.incrementAndGet();
+        System.out.println("[local " + kind + " gateway] to=" + to + " message=" + message);
+        byte[] rb = "OK".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, rb.length);
+        try (OutputStream os = exchange.getResponseBody()) { os.write(rb); }
+    }
+}
@@ -0,0 +1,53 @@
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The app's single loopback HTTP endpoint, started on first use and shared by the browser
+ * geolocation page and the SOS batch page, so neither has to create a server per request.
+ */
+public class LocalHttpServer {
+    private static LocalHttpServer instance;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private LocalHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        AtomicInteger n = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "local-http-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public static synchronized LocalHttpServer get() throws IOException {
+        if (instance == null) instance = new LocalHttpServer();
+        return instance;
+    }
+
+    public synchronized void createContext(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+    }
+
+    /** Browser-facing URL for a path on this server, e.g. url("/location"). */
+    public String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    public static synchronized void shutdown() {
+        if (instance == null) return;
+        instance.server.stop(0);
+        instance.executor.shutdownNow();
+        instance = null;
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Last known copy of each signed-in user's account and contacts, kept in offline.dir so the app can sign in
+ * and show contacts while the database is unreachable. Each file is checksummed and replaced atomically,
+ * so a crash never leaves a half-written snapshot behind. Contact lists change with every edit, so they are
+ * written offline.saveDelayMs after the last change, once for a whole burst; until then {@link #loadContacts}
+ * returns the newest list from memory. The changes themselves are already in the database or the outbox.
+ */
+public class LocalSnapshot {
+    private static final int MAGIC = 0x534F5353; // "SOSS"
+    private static final int VERSION = 2; // 2: contacts carry their ids; older copies are ignored
+
+    private final Path dir;
+    private final long saveDelayMs;
+    private final Map<Integer, List<ContactModel>> unsaved = new HashMap<>(); // guarded by this
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "offline-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> pendingSave; // guarded by this
+
+    public LocalSnapshot(Path dir, long saveDelayMs) {
+        this.dir = dir;
+        this.saveDelayMs = saveDelayMs;
+    }
+
+    /** Stores the account; {@code user.password} must be the password hash. */
+    public void saveUser(UserManager.User user) {
+        write(userFile(user.email), out -> {
+            out.writeInt(user.id);
+            out.writeUTF(user.fullName);
+            out.writeUTF(user.idType);
+            out.writeUTF(user.idNumber);
+            out.writeUTF(user.email);
+            out.writeUTF(user.phone);
+            out.writeUTF(user.password);
+        });
+    }
+
+    /** The stored account for {@code email} (with its password hash), or null. */
+    public UserManager.User loadUser(String email) {
+        return read(userFile(email), in -> {
+            UserManager.User user = new UserManager.User(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF(),
+                    in.readUTF(), in.readUTF(), in.readUTF());
+            return user.email.equalsIgnoreCase(email) ? user : null;
+        });
+    }
+
+    /** Stores {@code contacts} (not copied: the caller hands over a list it no longer changes) after the delay. */
+    public synchronized void saveContacts(int userId, List<ContactModel> contacts) {
+        unsaved.put(userId, contacts);
+        if (pendingSave == null || pendingSave.isDone()) {
+            try {
+                pendingSave = saver.schedule(this::flush, saveDelayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                flush(); // closed
+            }
+        }
+    }
+
+    /** Writes the contact lists still waiting for the delay. */
+    public void flush() {
+        Map<Integer, List<ContactModel>> due;
+        synchronized (this) {
+            due = new HashMap<>(unsaved);
+            unsaved.clear();
+        }
+        for (Map.Entry<Integer, List<ContactModel>> e : due.entrySet()) writeContacts(e.getKey(), e.getValue());
+    }
+
+    /** Writes what is still waiting and stops the background writer. */
+    public void close() {
+        saver.shutdownNow();
+        flush();
+    }
+
+    private void writeContacts(int userId, List<ContactModel> contacts) {
+        write(dir.resolve("contacts-" + userId + ".snap"), out -> {
+            out.writeInt(contacts.size());
+            for (ContactModel c : contacts) {
+                out.writeInt(c.getId());
+                out.writeUTF(c.getName());
+                out.writeUTF(c.getPhoneNumber());
+            }
+        });
+    }
+
+    /** The stored contacts of {@code userId}, or null if there are none. */
+    public List<ContactModel> loadContacts(int userId) {
+        synchronized (this) {
+            List<ContactModel> newest = unsaved.get(userId);
+            if (newest != null) return new ArrayList<>(newest);
+        }
+        return read(dir.resolve("contacts-" + userId + ".snap"), in -> {
+            int n = in.readInt();
+            List<ContactModel> contacts = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) contacts.add(new ContactModel(in.readInt(), in.readUTF(), in.readUTF()));
+            return contacts;
+        });
+    }
+
+    private Path userFile(String email) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(email.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder("user-");
+            for (int i = 0; i < 10; i++) name.append(String.format("%02x", digest[i]));
+            return dir.resolve(name.append(".snap").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private synchronized void write(Path file, Writer body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            body.write(out);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+
+            Files.createDirectories(dir);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, bytes.toByteArray());
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save offline copy " + file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized <T> T read(Path file, Reader<T> body) {
+        try {
+            byte[] data = Files.readAllBytes(file);
+            if (data.length < 12) return null;
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - 4);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || (int) crc.getValue() != readTrailer(data)) {
+                System.err.println("Ignoring damaged offline copy " + file.getFileName());
+                return null;
+            }
+            return body.read(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Failed to read offline copy " + file.getFileName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static int readTrailer(byte[] data) {
+        int n = data.length;
+        return (data[n - 4] & 0xFF) << 24 | (data[n - 3] & 0xFF) << 16 | (data[n - 2] & 0xFF) << 8 | (data[n - 1] & 0xFF);
+    }
+}
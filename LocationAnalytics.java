@@ -0,0 +1,415 @@
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Reporting over the locations table: a heatmap (fix counts per grid cell) and dwell points (places a user
+ * stayed at least analytics.dwellMinutes within analytics.dwellRadiusMeters).
+ * <ul>
+ *   <li>Rows are read in primary-key chunks of analytics.chunkSize; the next chunk is fetched while the
+ *       current one is aggregated, so the database and the CPUs work at the same time.</li>
+ *   <li>Each chunk is aggregated on a ForkJoinPool: heatmap counts into per-thread {@link HeatGrid}s that are
+ *       merged, dwell detection per user in parallel (one user's fixes are always handled by one task).</li>
+ *   <li>Everything is kept as a mergeable {@link State}: heat counts add up, and each user's unfinished stay
+ *       is carried over. Saving the state after a run means the next run reads only rows added since, and
+ *       gives the same result as one pass over everything.</li>
+ * </ul>
+ * A stay is reported once the user moves on (or goes quiet longer than analytics.maxGapMinutes and
+ * reappears). Run as a tool: {@code java LocationAnalytics [outputDir]} writes heatmap.png, heatmap.csv and dwells.csv
+ * and keeps its state in analytics.state in that directory.
+ */
+public class LocationAnalytics {
+    private static final String CHUNK_SQL = "SELECT id, user_id, latitude, longitude, recorded_at FROM locations"
+            + " WHERE id > ? ORDER BY id LIMIT ?";
+    private static final int STATE_VERSION = 1;
+
+    private final Database db;
+    private final double cellDegrees;
+    private final double dwellRadiusMeters;
+    private final long dwellMinMs;
+    private final long maxGapMs;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    public LocationAnalytics(Database db, AppConfig config) {
+        this.db = db;
+        this.cellDegrees = config.getDouble("analytics.cellDegrees", 0.01);
+        this.dwellRadiusMeters = config.getDouble("analytics.dwellRadiusMeters", 100);
+        this.dwellMinMs = config.getLong("analytics.dwellMinutes", 15) * 60_000L;
+        // Must exceed the track compressor's heartbeat, or someone sitting still looks like they left
+        this.maxGapMs = config.getLong("analytics.maxGapMinutes", 120) * 60_000L;
+        this.chunkSize = Math.max(1000, config.getInt("analytics.chunkSize", 50_000));
+        this.pool = new ForkJoinPool(Math.max(1, config.getInt("analytics.threads", Runtime.getRuntime().availableProcessors())));
+    }
+
+    public State newState() {
+        return new State(cellDegrees);
+    }
+
+    /**
+     * Adds every row after {@code state.lastId} to the state. Blocking; the state is updated in place and
+     * stays consistent after each chunk, so it can be saved even if a later chunk fails.
+     *
+     * @return the number of rows processed
+     */
+    public long update(State state) throws SQLException {
+        long processed = 0;
+        List<Fix> chunk = readChunk(state.lastId);
+        while (!chunk.isEmpty()) {
+            long after = chunk.get(chunk.size() - 1).id;
+            CompletableFuture<List<Fix>> next = chunk.size() < chunkSize
+                    ? CompletableFuture.completedFuture(new ArrayList<>())
+                    : DbExecutor.supply(() -> readChunk(after));
+            aggregate(chunk, state);
+            processed += chunk.size();
+            try {
+                chunk = next.join();
+            } catch (RuntimeException e) {
+                Throwable cause = DbExecutor.rootCause(e);
+                if (cause instanceof SQLException) throw (SQLException) cause;
+                throw e;
+            }
+        }
+        return processed;
+    }
+
+    /** Aggregates one chunk (rows in id order) into the state on the pool. */
+    public void aggregate(List<Fix> chunk, State state) {
+        pool.submit(() -> {
+            HeatGrid heat = chunk.parallelStream().collect(() -> new HeatGrid(state.heat.cellDegrees), HeatGrid::add, HeatGrid::merge);
+            state.heat.merge(heat);
+            Map<Integer, List<Fix>> byUser = chunk.parallelStream().collect(Collectors.groupingByConcurrent(f -> f.userId));
+            List<Dwell> finished = byUser.entrySet().parallelStream().flatMap(e -> {
+                List<Fix> fixes = e.getValue();
+                // Ids follow insertion order, which can lag recorded_at slightly (held-back track points)
+                fixes.sort((a, b) -> a.time != b.time ? Long.compare(a.time, b.time) : Long.compare(a.id, b.id));
+                Stay stay = state.open.get(e.getKey());
+                List<Dwell> out = new ArrayList<>();
+                for (Fix f : fixes) stay = step(e.getKey(), stay, f, out);
+                state.open.put(e.getKey(), stay);
+                return out.stream();
+            }).collect(Collectors.toList());
+            state.dwells.addAll(finished);
+        }).join();
+        state.lastId = Math.max(state.lastId, chunk.get(chunk.size() - 1).id);
+        state.rows += chunk.size();
+    }
+
+    /** Advances one user's stay by one fix, appending the dwell it completes (if any). */
+    private Stay step(int userId, Stay stay, Fix f, List<Dwell> out) {
+        if (stay != null && f.time < stay.end) return stay; // older than what we have; drop it
+        if (stay != null && f.time - stay.end <= maxGapMs
+                && NearbyIndex.distanceKm(stay.anchorLat, stay.anchorLon, f.lat, f.lon) * 1000 <= dwellRadiusMeters) {
+            stay.end = f.time;
+            stay.sumLat += f.lat;
+            stay.sumLon += f.lon;
+            stay.count++;
+            return stay;
+        }
+        if (stay != null && stay.end - stay.start >= dwellMinMs) {
+            out.add(new Dwell(userId, stay.sumLat / stay.count, stay.sumLon / stay.count, stay.start, stay.end, stay.count));
+        }
+        return new Stay(f);
+    }
+
+    private List<Fix> readChunk(long afterId) throws SQLException {
+        List<Fix> rows = new ArrayList<>(chunkSize);
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(CHUNK_SQL)) {
+            ps.setLong(1, afterId);
+            ps.setInt(2, chunkSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new Fix(rs.getLong(1), rs.getInt(2), rs.getDouble(3), rs.getDouble(4), rs.getTimestamp(5).getTime()));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /** Heatmap as a PNG of the occupied area, log-scaled from transparent blue to red. */
+    public static void writeHeatmapPng(HeatGrid heat, Path target, int maxSide) throws IOException {
+        if (heat.counts.isEmpty()) throw new IOException("No locations to draw");
+        long minX = Long.MAX_VALUE, maxX = Long.MIN_VALUE, minY = Long.MAX_VALUE, maxY = Long.MIN_VALUE;
+        for (Map.Entry<Long, Long> e : heat.counts.entrySet()) {
+            long x = HeatGrid.x(e.getKey()), y = HeatGrid.y(e.getKey());
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        long cellsX = maxX - minX + 1, cellsY = maxY - minY + 1;
+        double scale = Math.min(1.0, maxSide / (double) Math.max(cellsX, cellsY));
+        int width = (int) Math.max(1, Math.ceil(cellsX * scale)), height = (int) Math.max(1, Math.ceil(cellsY * scale));
+        long[] pixels = new long[width * height];
+        long maxPixel = 1;
+        for (Map.Entry<Long, Long> e : heat.counts.entrySet()) {
+            int px = (int) Math.min(width - 1, (HeatGrid.x(e.getKey()) - minX) * scale);
+            int py = (int) Math.min(height - 1, (maxY - HeatGrid.y(e.getKey())) * scale); // north up
+            long v = pixels[py * width + px] += e.getValue();
+            maxPixel = Math.max(maxPixel, v);
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        double logMax = Math.log1p(maxPixel);
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] == 0) continue;
+            float t = (float) (Math.log1p(pixels[i]) / logMax);
+            Color c = Color.getHSBColor(0.66f * (1 - t), 1f, 1f);
+            int alpha = (int) (80 + 175 * t);
+            image.setRGB(i % width, i / width, alpha << 24 | (c.getRGB() & 0xFFFFFF));
+        }
+        Path tmp = target.resolveSibling(target.getFileName() + ".part");
+        ImageIO.write(image, "png", tmp.toFile());
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** One line per occupied cell: its south-west corner and fix count, busiest first. */
+    public static void writeHeatmapCsv(HeatGrid heat, Path target) throws IOException {
+        List<Map.Entry<Long, Long>> cells = new ArrayList<>(heat.counts.entrySet());
+        cells.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        try (BufferedWriter out = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            out.write("cell_south,cell_west,cell_degrees,fixes\n");
+            for (Map.Entry<Long, Long> e : cells) {
+                out.write(String.format(Locale.ROOT, "%.6f,%.6f,%s,%d%n",
+                        HeatGrid.y(e.getKey()) * heat.cellDegrees - 90, HeatGrid.x(e.getKey()) * heat.cellDegrees - 180,
+                        heat.cellDegrees, e.getValue()));
+            }
+        }
+    }
+
+    public static void writeDwellsCsv(List<Dwell> dwells, Path target) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            out.write("user_id,latitude,longitude,arrived,left,minutes,fixes\n");
+            for (Dwell d : dwells) {
+                out.write(String.format(Locale.ROOT, "%d,%.6f,%.6f,%s,%s,%d,%d%n", d.userId, d.latitude, d.longitude,
+                        Instant.ofEpochMilli(d.start), Instant.ofEpochMilli(d.end), (d.end - d.start) / 60_000, d.fixes));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "analytics");
+        Files.createDirectories(dir);
+        Database db = new Database("db.properties");
+        try {
+            LocationAnalytics analytics = new LocationAnalytics(db, AppConfig.load("sos.properties"));
+            Path statePath = dir.resolve("analytics.state");
+            State state = Files.exists(statePath) ? State.load(statePath) : analytics.newState();
+            long started = System.nanoTime();
+            long rows = analytics.update(state);
+            double seconds = (System.nanoTime() - started) / 1e9;
+            System.out.printf(Locale.ROOT, "Processed %d new location(s) in %.1f s (%.0f rows/s); %d in total%n",
+                    rows, seconds, rows / Math.max(seconds, 1e-9), state.rows);
+            state.save(statePath);
+            if (state.heat.counts.isEmpty()) {
+                System.out.println("No locations yet; nothing to draw");
+                return;
+            }
+            writeHeatmapPng(state.heat, dir.resolve("heatmap.png"), 2048);
+            writeHeatmapCsv(state.heat, dir.resolve("heatmap.csv"));
+            writeDwellsCsv(state.dwells, dir.resolve("dwells.csv"));
+            System.out.println("Wrote heatmap.png, heatmap.csv and dwells.csv (" + state.dwells.size() + " dwell point(s)) to " + dir.toAbsolutePath());
+        } finally {
+            db.close();
+        }
+    }
+
+    /** A stored fix as read for analytics. */
+    public static class Fix {
+        public final long id;
+        public final int userId;
+        public final double lat;
+        public final double lon;
+        public final long time;
+
+        public Fix(long id, int userId, double lat, double lon, long time) {
+            this.id = id;
+            this.userId = userId;
+            this.lat = lat;
+            this.lon = lon;
+            this.time = time;
+        }
+    }
+
+    /** A place a user stayed: centroid of the fixes, first and last fix time. */
+    public static class Dwell {
+        public final int userId;
+        public final double latitude;
+        public final double longitude;
+        public final long start;
+        public final long end;
+        public final int fixes;
+
+        Dwell(int userId, double latitude, double longitude, long start, long end, int fixes) {
+            this.userId = userId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.start = start;
+            this.end = end;
+            this.fixes = fixes;
+        }
+    }
+
+    /** A user's current candidate dwell: fixes within the radius of the first one. */
+    private static class Stay {
+        final double anchorLat;
+        final double anchorLon;
+        final long start;
+        long end;
+        double sumLat;
+        double sumLon;
+        int count;
+
+        Stay(Fix f) {
+            this(f.lat, f.lon, f.time, f.time, f.lat, f.lon, 1);
+        }
+
+        Stay(double anchorLat, double anchorLon, long start, long end, double sumLat, double sumLon, int count) {
+            this.anchorLat = anchorLat;
+            this.anchorLon = anchorLon;
+            this.start = start;
+            this.end = end;
+            this.sumLat = sumLat;
+            this.sumLon = sumLon;
+            this.count = count;
+        }
+    }
+
+    /** Fix counts per grid cell. Partial grids of disjoint rows merge by adding counts. */
+    public static class HeatGrid {
+        final double cellDegrees;
+        final Map<Long, Long> counts = new HashMap<>();
+
+        public HeatGrid(double cellDegrees) {
+            this.cellDegrees = cellDegrees;
+        }
+
+        public void add(Fix f) {
+            long x = (long) Math.floor((f.lon + 180) / cellDegrees), y = (long) Math.floor((f.lat + 90) / cellDegrees);
+            counts.merge(x << 32 | y, 1L, Long::sum);
+        }
+
+        public void merge(HeatGrid other) {
+            for (Map.Entry<Long, Long> e : other.counts.entrySet()) counts.merge(e.getKey(), e.getValue(), Long::sum);
+        }
+
+        public int cells() {
+            return counts.size();
+        }
+
+        static long x(long key) {
+            return key >>> 32;
+        }
+
+        static long y(long key) {
+            return key & 0xFFFFFFFFL;
+        }
+    }
+
+    /** Everything needed to continue where the last run stopped. */
+    public static class State {
+        final HeatGrid heat;
+        final Map<Integer, Stay> open = new ConcurrentHashMap<>();
+        final List<Dwell> dwells = new ArrayList<>();
+        long lastId = 0;
+        long rows = 0;
+
+        State(double cellDegrees) {
+            this.heat = new HeatGrid(cellDegrees);
+        }
+
+        public HeatGrid getHeat() {
+            return heat;
+        }
+
+        public List<Dwell> getDwells() {
+            return dwells;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        /** Written next to the target and moved into place, so a crash leaves the previous state intact. */
+        public void save(Path target) throws IOException {
+            Path tmp = target.resolveSibling(target.getFileName() + ".part");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(STATE_VERSION);
+                out.writeDouble(heat.cellDegrees);
+                out.writeLong(lastId);
+                out.writeLong(rows);
+                out.writeInt(heat.counts.size());
+                for (Map.Entry<Long, Long> e : heat.counts.entrySet()) {
+                    out.writeLong(e.getKey());
+                    out.writeLong(e.getValue());
+                }
+                out.writeInt(open.size());
+                for (Map.Entry<Integer, Stay> e : open.entrySet()) {
+                    Stay s = e.getValue();
+                    out.writeInt(e.getKey());
+                    out.writeDouble(s.anchorLat);
+                    out.writeDouble(s.anchorLon);
+                    out.writeLong(s.start);
+                    out.writeLong(s.end);
+                    out.writeDouble(s.sumLat);
+                    out.writeDouble(s.sumLon);
+                    out.writeInt(s.count);
+                }
+                out.writeInt(dwells.size());
+                for (Dwell d : dwells) {
+                    out.writeInt(d.userId);
+                    out.writeDouble(d.latitude);
+                    out.writeDouble(d.longitude);
+                    out.writeLong(d.start);
+                    out.writeLong(d.end);
+                    out.writeInt(d.fixes);
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        public static State load(Path source) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+                int version = in.readInt();
+                if (version != STATE_VERSION) throw new IOException("Unsupported analytics state version " + version + " in " + source);
+                State state = new State(in.readDouble());
+                state.lastId = in.readLong();
+                state.rows = in.readLong();
+                for (int i = in.readInt(); i > 0; i--) state.heat.counts.put(in.readLong(), in.readLong());
+                for (int i = in.readInt(); i > 0; i--) {
+                    int userId = in.readInt();
+                    state.open.put(userId, new Stay(in.readDouble(), in.readDouble(), in.readLong(), in.readLong(),
+                            in.readDouble(), in.readDouble(), in.readInt()));
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    state.dwells.add(new Dwell(in.readInt(), in.readDouble(), in.readDouble(), in.readLong(), in.readLong(), in.readInt()));
+                }
+                return state;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * Exports a user's location history to GPX or GeoJSON. Rows come from {@link LocationHistory#stream} and are
+ * written through a buffered writer straight onto a FileChannel, so memory use is the same for ten fixes
+ * or ten million. The file is written next to the target and moved into place at the end, so a failed or
+ * cancelled export never leaves a truncated file behind. Blocking; run it off the EDT.
+ */
+public class LocationExporter {
+    public enum Format {
+        GPX("gpx", "GPX track"),
+        GEOJSON("geojson", "GeoJSON");
+
+        public final String extension;
+        public final String description;
+
+        Format(String extension, String description) {
+            this.extension = extension;
+            this.description = description;
+        }
+    }
+
+    public interface ProgressListener {
+        /** Called from the exporting thread at most every few hundred milliseconds, and once at the end. */
+        void onProgress(long written, long total);
+    }
+
+    private static final long PROGRESS_INTERVAL_NANOS = 250_000_000L;
+
+    private final LocationHistory history;
+    private volatile boolean cancelled = false;
+
+    public LocationExporter(LocationHistory history) {
+        this.history = history;
+    }
+
+    /** Stops a running export; it fails with an InterruptedIOException and the target is left untouched. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Writes all fixes of {@code userId} in [from, to) to {@code target}.
+     *
+     * @return the number of fixes written
+     */
+    public long export(int userId, Timestamp from, Timestamp to, Format format, Path target, ProgressListener progress)
+            throws SQLException, IOException {
+        long total = history.count(userId, from, to);
+        Path tmp = target.resolveSibling(target.getFileName() + ".part");
+        long[] written = {0};
+        long[] lastReport = {System.nanoTime()};
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Writer out = new BufferedWriter(java.nio.channels.Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), 1 << 16)) {
+            writeHeader(out, format, from, to);
+            history.stream(userId, from, to, row -> {
+                if (cancelled) throw new InterruptedIOException("export cancelled");
+                writeRow(out, format, row, written[0] == 0);
+                written[0]++;
+                long now = System.nanoTime();
+                if (progress != null && now - lastReport[0] >= PROGRESS_INTERVAL_NANOS) {
+                    lastReport[0] = now;
+                    progress.onProgress(written[0], Math.max(total, written[0]));
+                }
+            });
+            writeFooter(out, format);
+            out.flush();
+            channel.force(false);
+        } catch (SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (progress != null) progress.onProgress(written[0], written[0]);
+        return written[0];
+    }
+
+    private static void writeHeader(Writer out, Format format, Timestamp from, Timestamp to) throws IOException {
+        if (format == Format.GPX) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<gpx version=\"1.1\" creator=\"Save Our Ship\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n"
+                    + "<metadata><desc>Location history " + from.toInstant() + " to " + to.toInstant() + "</desc></metadata>\n"
+                    + "<trk><name>Location history</name><trkseg>\n");
+        } else {
+            out.write("{\"type\":\"FeatureCollection\",\"features\":[\n");
+        }
+    }
+
+    private static void writeRow(Writer out, Format format, LocationHistory.Row row, boolean first) throws IOException {
+        String time = Instant.ofEpochMilli(row.recordedAt).toString();
+        if (format == Format.GPX) {
+            out.write("<trkpt lat=\"");
+            out.write(coordinate(row.latitude));
+            out.write("\" lon=\"");
+            out.write(coordinate(row.longitude));
+            out.write("\"><time>");
+            out.write(time);
+            out.write("</time></trkpt>\n");
+        } else {
+            if (!first) out.write(",\n");
+            out.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[");
+            out.write(coordinate(row.longitude)); // GeoJSON order is longitude, latitude
+            out.write(",");
+            out.write(coordinate(row.latitude));
+            out.write("]},\"properties\":{\"time\":\"");
+            out.write(time);
+            out.write("\"}}");
+        }
+    }
+
+    /**
+     * Locale independent and exact, unlike String.format("%f"). Double.toString switches to exponent notation
+     * below 1e-3, which GPX (xsd:decimal) does not allow, so that case goes through BigDecimal.
+     */
+    private static String coordinate(double v) {
+        return Math.abs(v) >= 1e-3 || v == 0 ? Double.toString(v) : BigDecimal.valueOf(v).toPlainString();
+    }
+
+    private static void writeFooter(Writer out, Format format) throws IOException {
+        out.write(format == Format.GPX ? "</trkseg></trk>\n</gpx>\n" : "\n]}\n");
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * An immutable location fix with the metadata needed to judge it: where it came from,
+ * how accurate it claims to be and when it was taken.
+ */
+public class LocationFix {
+    public final double latitude;
+    public final double longitude;
+    public final double accuracyMeters; // NaN when the source doesn't report one
+    public final long timestampMillis;
+    public final String source; // "browser", "ip", ...
+
+    public LocationFix(double latitude, double longitude, double accuracyMeters, long timestampMillis, String source) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracyMeters = accuracyMeters;
+        this.timestampMillis = timestampMillis;
+        this.source = source;
+    }
+
+    public long ageMillis() {
+        return Math.max(0, System.currentTimeMillis() - timestampMillis);
+    }
+
+    public boolean isStale(long maxAgeMillis) {
+        return ageMillis() > maxAgeMillis;
+    }
+
+    /** True for fixes actually measured now (browser, IP), as opposed to cached or pinned coordinates. */
+    public boolean isMeasured() {
+        return !"cache".equals(source) && !"pinned".equals(source);
+    }
+
+    public boolean samePosition(LocationFix other) {
+        return other != null && other.latitude == latitude && other.longitude == longitude;
+    }
+
+    /** Short human readable description, e.g. "browser, ±30 m, 2 min ago". */
+    public String describe() {
+        StringBuilder sb = new StringBuilder(source);
+        if (!Double.isNaN(accuracyMeters)) sb.append(", ±").append(Math.round(accuracyMeters)).append(" m");
+        long age = ageMillis() / 1000;
+        if (age < 60) sb.append(", ").append(age).append(" s ago");
+        else if (age < 3600) sb.append(", ").append(age / 60).append(" min ago");
+        else sb.append(", ").append(age / 3600).append(" h ago");
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return latitude + "," + longitude + " (" + describe() + ")";
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read side of the locations table. Every query is a range scan on idx_locations_user_time
+ * (user_id, recorded_at); InnoDB appends the primary key to secondary indexes, so ordering by
+ * (recorded_at, id) needs no sort.
+ * <ul>
+ *   <li>{@link #page} pages with a keyset cursor on (recorded_at, id) instead of OFFSET, so page 1000 costs
+ *       the same as page 1.</li>
+ *   <li>{@link #downsample} aggregates a range into at most N time windows in the database.</li>
+ *   <li>{@link #stream} walks a range with a streaming result set, so months of history never sit in the heap.</li>
+ * </ul>
+ */
+public class LocationHistory {
+    private static final String PAGE_ASC_SQL = "SELECT id, latitude, longitude, recorded_at FROM locations"
+            + " WHERE user_id = ? AND recorded_at < ? AND (recorded_at > ? OR (recorded_at = ? AND id > ?))"
+            + " ORDER BY recorded_at, id LIMIT ?";
+    private static final String PAGE_DESC_SQL = "SELECT id, latitude, longitude, recorded_at FROM locations"
+            + " WHERE user_id = ? AND recorded_at >= ? AND (recorded_at < ? OR (recorded_at = ? AND id < ?))"
+            + " ORDER BY recorded_at DESC, id DESC LIMIT ?";
+    private static final String STREAM_SQL = "SELECT id, latitude, longitude, recorded_at FROM locations"
+            + " WHERE user_id = ? AND recorded_at >= ? AND recorded_at < ? ORDER BY recorded_at, id";
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM locations WHERE user_id = ? AND recorded_at >= ? AND recorded_at < ?";
+    private static final String DOWNSAMPLE_SQL = "SELECT FLOOR((UNIX_TIMESTAMP(recorded_at) - ?) / ?) AS bucket,"
+            + " MAX(id), AVG(latitude), AVG(longitude), MAX(recorded_at), COUNT(*) FROM locations"
+            + " WHERE user_id = ? AND recorded_at >= ? AND recorded_at < ? GROUP BY bucket ORDER BY bucket";
+
+    static final int CURSOR_FETCH_SIZE = 1000;
+
+    private final Database db;
+
+    public LocationHistory(Database db) {
+        this.db = db;
+    }
+
+    /** Receives rows from {@link #stream}; may throw to abort the walk. */
+    public interface RowHandler {
+        void handle(Row row) throws IOException;
+    }
+
+    /**
+     * One page of history in [from, to). Pass {@code after = null} for the first page and
+     * {@link Page#next} for the following ones; {@code next} is null after the last page.
+     */
+    public Page page(int userId, Timestamp from, Timestamp to, Cursor after, boolean newestFirst, int limit) throws SQLException {
+        List<Row> rows = new ArrayList<>(limit);
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement(newestFirst ? PAGE_DESC_SQL : PAGE_ASC_SQL)) {
+            ps.setInt(1, userId);
+            if (newestFirst) {
+                // Start just past the newest possible row: (to, 0) with recorded_at < to
+                Cursor c = after != null ? after : new Cursor(to, Long.MIN_VALUE);
+                ps.setTimestamp(2, from);
+                ps.setTimestamp(3, c.recordedAt);
+                ps.setTimestamp(4, c.recordedAt);
+                ps.setLong(5, c.id);
+            } else {
+                // (from, 0) as the cursor makes the first page recorded_at >= from
+                Cursor c = after != null ? after : new Cursor(from, 0);
+                ps.setTimestamp(2, to);
+                ps.setTimestamp(3, c.recordedAt);
+                ps.setTimestamp(4, c.recordedAt);
+                ps.setLong(5, c.id);
+            }
+            ps.setInt(6, limit + 1); // one extra row tells whether another page exists
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) rows.add(readRow(rs));
+            }
+        }
+        Cursor next = null;
+        if (rows.size() > limit) {
+            rows.remove(rows.size() - 1);
+            Row last = rows.get(rows.size() - 1);
+            next = new Cursor(new Timestamp(last.recordedAt), last.id);
+        }
+        return new Page(rows, next);
+    }
+
+    /**
+     * Aggregates [from, to) into at most {@code maxPoints} equal time windows. Each row is the mean position
+     * of one window, with its latest time and how many fixes it stands for; empty windows are omitted.
+     */
+    public List<Row> downsample(int userId, Timestamp from, Timestamp to, int maxPoints) throws SQLException {
+        long fromSec = from.getTime() / 1000;
+        long windowSec = Math.max(1, (to.getTime() / 1000 - fromSec + maxPoints - 1) / Math.max(1, maxPoints));
+        List<Row> rows = new ArrayList<>();
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(DOWNSAMPLE_SQL)) {
+            ps.setLong(1, fromSec);
+            ps.setLong(2, windowSec);
+            ps.setInt(3, userId);
+            ps.setTimestamp(4, from);
+            ps.setTimestamp(5, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new Row(rs.getLong(2), rs.getDouble(3), rs.getDouble(4), rs.getTimestamp(5).getTime(), rs.getInt(6)));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /** Number of fixes in [from, to); an index-only range count. */
+    public long count(int userId, Timestamp from, Timestamp to) throws SQLException {
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(COUNT_SQL)) {
+            ps.setInt(1, userId);
+            ps.setTimestamp(2, from);
+            ps.setTimestamp(3, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Walks every row in [from, to), oldest first, without buffering the result. With useCursorFetch=true in
+     * db.url rows arrive {@value #CURSOR_FETCH_SIZE} per round trip from a server-side cursor; otherwise
+     * Connector/J streams them one at a time (fetch size Integer.MIN_VALUE). Either way the connection is
+     * busy until the walk ends.
+     *
+     * @return the number of rows handled
+     */
+    public long stream(int userId, Timestamp from, Timestamp to, RowHandler handler) throws SQLException, IOException {
+        long count = 0;
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement(STREAM_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(db.getUrl().contains("useCursorFetch=true") ? CURSOR_FETCH_SIZE : Integer.MIN_VALUE);
+            ps.setInt(1, userId);
+            ps.setTimestamp(2, from);
+            ps.setTimestamp(3, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                try {
+                    while (rs.next()) {
+                        handler.handle(readRow(rs));
+                        count++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Closing a streaming result set reads it to the end; kill the query instead
+                    ps.cancel();
+                    throw e;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static Row readRow(ResultSet rs) throws SQLException {
+        return new Row(rs.getLong(1), rs.getDouble(2), rs.getDouble(3), rs.getTimestamp(4).getTime(), 1);
+    }
+
+    /** A stored fix, or for {@link #downsample} the aggregate of one window. */
+    public static class Row {
+        public final long id;
+        public final double latitude;
+        public final double longitude;
+        public final long recordedAt;
+        public final int count; // fixes this row stands for
+
+        public Row(long id, double latitude, double longitude, long recordedAt, int count) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.recordedAt = recordedAt;
+            this.count = count;
+        }
+    }
+
+    /** Position of the last row of a page. */
+    public static class Cursor {
+        public final Timestamp recordedAt;
+        public final long id;
+
+        public Cursor(Timestamp recordedAt, long id) {
+            this.recordedAt = recordedAt;
+            this.id = id;
+        }
+    }
+
+    public static class Page {
+        public final List<Row> rows;
+        public final Cursor next;
+
+        Page(List<Row> rows, Cursor next) {
+            this.rows = rows;
+            this.next = next;
+        }
+    }
+}
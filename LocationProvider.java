@@ -0,0 +1,23 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A source of location fixes (browser, IP lookup, last-known cache, pinned coordinates).
+ * {@link LocationResolver} runs all providers concurrently and keeps the best fix that arrives in time.
+ */
+public interface LocationProvider {
+    /** Short identifier, also used as {@link LocationFix#source}. */
+    String getName();
+
+    /**
+     * Starts a lookup. The future completes with a fix, or exceptionally if this provider cannot
+     * produce one. It must not block the caller; the resolver applies the overall deadline.
+     */
+    CompletableFuture<LocationFix> request();
+
+    /**
+     * Providers that also produce fixes on their own (e.g. the browser's watchPosition) report them here.
+     */
+    default void setUpdateListener(Consumer<LocationFix> listener) {
+    }
+}
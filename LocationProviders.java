@@ -0,0 +1,313 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Built-in {@link LocationProvider} implementations and the factory that builds them from sos.properties.
+ */
+public class LocationProviders {
+    /** Accuracy reported for IP geolocation, which is city-level at best. */
+    private static final double IP_ACCURACY_METERS = 5_000;
+
+    public static List<LocationProvider> fromConfig(AppConfig config, Desktop desktop, Cached cache, Executor io) {
+        List<LocationProvider> providers = new ArrayList<>();
+        providers.add(cache);
+        String pinned = config.get("location.pinned", null);
+        if (pinned != null) {
+            String[] parts = pinned.split(",");
+            if (parts.length != 2) throw new RuntimeException("location.pinned must be 'latitude,longitude'");
+            providers.add(new Pinned(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+                    config.getDouble("location.pinned.accuracyMeters", 50)));
+        }
+        HttpFetcher fetcher = new HttpFetcher(Duration.ofMillis(config.getLong("location.ip.timeoutMs", 4_000)),
+                config.getLong("location.ip.cacheTtlMs", 600_000));
+        providers.add(new Ip(config.get("location.ip.url", "http://ip-api.com/json/"), fetcher, io));
+        if (desktop != null && config.getBoolean("location.browser", true)) {
+            long refreshMs = Math.max(5_000, config.getLong("location.refreshIntervalMs", 300_000));
+            providers.add(new Browser(desktop, refreshMs));
+        }
+        return providers;
+    }
+
+    /**
+     * Browser geolocation: serves a page on the shared {@link LocalHttpServer} that watches
+     * navigator.geolocation and POSTs every position to /location/coords. The page is opened once;
+     * later requests are answered from its most recent post or wait for the next one. Requests that wait share
+     * one pending future, which times out after the page's re-read interval, so callers that give up early
+     * leave nothing behind.
+     */
+    public static class Browser implements LocationProvider {
+        private final Desktop desktop;
+        private final long reReadMs;
+        private CompletableFuture<LocationFix> pending; // guarded by this
+        private volatile LocationFix latest;
+        private volatile Consumer<LocationFix> listener;
+        private boolean pageOpened = false;
+
+        public Browser(Desktop desktop, long reReadMs) {
+            this.desktop = desktop;
+            this.reReadMs = reReadMs;
+        }
+
+        @Override
+        public String getName() {
+            return "browser";
+        }
+
+        @Override
+        public void setUpdateListener(Consumer<LocationFix> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public CompletableFuture<LocationFix> request() {
+            LocationFix fix = latest;
+            if (fix != null && fix.ageMillis() < reReadMs) return CompletableFuture.completedFuture(fix);
+            CompletableFuture<LocationFix> f;
+            synchronized (this) {
+                if (pending == null) {
+                    CompletableFuture<LocationFix> next = new CompletableFuture<>();
+                    pending = next;
+                    next.orTimeout(reReadMs, TimeUnit.MILLISECONDS).whenComplete((x, err) -> clearPending(next));
+                }
+                f = pending;
+                if (!pageOpened) {
+                    try {
+                        openPage();
+                        pageOpened = true;
+                    } catch (Exception e) {
+                        f.completeExceptionally(e);
+                    }
+                }
+            }
+            return f.copy(); // callers cannot complete the shared one
+        }
+
+        /** Entry point for fixes posted by the page (also usable by a local stand-in). */
+        public void onFix(LocationFix fix) {
+            latest = fix;
+            CompletableFuture<LocationFix> ready;
+            synchronized (this) {
+                ready = pending;
+                pending = null;
+            }
+            if (ready != null) ready.complete(fix);
+            Consumer<LocationFix> l = listener;
+            if (l != null) l.accept(fix);
+        }
+
+        private synchronized void clearPending(CompletableFuture<LocationFix> done) {
+            if (pending == done) pending = null;
+        }
+
+        private void openPage() throws Exception {
+            LocalHttpServer server = LocalHttpServer.get();
+            server.createContext("/location", exchange -> {
+                if (exchange.getRequestURI().getPath().equals("/location/coords")) {
+                    handleCoords(exchange);
+                    return;
+                }
+                String page = "<!doctype html><html><head><meta charset=\"utf-8\"><title>Share location</title></head><body>"
+                    + "<h3>Please allow location access in the browser to share your location with the app.</h3>"
+                    + "<p>Keep this tab open so your location stays up to date.</p><p id=\"s\"></p>"
+                    + "<script>function postCoords(p){fetch('/location/coords',{method:'POST',headers:{'Content-Type':'application/json'},"
+                    + "body:JSON.stringify({lat:p.coords.latitude,lon:p.coords.longitude,acc:p.coords.accuracy})})"
+                    + ".then(()=>{document.getElementById('s').textContent='Location sent at '+new Date().toLocaleTimeString()+'.';})"
+                    + ".catch(()=>{document.getElementById('s').textContent='Failed to send. Is the app still running?';});}"
+                    + "function fail(e){document.getElementById('s').textContent='Permission denied or unavailable.';}"
+                    + "if(navigator.geolocation){var o={enableHighAccuracy:true,maximumAge:30000};"
+                    + "navigator.geolocation.watchPosition(postCoords,fail,o);"
+                    + "setInterval(function(){navigator.geolocation.getCurrentPosition(postCoords,fail,o);}," + reReadMs + ");}"
+                    + "else{document.getElementById('s').textContent='Geolocation not supported.';}</script></body></html>";
+                byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream os = exchange.getResponseBody()) { os.write(bytes); }
+            });
+            desktop.browse(new URI(server.url("/location")));
+        }
+
+        private void handleCoords(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            double lat = Double.NaN, lon = Double.NaN, acc = Double.NaN;
+            try (JsonReader json = new JsonReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    if (json.peek() == JsonReader.Token.NULL) {
+                        json.skipValue(); // accuracy may be null
+                        continue;
+                    }
+                    switch (name) {
+                        case "lat": lat = json.nextDouble(); break;
+                        case "lon": lon = json.nextDouble(); break;
+                        case "acc": acc = json.nextDouble(); break;
+                        default: json.skipValue();
+                    }
+                }
+            } catch (IOException ex) {
+                respond(exchange, 400, "bad coordinates");
+                return;
+            }
+            if (Double.isNaN(lat) || Double.isNaN(lon) || Math.abs(lat) > 90 || Math.abs(lon) > 180) {
+                respond(exchange, 400, "bad coordinates");
+                return;
+            }
+            onFix(new LocationFix(lat, lon, acc, System.currentTimeMillis(), getName()));
+            respond(exchange, 200, "OK");
+        }
+
+        private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+            byte[] rb = text.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, rb.length);
+            try (OutputStream os = exchange.getResponseBody()) { os.write(rb); }
+        }
+    }
+
+    /**
+     * IP geolocation against an ip-api.com compatible endpoint (location.ip.url, so a local stub can stand in).
+     * Lookups go through an {@link HttpFetcher}, so refreshes on the same network are answered from its cache.
+     */
+    public static class Ip implements LocationProvider {
+        private final String url;
+        private final HttpFetcher fetcher;
+        private final Executor io;
+
+        public Ip(String url, HttpFetcher fetcher, Executor io) {
+            this.url = url;
+            this.fetcher = fetcher;
+            this.io = io;
+        }
+
+        @Override
+        public String getName() {
+            return "ip";
+        }
+
+        @Override
+        public CompletableFuture<LocationFix> request() {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetcher.get(url, this::parse);
+                } catch (IOException e) {
+                    throw new RuntimeException("IP geolocation failed: " + e.getMessage(), e);
+                }
+            }, io);
+        }
+
+        /** Reads lat/lon (and status/message, which ip-api sets on failure) from the streamed response. */
+        private LocationFix parse(InputStream body) throws IOException {
+            double lat = Double.NaN, lon = Double.NaN;
+            String status = null, message = null;
+            JsonReader json = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "lat": lat = json.nextDouble(); break;
+                    case "lon": lon = json.nextDouble(); break;
+                    case "status": status = json.nextString(); break;
+                    case "message": message = json.nextString(); break;
+                    default: json.skipValue();
+                }
+            }
+            if ("fail".equals(status)) throw new IOException("lookup failed: " + message);
+            if (Double.isNaN(lat) || Double.isNaN(lon)) throw new IOException("response has no lat/lon");
+            return new LocationFix(lat, lon, IP_ACCURACY_METERS, System.currentTimeMillis(), getName());
+        }
+    }
+
+    /**
+     * The last accepted fix, persisted to a small file so a (possibly old) fix is available
+     * instantly at startup. Its original timestamp is kept so ranking accounts for its age.
+     */
+    public static class Cached implements LocationProvider {
+        private final Path file;
+        private volatile LocationFix fix;
+
+        public Cached(String path) {
+            this.file = Paths.get(path);
+            this.fix = load();
+        }
+
+        @Override
+        public String getName() {
+            return "cache";
+        }
+
+        @Override
+        public CompletableFuture<LocationFix> request() {
+            LocationFix f = fix;
+            return f != null ? CompletableFuture.completedFuture(f)
+                    : CompletableFuture.failedFuture(new IllegalStateException("no cached location"));
+        }
+
+        /** Remembers a fix (blocking file write; call off the EDT). */
+        public void remember(LocationFix f) {
+            fix = new LocationFix(f.latitude, f.longitude, f.accuracyMeters, f.timestampMillis, getName());
+            String line = f.latitude + "," + f.longitude + "," + f.accuracyMeters + "," + f.timestampMillis;
+            try {
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(tmp, line.getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Failed to save last location: " + e.getMessage());
+            }
+        }
+
+        private LocationFix load() {
+            try {
+                if (!Files.exists(file)) return null;
+                String[] p = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split(",");
+                return new LocationFix(Double.parseDouble(p[0]), Double.parseDouble(p[1]),
+                        Double.parseDouble(p[2]), Long.parseLong(p[3]), getName());
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    /** Manually pinned coordinates (location.pinned=lat,lon), always considered current. */
+    public static class Pinned implements LocationProvider {
+        private final double latitude;
+        private final double longitude;
+        private final double accuracyMeters;
+
+        public Pinned(double latitude, double longitude, double accuracyMeters) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracyMeters = accuracyMeters;
+        }
+
+        @Override
+        public String getName() {
+            return "pinned";
+        }
+
+        @Override
+        public CompletableFuture<LocationFix> request() {
+            return CompletableFuture.completedFuture(
+                    new LocationFix(latitude, longitude, accuracyMeters, System.currentTimeMillis(), getName()));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Races all location providers under one deadline. Every fix that arrives in time is ranked by
+ * accuracy and age; each time the best fix improves the caller hears about it, so a coarse fix
+ * (cache, pinned, IP) is usable immediately and is then refined by better ones (browser).
+ */
+public class LocationResolver {
+    /** Assumed worst-case drift while a fix ages (roughly walking speed), in metres per second. */
+    private static final double DRIFT_METERS_PER_SECOND = 1.5;
+    /** Accuracy assumed for fixes that don't report one. */
+    private static final double UNKNOWN_ACCURACY_METERS = 10_000;
+
+    private final List<LocationProvider> providers;
+    private final ScheduledExecutorService timer;
+
+    public LocationResolver(List<LocationProvider> providers, ScheduledExecutorService timer) {
+        this.providers = new ArrayList<>(providers);
+        this.timer = timer;
+    }
+
+    /**
+     * Lower is better: reported accuracy plus the distance the user may have moved since the fix.
+     */
+    public static double score(LocationFix fix) {
+        double accuracy = Double.isNaN(fix.accuracyMeters) ? UNKNOWN_ACCURACY_METERS : fix.accuracyMeters;
+        return accuracy + fix.ageMillis() / 1000.0 * DRIFT_METERS_PER_SECOND;
+    }
+
+    /**
+     * Starts every provider. {@code onImproved} is called (from provider threads) each time a better fix
+     * arrives before the deadline. The returned future completes with the best fix when all providers have
+     * answered or the budget runs out, or exceptionally if no provider produced anything.
+     */
+    public CompletableFuture<LocationFix> resolve(long budgetMillis, Consumer<LocationFix> onImproved) {
+        CompletableFuture<LocationFix> result = new CompletableFuture<>();
+        Object lock = new Object();
+        LocationFix[] best = new LocationFix[1];
+        AtomicInteger pending = new AtomicInteger(providers.size());
+
+        Runnable finish = () -> {
+            LocationFix fix;
+            synchronized (lock) {
+                fix = best[0];
+            }
+            if (fix != null) result.complete(fix);
+            else result.completeExceptionally(new IllegalStateException("No location provider produced a fix in time"));
+        };
+
+        for (LocationProvider provider : providers) {
+            CompletableFuture<LocationFix> f;
+            try {
+                f = provider.request();
+            } catch (RuntimeException e) {
+                f = CompletableFuture.failedFuture(e);
+            }
+            f.whenComplete((fix, err) -> {
+                if (fix != null && !result.isDone()) {
+                    boolean improved;
+                    synchronized (lock) {
+                        improved = best[0] == null || score(fix) < score(best[0]);
+                        if (improved) best[0] = fix;
+                    }
+                    if (improved && onImproved != null) onImproved.accept(fix);
+                }
+                if (pending.decrementAndGet() == 0) finish.run();
+            });
+        }
+        if (providers.isEmpty()) finish.run();
+        timer.schedule(finish, budgetMillis, TimeUnit.MILLISECONDS);
+        return result;
+    }
+}
@@ -0,0 +1,227 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background retention job for the locations table. Raw fixes older than a user's retention window are
+ * rolled up into hourly and daily centroids in location_rollups and then deleted, a small keyset-bounded
+ * chunk at a time:
+ * <ul>
+ *   <li>Each chunk's rollup upsert and delete run in one short transaction, so a crash can't lose or double
+ *       count fixes. Centroids are merged by fix count, so a bucket split across chunks or runs comes out
+ *       the same as if it had been aggregated at once.</li>
+ *   <li>Chunks are bounded by the (user_id, recorded_at) index and only touch old rows, far from where
+ *       {@link LocationWriter} inserts. The job pauses between chunks, at least location.retention.pauseMs
+ *       and longer when chunks get slow, so it never holds locks long or saturates the database.</li>
+ *   <li>Progress (the last user id done) is kept in job_state, so a run interrupted by a restart
+ *       continues with the next user instead of starting over.</li>
+ * </ul>
+ * The window is users.location_retention_days, or location.retention.days when that is NULL; 0 keeps
+ * everything.
+ */
+public class LocationRetention {
+    private static final String JOB = "location-retention";
+
+    private static final String USERS_SQL =
+            "SELECT id, location_retention_days FROM users WHERE id > ? ORDER BY id LIMIT 500";
+    private static final String CHUNK_END_SQL = "SELECT recorded_at, id FROM locations"
+            + " WHERE user_id = ? AND recorded_at < ? ORDER BY recorded_at, id LIMIT 1 OFFSET ?";
+    private static final String CHUNK_LAST_SQL = "SELECT recorded_at, id FROM locations"
+            + " WHERE user_id = ? AND recorded_at < ? ORDER BY recorded_at DESC, id DESC LIMIT 1";
+    // (recorded_at, id) <= (?, ?) over the user's oldest rows; earlier chunks are gone already
+    private static final String CHUNK_WHERE = " WHERE user_id = ? AND recorded_at <= ? AND (recorded_at < ? OR id <= ?)";
+    private static final String ROLLUP_SQL = "INSERT INTO location_rollups(user_id, granularity, bucket_start, latitude, longitude, fix_count)"
+            + " SELECT user_id, ?, FROM_UNIXTIME(UNIX_TIMESTAMP(recorded_at) DIV ? * ?) AS bucket, AVG(latitude), AVG(longitude), COUNT(*)"
+            + " FROM locations" + CHUNK_WHERE + " GROUP BY user_id, bucket"
+            // Weighted merge; fix_count must be assigned last because MySQL evaluates these left to right
+            + " ON DUPLICATE KEY UPDATE latitude = (latitude * fix_count + VALUES(latitude) * VALUES(fix_count)) / (fix_count + VALUES(fix_count)),"
+            + " longitude = (longitude * fix_count + VALUES(longitude) * VALUES(fix_count)) / (fix_count + VALUES(fix_count)),"
+            + " fix_count = fix_count + VALUES(fix_count)";
+    private static final String DELETE_SQL = "DELETE FROM locations" + CHUNK_WHERE;
+    private static final String STATE_GET_SQL = "SELECT value FROM job_state WHERE name = ?";
+    private static final String STATE_PUT_SQL = "INSERT INTO job_state(name, value) VALUES(?, ?)"
+            + " ON DUPLICATE KEY UPDATE value = VALUES(value)";
+
+    private final Database db;
+    private final int defaultDays;
+    private final int chunkSize;
+    private final long pauseMs;
+    private final long intervalMs;
+    private final long initialDelayMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, JOB);
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private volatile boolean stopping = false;
+
+    private final AtomicLong purged = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+
+    public LocationRetention(Database db, Properties props) {
+        this.db = db;
+        this.defaultDays = Math.max(0, Integer.parseInt(props.getProperty("location.retention.days", "365").trim()));
+        this.chunkSize = Math.max(1, Integer.parseInt(props.getProperty("location.retention.chunkSize", "1000").trim()));
+        this.pauseMs = Math.max(0, Long.parseLong(props.getProperty("location.retention.pauseMs", "200").trim()));
+        this.intervalMs = Math.max(60_000, Long.parseLong(props.getProperty("location.retention.intervalMs", "21600000").trim()));
+        this.initialDelayMs = Math.max(0, Long.parseLong(props.getProperty("location.retention.initialDelayMs", "60000").trim()));
+    }
+
+    /**
+     * Schedules the job: first run after location.retention.initialDelayMs (so it stays out of the way of
+     * startup), then every location.retention.intervalMs.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (SQLException e) {
+                System.err.println("Location retention run failed (will retry next interval): " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, initialDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops after the current chunk; finished chunks stay committed and the run resumes next start. */
+    public void stop() {
+        stopping = true;
+        scheduler.shutdownNow();
+    }
+
+    public String getStats() {
+        return "location retention: " + runs.get() + " runs, " + chunks.get() + " chunks, " + purged.get() + " fixes rolled up and purged";
+    }
+
+    /**
+     * One pass over all users, resuming after the last user recorded in job_state.
+     */
+    public void runOnce() throws SQLException, InterruptedException {
+        int lastUser = Integer.parseInt(getState("lastUserId", "0"));
+        while (!stopping) {
+            List<int[]> users = new ArrayList<>(); // {id, days}
+            try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(USERS_SQL)) {
+                ps.setInt(1, lastUser);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        int days = rs.getInt(2);
+                        users.add(new int[]{rs.getInt(1), rs.wasNull() ? defaultDays : days});
+                    }
+                }
+            }
+            if (users.isEmpty()) break;
+            for (int[] u : users) {
+                if (stopping) break;
+                if (u[1] > 0) purgeUser(u[0], new Timestamp(System.currentTimeMillis() - u[1] * 86_400_000L));
+                lastUser = u[0];
+            }
+            // Saved once per batch of users: redoing a few users after a crash is harmless, purging is idempotent
+            putState("lastUserId", Integer.toString(lastUser));
+        }
+        if (stopping) return;
+        putState("lastUserId", "0");
+        putState("lastCompletedAt", new Timestamp(System.currentTimeMillis()).toString());
+        runs.incrementAndGet();
+    }
+
+    private void purgeUser(int userId, Timestamp cutoff) throws SQLException, InterruptedException {
+        while (!stopping) {
+            long started = System.nanoTime();
+            int n;
+            try (Connection conn = db.getConnection()) {
+                // Last key of the next chunk: the chunkSize-th oldest row, or the last old row if fewer remain
+                Timestamp endTs;
+                long endId;
+                try (PreparedStatement ps = conn.prepareStatement(CHUNK_END_SQL)) {
+                    ps.setInt(1, userId);
+                    ps.setTimestamp(2, cutoff);
+                    ps.setInt(3, chunkSize - 1);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            endTs = rs.getTimestamp(1);
+                            endId = rs.getLong(2);
+                        } else {
+                            endTs = null;
+                            endId = 0;
+                        }
+                    }
+                }
+                if (endTs == null) {
+                    try (PreparedStatement ps = conn.prepareStatement(CHUNK_LAST_SQL)) {
+                        ps.setInt(1, userId);
+                        ps.setTimestamp(2, cutoff);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (!rs.next()) return; // nothing older than the cutoff
+                            endTs = rs.getTimestamp(1);
+                            endId = rs.getLong(2);
+                        }
+                    }
+                }
+                conn.setAutoCommit(false);
+                try {
+                    rollup(conn, userId, endTs, endId, "H", 3_600);
+                    rollup(conn, userId, endTs, endId, "D", 86_400);
+                    try (PreparedStatement ps = conn.prepareStatement(DELETE_SQL)) {
+                        bindChunk(ps, 1, userId, endTs, endId);
+                        n = ps.executeUpdate();
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+            purged.addAndGet(n);
+            chunks.incrementAndGet();
+            if (n < chunkSize) return;
+            // Throttle: pause at least pauseMs, and as long as the chunk took, so the job uses at most half the time
+            long tookMs = (System.nanoTime() - started) / 1_000_000;
+            Thread.sleep(Math.max(pauseMs, tookMs));
+        }
+    }
+
+    private void rollup(Connection conn, int userId, Timestamp endTs, long endId, String granularity, int seconds) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(ROLLUP_SQL)) {
+            ps.setString(1, granularity);
+            ps.setInt(2, seconds);
+            ps.setInt(3, seconds);
+            bindChunk(ps, 4, userId, endTs, endId);
+            ps.executeUpdate();
+        }
+    }
+
+    private static void bindChunk(PreparedStatement ps, int first, int userId, Timestamp endTs, long endId) throws SQLException {
+        ps.setInt(first, userId);
+        ps.setTimestamp(first + 1, endTs);
+        ps.setTimestamp(first + 2, endTs);
+        ps.setLong(first + 3, endId);
+    }
+
+    private String getState(String key, String defaultValue) throws SQLException {
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(STATE_GET_SQL)) {
+            ps.setString(1, JOB + "." + key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : defaultValue;
+            }
+        }
+    }
+
+    private void putState(String key, String value) throws SQLException {
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(STATE_PUT_SQL)) {
+            ps.setString(1, JOB + "." + key);
+            ps.setString(2, value);
+            ps.executeUpdate();
+        }
+    }
+}
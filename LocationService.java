@@ -0,0 +1,116 @@
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived location service. On start and whenever the cached fix goes stale, all
+ * {@link LocationProvider}s are raced by a {@link LocationResolver} under one deadline, so a coarse
+ * fix (last known, pinned, IP) is available almost immediately and is refined as better ones arrive.
+ * The browser provider also pushes fixes on its own while its page stays open.
+ * The last known fix is cached with its source, accuracy and timestamp, and subscribers are
+ * notified whenever the position changes.
+ */
+public class LocationService {
+    private final long refreshIntervalMs;
+    private final long maxAgeMs;
+    private final long resolveBudgetMs;
+
+    private final AtomicReference<LocationFix> lastFix = new AtomicReference<>();
+    private final List<Consumer<LocationFix>> subscribers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "location-service");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService io;
+    private final LocationProviders.Cached cache;
+    private final LocationResolver resolver;
+    private volatile boolean started = false;
+
+    public LocationService(Desktop desktop, AppConfig config) {
+        this.refreshIntervalMs = Math.max(5_000, config.getLong("location.refreshIntervalMs", 300_000));
+        this.maxAgeMs = Math.max(refreshIntervalMs, config.getLong("location.maxAgeMs", 600_000));
+        this.resolveBudgetMs = config.getLong("location.browserTimeoutMs", 20_000);
+        AtomicInteger n = new AtomicInteger();
+        this.io = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "location-io-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.cache = new LocationProviders.Cached(config.get("location.cacheFile", "last_location.txt"));
+        List<LocationProvider> providers = LocationProviders.fromConfig(config, desktop, cache, io);
+        for (LocationProvider p : providers) p.setUpdateListener(this::accept);
+        this.resolver = new LocationResolver(providers, scheduler);
+    }
+
+    /**
+     * Races the providers once and schedules the refresh policy. Idempotent.
+     */
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        scheduler.execute(this::resolve);
+        scheduler.scheduleWithFixedDelay(() -> {
+            LocationFix fix = lastFix.get();
+            if (fix == null || fix.isStale(maxAgeMs)) resolve();
+        }, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        io.shutdownNow();
+    }
+
+    /** The most recent fix, or null if none has been obtained yet. Never blocks. */
+    public LocationFix getLastFix() {
+        return lastFix.get();
+    }
+
+    /** Subscribers are called on a background thread whenever the position changes. */
+    public void subscribe(Consumer<LocationFix> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /** Races the providers again in the background, e.g. after the network changed. */
+    public void refreshNow() {
+        scheduler.execute(this::resolve);
+    }
+
+    private void resolve() {
+        resolver.resolve(resolveBudgetMs, this::accept).whenComplete((fix, err) -> {
+            if (err != null) System.err.println("Location unavailable: " + err.getMessage());
+        });
+    }
+
+    /**
+     * Accepts a new fix into the cache if it ranks at least as well as the cached one
+     * (see {@link LocationResolver#score}) or the cached one has gone stale.
+     */
+    void accept(LocationFix fix) {
+        LocationFix previous;
+        while (true) {
+            previous = lastFix.get();
+            if (previous == fix) return;
+            if (previous != null && !previous.isStale(maxAgeMs)
+                    && LocationResolver.score(fix) > LocationResolver.score(previous)) return;
+            if (lastFix.compareAndSet(previous, fix)) break;
+        }
+        if (!fix.samePosition(previous)) {
+            if (fix.isMeasured()) io.execute(() -> cache.remember(fix));
+            for (Consumer<LocationFix> s : subscribers) {
+                try {
+                    s.accept(fix);
+                } catch (RuntimeException e) {
+                    System.err.println("Location subscriber failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
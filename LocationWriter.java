@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for location fixes. Callers enqueue and return immediately;
+ * a background flusher writes the queued fixes to the locations table as one JDBC
+ * batch whenever the batch size is reached or the flush interval elapses. The same
+ * transaction upserts each user's newest fix into user_last_location for {@link NearbyUsers}.
+ * Each row gets its {@link GeoCells} keys for area queries. Batches that cannot reach the database go to the
+ * {@link Outbox}.
+ */
+public class LocationWriter {
+    public enum OverflowPolicy {
+        /** When the queue is full, drop the oldest queued fix. */
+        DROP_OLDEST,
+        /** When the queue is full, a user's new fix replaces their newest queued one; other users drop the oldest. */
+        COALESCE
+    }
+
+    private static final String INSERT_SQL =
+            "INSERT INTO locations(user_id, latitude, longitude, recorded_at, hour_bucket, geohash) VALUES(?, ?, ?, ?, ?, ?)";
+    // Keeps the newer fix when a held-back (older) one arrives late
+    static final String LAST_SQL = "INSERT INTO user_last_location(user_id, latitude, longitude, recorded_at) VALUES(?, ?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE latitude = IF(VALUES(recorded_at) >= recorded_at, VALUES(latitude), latitude),"
+            + " longitude = IF(VALUES(recorded_at) >= recorded_at, VALUES(longitude), longitude),"
+            + " recorded_at = GREATEST(recorded_at, VALUES(recorded_at))";
+
+    private final Database db;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final OverflowPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<Slot> queue = new ArrayDeque<>();
+    private final Map<Integer, Slot> newestQueued = new HashMap<>(); // per user, for COALESCE
+    private boolean inFlight = false;
+    private boolean running = true;
+
+    private final Thread flusher;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    public LocationWriter(Database db, Properties props) {
+        this.db = db;
+        this.capacity = Math.max(1, Integer.parseInt(props.getProperty("location.queueCapacity", "10000").trim()));
+        this.batchSize = Math.max(1, Integer.parseInt(props.getProperty("location.batchSize", "200").trim()));
+        this.flushIntervalMs = Math.max(10, Long.parseLong(props.getProperty("location.flushIntervalMs", "2000").trim()));
+        try {
+            this.policy = OverflowPolicy.valueOf(props.getProperty("location.overflowPolicy", "COALESCE").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("location.overflowPolicy must be DROP_OLDEST or COALESCE", e);
+        }
+        flusher = new Thread(this::runFlusher, "location-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues a fix for writing. Never blocks on the database.
+     */
+    public void enqueue(int userId, double lat, double lon) {
+        enqueue(userId, lat, lon, System.currentTimeMillis());
+    }
+
+    /**
+     * Queues a fix taken at {@code recordedAtMillis} (e.g. one held back by the {@link TrackCompressor}).
+     */
+    public void enqueue(int userId, double lat, double lon, long recordedAtMillis) {
+        Fix fix = new Fix(userId, lat, lon, new Timestamp(recordedAtMillis));
+        lock.lock();
+        try {
+            if (!running) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (queue.size() >= capacity && policy == OverflowPolicy.COALESCE) {
+                // Under pressure the incoming fix supersedes the user's newest queued one, in its place
+                Slot slot = newestQueued.get(userId);
+                if (slot != null) {
+                    if (!fix.recordedAt.before(slot.fix.recordedAt)) slot.fix = fix;
+                    coalesced.incrementAndGet();
+                    return;
+                }
+            }
+            while (queue.size() >= capacity) {
+                poll();
+                dropped.incrementAndGet();
+            }
+            Slot slot = new Slot(fix);
+            queue.addLast(slot);
+            newestQueued.put(userId, slot);
+            if (queue.size() >= batchSize) batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until everything queued so far has been written (or the timeout elapses).
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            batchReady.signal();
+            while (!queue.isEmpty() || inFlight) {
+                if (remaining <= 0) return false;
+                remaining = drained.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting fixes, writes what is still queued and stops the flusher.
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        try {
+            flush(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            running = false;
+            batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getStats() {
+        lock.lock();
+        try {
+            return "location writer: " + written.get() + " written, " + queue.size() + " queued, "
+                    + dropped.get() + " dropped, " + coalesced.get() + " coalesced, " + deferred.get() + " sent to the outbox, "
+                    + failed.get() + " failed";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            List<Fix> batch = new ArrayList<>(batchSize);
+            lock.lock();
+            try {
+                long waitNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (running && queue.size() < batchSize && waitNanos > 0) {
+                    try {
+                        waitNanos = batchReady.awaitNanos(waitNanos);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                    // An explicit flush() signals early; stop waiting as soon as someone is waiting on us
+                    if (!queue.isEmpty() && lock.hasWaiters(drained)) break;
+                }
+                if (queue.isEmpty()) {
+                    drained.signalAll();
+                    if (!running) return;
+                    continue;
+                }
+                while (!queue.isEmpty() && batch.size() < batchSize) {
+                    batch.add(poll());
+                }
+                inFlight = true;
+            } finally {
+                lock.unlock();
+            }
+
+            writeBatch(batch);
+
+            lock.lock();
+            try {
+                inFlight = false;
+                if (queue.isEmpty()) drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Takes the oldest queued fix; the caller holds the lock. */
+    private Fix poll() {
+        Slot slot = queue.pollFirst();
+        newestQueued.remove(slot.fix.userId, slot);
+        return slot.fix;
+    }
+
+    private void writeBatch(List<Fix> batch) {
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            insert(conn, batch);
+            conn.commit();
+            written.addAndGet(batch.size());
+        } catch (SQLException e) {
+            if (Outbox.isOffline(e) && defer(batch)) return;
+            failed.addAndGet(batch.size());
+            System.err.println("Failed to save " + batch.size() + " location(s): " + e.getMessage());
+        }
+    }
+
+    /** Hands a batch the database could not take to the outbox, which replays it later. */
+    private boolean defer(List<Fix> batch) {
+        try {
+            db.getOutbox().addFixes(batch);
+            deferred.addAndGet(batch.size());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to queue " + batch.size() + " location(s) offline: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Inserts fixes into locations and advances user_last_location, on the caller's connection and
+     * transaction. Shared with {@link IncidentTracker}, which commits its own progress alongside.
+     */
+    static void insert(Connection conn, List<Fix> batch) throws SQLException {
+        Map<Integer, Fix> newest = new LinkedHashMap<>();
+        for (Fix f : batch) newest.merge(f.userId, f, (a, b) -> b.recordedAt.before(a.recordedAt) ? a : b);
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL);
+             PreparedStatement last = conn.prepareStatement(LAST_SQL)) {
+            for (Fix f : batch) {
+                // locations.recorded_at has whole seconds and MySQL would round the millis itself; round them
+                // here instead, so hour_bucket is computed from the very value stored
+                long stored = Math.floorDiv(f.recordedAt.getTime() + 500, 1000) * 1000;
+                ps.setInt(5, GeoCells.hourBucket(stored));
+                ps.setLong(6, GeoCells.encode(f.lat, f.lon));
+                bind(ps, f, new Timestamp(stored));
+            }
+            ps.executeBatch();
+            for (Fix f : newest.values()) bind(last, f, f.recordedAt);
+            last.executeBatch();
+        }
+    }
+
+    private static void bind(PreparedStatement ps, Fix f, Timestamp recordedAt) throws SQLException {
+        ps.setInt(1, f.userId);
+        ps.setDouble(2, f.lat);
+        ps.setDouble(3, f.lon);
+        ps.setTimestamp(4, recordedAt);
+        ps.addBatch();
+    }
+
+    /** A queue entry; COALESCE swaps the fix inside instead of searching the queue. */
+    private static class Slot {
+        Fix fix;
+
+        Slot(Fix fix) {
+            this.fix = fix;
+        }
+    }
+
+    static class Fix {
+        final int userId;
+        final double lat;
+        final double lon;
+        final Timestamp recordedAt;
+
+        Fix(int userId, double lat, double lon, Timestamp recordedAt) {
+            this.userId = userId;
+            this.lat = lat;
+            this.lon = lon;
+            this.recordedAt = recordedAt;
+        }
+    }
+}
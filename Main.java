@@ -1,25 +1,12 @@
 import java.awt.*;
 import javax.swing.*;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import com.sun.net.httpserver.HttpServer;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpExchange;
-import java.net.InetSocketAddress;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.border.*;
 import java.awt.event.*;
 import java.util.HashMap;
+import java.io.File;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class Main extends JFrame {
     // Components
@@ -30,20 +17,37 @@ public class Main extends JFrame {
     private CardLayout cardLayout;
     private HashMap<String, JPanel> panels;
     private ContactManager contactManager;
-    private Database database;
+    private Storage storage;
+    private Database database; // null on the embedded backend, which has no history, nearby users or live tracking
     private UserManager userManager;
-    private UserManager.User currentUser;
+    private volatile UserManager.User currentUser;
     private JList<ContactModel> contactsList;
+    private JTextField contactSearchField;
+    private ContactTransfer contactTransfer; // the running contact import or export, if any
+    private JButton importContactsButton;
+    private JButton exportContactsButton;
+    private JButton cancelTransferButton;
+    private JProgressBar transferProgress;
+    private HistoryPanel historyPanel;
+
+    // SOS hot standby: payload is precomputed and the dispatch workers are already running
+    private final SosStandby sosStandby = new SosStandby();
+    private AppConfig appConfig;
+    private LocalGateway localGateway;
+    private DispatchEngine dispatchEngine;
+    private BatchLauncher batchLauncher;
+    private LocationService locationService;
+    private NearbyUsers nearbyUsers; // null with nearby.enabled=false
+    private IncidentTracker incidentTracker; // null if the ring file could not be opened
+    private JButton stopTrackingButton;
+    private final Desktop desktop = Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)
+            ? Desktop.getDesktop() : null;
     
 
     // Navigation items
-    private final String[] NAV_ITEMS = {"Emergency", "Contacts", "Profile", "Settings", "Help"};
-    private final String[] NAV_ICONS = {"🆘", "👥", "👤", "⚙️", "❓"};
+    private final String[] NAV_ITEMS = {"Emergency", "Contacts", "History", "Profile", "Settings", "Help"};
+    private final String[] NAV_ICONS = {"🆘", "👥", "🗺️", "👤", "⚙️", "❓"};
 
-    // Data
-    private double latitude = 0.0;
-    private double longitude = 0.0;
-    
     // Settings
     // Template: include user's full name when available. The app will append the location link after this text.
     private String defaultMessage = "Hello, EMERGENCY... I am <name>. I need help... My location:";
@@ -58,27 +62,57 @@ public class Main extends JFrame {
         panels = new HashMap<>();
         cardLayout = new CardLayout();
     try {
-        database = new Database("db.properties");
-        userManager = new UserManager(database);
-        currentUser = userManager.getCurrentSessionUser().orElse(null);
+        storage = Storage.open("db.properties");
+        database = storage instanceof MySqlStorage ? ((MySqlStorage) storage).getDatabase() : null;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Drain live-tracking fixes while the pool is still open
+            if (incidentTracker != null) {
+                incidentTracker.close();
+                System.out.println("Database " + incidentTracker.getStats());
+            }
+            storage.close();
+        }, "db-shutdown"));
+        userManager = new UserManager(storage);
+        appConfig = AppConfig.load("sos.properties");
+        if ("local".equalsIgnoreCase(appConfig.get("dispatch.gateway", ""))) {
+            try {
+                localGateway = new LocalGateway(appConfig.getInt("dispatch.gateway.port", 0));
+            } catch (java.io.IOException ioe) {
+                throw new RuntimeException("Could not start local SMS/e-mail gateway: " + ioe.getMessage(), ioe);
+            }
+        }
+        dispatchEngine = new DispatchEngine(Channels.fromConfig(appConfig, desktop, localGateway), appConfig);
+        batchLauncher = new BatchLauncher(desktop);
+        locationService = new LocationService(desktop, appConfig);
+        if (database != null) {
+            try {
+                incidentTracker = new IncidentTracker(database, appConfig);
+            } catch (java.io.IOException ioe) {
+                System.err.println("Live tracking during an SOS is unavailable: " + ioe.getMessage());
+            }
+        }
+        if (database != null && appConfig.getBoolean("nearby.enabled", true)) {
+            nearbyUsers = new NearbyUsers(database, appConfig);
+            nearbyUsers.start();
+        }
     } catch (RuntimeException ex) {
+        // Only setup problems end up here: an unreachable database is handled later by the outbox and the offline copies
         JOptionPane.showMessageDialog(null,
-                "Database not configured or unreachable.\n" +
+                "Database not configured.\n" +
                 ex.getMessage() + "\n\n" +
-                "Open db.properties in the project folder and set db.url, db.user, db.password,\n" +
+                "Open db.properties in the project folder and set db.url, db.user, db.password\n" +
+                "(or db.backend=embedded to run without a MySQL server;\n" +
+                "and check sos.properties if you created one),\n" +
                 "then run the app again.",
                 "Database Configuration Required",
                 JOptionPane.ERROR_MESSAGE);
         System.exit(1);
         return;
     }
-    // Instantiate contact manager lazily after we know the current user
-    if (currentUser != null) {
-        contactManager = new ContactManager(database, currentUser.email);
-    } else {
-        contactManager = new ContactManager(database, ""); // temporary, will be replaced after login
-    }
+    // Empty until the session is restored or the user logs in
+    contactManager = new ContactManager(storage, 0, appConfig, sosStandby);
     contactsList = new JList<>(contactManager.getContactsListModel());
+    refreshSosTemplate();
         
         // Set up the frame
     setTitle("Save Our Ship");
@@ -112,276 +146,334 @@ public class Main extends JFrame {
         // Create all content panels
         createEmergencyPanel();
         createContactsPanel();
+        createHistoryPanel();
         createSettingsPanel();
         createHelpPanel();
         createProfilePanel();
 
-        // If no session, show login/register dialog first
-        if (currentUser == null) {
-            showAuthDialog();
-        }
-
         // Show default panel
         cardLayout.show(contentPanel, "Emergency");
 
-    // Update location
-    updateLocation();
+    // Start the location service; it keeps the last known fix up to date from now on
+    locationService.subscribe(this::onLocationChanged);
+    locationService.start();
         
+        // Coming back to the window is a good moment to pick up contact changes made elsewhere
+        addWindowFocusListener(new WindowAdapter() {
+            @Override
+            public void windowGainedFocus(WindowEvent e) {
+                contactManager.syncNow();
+            }
+        });
+
         // Pack and center the frame
         pack();
         setLocationRelativeTo(null);
+
+        // Restore the saved session off the EDT; if there is none, show login/register
+        DbExecutor.supply(() -> userManager.getCurrentSessionUser().orElse(null))
+            .whenCompleteAsync((user, err) -> {
+                if (user != null) {
+                    signIn(user);
+                } else {
+                    if (err != null) System.err.println("Session restore failed: " + DbExecutor.rootCause(err).getMessage());
+                    showAuthDialog();
+                }
+            }, DbExecutor.EDT);
+    }
+
+    /** Makes the given user current and loads their contacts. Must be called on the EDT. */
+    private void signIn(UserManager.User user) {
+        currentUser = user;
+        contactManager.close();
+        contactManager = new ContactManager(storage, user.id, appConfig, sosStandby);
+        contactSearchField.setText("");
+        showContacts();
+        refreshSosTemplate();
+        updateProfilePanel();
+        if (historyPanel != null) historyPanel.setUser(user.id);
+        if (userManager.isOffline()) {
+            statusLabel.setText("Offline: changes are kept on this computer and sent when the database is back");
+        }
+    }
+
+    /** Shows the search results while the search field has text, otherwise every contact. Must be called on the EDT. */
+    private void showContacts() {
+        String text = contactSearchField.getText();
+        contactManager.search(text);
+        ListModel<ContactModel> model = text.trim().isEmpty() ? contactManager.getContactsListModel() : contactManager.getSearchModel();
+        if (contactsList.getModel() != model) contactsList.setModel(model);
+    }
+
+    /**
+     * Imports contacts from a CSV or vCard file chosen by the user (see {@link ContactTransfer}). It runs on
+     * {@link DbExecutor} with progress in the contacts panel; afterwards the list is reloaded and the rows that
+     * could not be imported are listed.
+     */
+    private void importContacts() {
+        UserManager.User user = currentUser;
+        if (user == null || contactTransfer != null) return;
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import contacts");
+        chooser.setFileFilter(new FileNameExtensionFilter("CSV or vCard (*.csv, *.vcf)", "csv", "vcf", "vcard"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File source = chooser.getSelectedFile();
+        ContactManager manager = contactManager;
+        ContactTransfer running = startTransfer(user, "Importing...");
+        DbExecutor.supply(() -> running.importFrom(source.toPath(), soFar -> SwingUtilities.invokeLater(() ->
+                transferProgress.setString(String.format("%,d read, %,d added, %,d failed", soFar.read, soFar.added, soFar.failed)))))
+            .whenCompleteAsync((result, err) -> {
+                endTransfer();
+                // Even a failed import keeps the batches stored before the failure
+                if (manager == contactManager) manager.reload();
+                if (err != null) {
+                    JOptionPane.showMessageDialog(this, "Import failed:\n" + DbExecutor.rootCause(err).getMessage(),
+                            "Import", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                StringBuilder sb = new StringBuilder(result.cancelled ? "Import cancelled.\n" : "");
+                sb.append(String.format("Added %,d contact(s) from %s.%n", result.added, source.getName()));
+                if (result.duplicates > 0) sb.append(String.format("Skipped %,d number(s) already in your contacts.%n", result.duplicates));
+                if (result.failed > 0) {
+                    sb.append(String.format("%n%,d row(s) could not be imported:%n", result.failed));
+                    for (String e : result.errors) sb.append(e).append('\n');
+                    if (result.failed > result.errors.size()) sb.append(String.format("... and %,d more%n", result.failed - result.errors.size()));
+                }
+                JTextArea text = new JTextArea(sb.toString(), Math.min(20, sb.toString().split("\n").length + 1), 60);
+                text.setEditable(false);
+                JOptionPane.showMessageDialog(this, new JScrollPane(text), "Import",
+                        result.failed > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+            }, DbExecutor.EDT);
+    }
+
+    /** Exports every contact to a CSV or vCard file chosen by the user, like {@link #importContacts}. */
+    private void exportContacts() {
+        UserManager.User user = currentUser;
+        if (user == null || contactTransfer != null) return;
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export contacts");
+        chooser.setAcceptAllFileFilterUsed(false);
+        for (ContactTransfer.Format f : ContactTransfer.Format.values()) {
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter(f.description + " (*." + f.extension + ")", f.extension));
+        }
+        chooser.setSelectedFile(new File("contacts." + ContactTransfer.Format.CSV.extension));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        String ext = ((FileNameExtensionFilter) chooser.getFileFilter()).getExtensions()[0];
+        ContactTransfer.Format format = ext.equals(ContactTransfer.Format.VCARD.extension)
+                ? ContactTransfer.Format.VCARD : ContactTransfer.Format.CSV;
+        File file = chooser.getSelectedFile();
+        if (!file.getName().toLowerCase(java.util.Locale.ROOT).endsWith("." + ext)) file = new File(file.getPath() + "." + ext);
+        File target = file;
+        ContactTransfer running = startTransfer(user, "Exporting...");
+        DbExecutor.supply(() -> running.export(format, target.toPath(), soFar -> SwingUtilities.invokeLater(() ->
+                transferProgress.setString(String.format("%,d written", soFar.read)))))
+            .whenCompleteAsync((count, err) -> {
+                endTransfer();
+                if (err == null) {
+                    JOptionPane.showMessageDialog(this, String.format("Exported %,d contact(s) to%n%s", count, target.getPath()),
+                            "Export", JOptionPane.INFORMATION_MESSAGE);
+                } else if (!(DbExecutor.rootCause(err) instanceof java.io.InterruptedIOException)) {
+                    JOptionPane.showMessageDialog(this, "Export failed:\n" + DbExecutor.rootCause(err).getMessage(),
+                            "Export", JOptionPane.ERROR_MESSAGE);
+                }
+            }, DbExecutor.EDT);
+    }
+
+    /** Shows the progress bar for an import or export; only one runs at a time. */
+    private ContactTransfer startTransfer(UserManager.User user, String label) {
+        contactTransfer = new ContactTransfer(storage, user.id, appConfig.getInt("contacts.importBatch", 1000));
+        importContactsButton.setEnabled(false);
+        exportContactsButton.setEnabled(false);
+        transferProgress.setString(label);
+        transferProgress.setVisible(true);
+        cancelTransferButton.setVisible(true);
+        importContactsButton.getParent().revalidate();
+        return contactTransfer;
+    }
+
+    private void endTransfer() {
+        contactTransfer = null;
+        importContactsButton.setEnabled(true);
+        exportContactsButton.setEnabled(true);
+        transferProgress.setVisible(false);
+        cancelTransferButton.setVisible(false);
+        importContactsButton.getParent().revalidate();
+    }
+
+    /** Shows a status message if an async contact change failed (the list has already been rolled back). */
+    private void reportContactFailure(CompletableFuture<Void> op, String action) {
+        op.whenCompleteAsync((ok, err) -> {
+            if (err != null) {
+                statusLabel.setText("Could not " + action + " contact: " + DbExecutor.rootCause(err).getMessage());
+                JOptionPane.showMessageDialog(Main.this, "Could not " + action + " contact:\n" + DbExecutor.rootCause(err).getMessage(),
+                        "Contacts", JOptionPane.ERROR_MESSAGE);
+            }
+        }, DbExecutor.EDT);
     }
 
     private void sendSOS() {
         // Send SOS to all saved contacts via WhatsApp Web links
         try {
-            // Prepare message by replacing placeholder with user's full name if available
-            String template = defaultMessage;
-            if (currentUser != null && currentUser.fullName != null && !currentUser.fullName.isBlank()) {
-                template = template.replace("<name>", currentUser.fullName);
-            } else {
-                template = template.replace("<name>", "");
-            }
-            // Ensure we append the location URL after the template text
-            String message = template + " " + String.format("My location: https://www.google.com/maps?q=%f,%f", latitude, longitude);
-            DefaultListModel<ContactModel> model = contactManager.getContactsListModel();
-            if (model.getSize() == 0) {
+            long pressedAt = System.nanoTime();
+            // Message, normalized numbers and URIs are precomputed by the standby engine
+            SosStandby.Snapshot payload = sosStandby.getSnapshot();
+            if (payload.contacts.isEmpty()) {
                 statusLabel.setText("No saved contacts to send SOS to");
                 return;
             }
 
-            final Desktop desktop;
-            if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
-                desktop = Desktop.getDesktop();
-            } else {
-                desktop = null;
-            }
-
             // Show confirmation dialog
-            int contactCount = model.getSize();
+            int contactCount = payload.contacts.size();
+            LocationFix fix = locationService.getLastFix();
+            String locationLine = fix == null
+                ? "\n\nWarning: your location is not known yet; the message will not contain a usable location."
+                : "\n\nLocation: " + fix.describe() + (fix.isStale(10 * 60_000L) ? " (may be out of date)" : "");
+            // In-memory lookup, fast enough for the EDT
+            java.util.List<NearbyIndex.Neighbor> nearby = fix == null || nearbyUsers == null || currentUser == null
+                ? java.util.Collections.emptyList()
+                : nearbyUsers.nearest(fix.latitude, fix.longitude, currentUser.id);
+            if (!nearby.isEmpty()) {
+                locationLine += String.format(java.util.Locale.ROOT, "\n%d app user(s) within %.1f km who share their location will also be alerted.",
+                    nearby.size(), nearbyUsers.getRadiusKm());
+            }
+            boolean batch = useBatchMode(contactCount);
+            long dialogShownAt = System.nanoTime();
             int confirm = JOptionPane.showConfirmDialog(
                 this,
-                "This will open " + contactCount + " WhatsApp tab(s).\nYou will need to manually click 'Send' for each contact.\n\nContinue?",
+                batch
+                    ? "This will open one page listing " + contactCount + " contact(s).\nOpen each contact from that page and click 'Send' in WhatsApp." + locationLine + "\n\nContinue?"
+                    : "This will send an SOS to " + contactCount + " contact(s).\nWhatsApp opens one tab per contact; you will need to manually click 'Send' in each." + locationLine + "\n\nContinue?",
                 "Send Emergency SOS",
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.WARNING_MESSAGE
             );
-            
+            // Don't count the time the user spends reading the dialog
+            long startedAt = pressedAt + (System.nanoTime() - dialogShownAt);
+
             if (confirm != JOptionPane.YES_OPTION) {
                 statusLabel.setText("SOS cancelled");
                 return;
             }
 
-            statusLabel.setText("Opening WhatsApp for " + contactCount + " contact(s)...");
-            
-            // Open WhatsApp tabs with delay for better browser handling
-            new Thread(() -> {
-                java.util.List<String> invalidNumbers = new java.util.ArrayList<>();
-                int opened = 0;
-                for (int i = 0; i < model.getSize(); i++) {
-                    ContactModel cm = model.getElementAt(i);
-                    String rawPhone = cm.getPhoneNumber().trim();
-                    if (rawPhone.isEmpty()) continue;
-
-                    String normalized = normalizePhone(rawPhone);
-                    if (normalized == null) {
-                        invalidNumbers.add(cm.getName() + " (" + rawPhone + ")");
-                        continue;
-                    }
-
-                    try {
-                        String encoded = URLEncoder.encode(message, "UTF-8");
-                        boolean openedThis = false;
-                        // First try whatsapp protocol (WhatsApp Desktop)
-                        try {
-                            String desktopUri = "whatsapp://send?phone=" + normalized + "&text=" + encoded;
-                            if (desktop != null) {
-                                desktop.browse(new URI(desktopUri));
-                                openedThis = true;
-                            }
-                        } catch (Exception ex1) {
-                            // If on Windows, try shell start as another fallback (may open registered app)
-                            try {
-                                String os = System.getProperty("os.name").toLowerCase();
-                                if (os.contains("win")) {
-                                    String cmd = "cmd /c start \"\" \"whatsapp://send?phone=" + normalized + "&text=" + encoded + "\"";
-                                    Runtime.getRuntime().exec(cmd);
-                                    openedThis = true;
-                                }
-                            } catch (Exception ex2) {
-                                // ignore and fall back to web
-                            }
-                        }
+            if (!nearby.isEmpty()) alertNearby(nearby);
+            if (incidentTracker != null && currentUser != null) incidentTracker.start(currentUser.id, locationService);
 
-                        // Final fallback to web.whatsapp.com
-                        if (!openedThis) {
-                            try {
-                                String webUri = "https://web.whatsapp.com/send?phone=" + normalized + "&text=" + encoded;
-                                if (desktop != null) {
-                                    desktop.browse(new URI(webUri));
-                                    openedThis = true;
-                                }
-                            } catch (Exception ex3) {
-                                // failed
-                                openedThis = false;
-                            }
-                        }
+            if (batch) {
+                sendSOSBatch(payload, startedAt);
+                return;
+            }
 
-                        if (openedThis) {
-                            opened++;
-                            if (i < model.getSize() - 1) Thread.sleep(900);
-                        } else {
-                            invalidNumbers.add(cm.getName() + " (" + rawPhone + ") - couldn't open");
-                        }
+            statusLabel.setText("Sending SOS to " + contactCount + " contact(s)...");
 
-                    } catch (Exception ex) {
-                        invalidNumbers.add(cm.getName() + " (" + rawPhone + ") - couldn't open");
-                    }
+            // Fan out to all contacts; each contact falls back through the channel chain
+            AtomicBoolean firstLaunch = new AtomicBoolean(true);
+            dispatchEngine.dispatch(payload, outcome -> {
+                if (outcome.sent && firstLaunch.compareAndSet(true, false)) {
+                    sosStandby.getPressToFirstLaunch().recordNanos(System.nanoTime() - startedAt);
+                }
+            }).whenCompleteAsync((outcomes, err) -> {
+                if (err != null) {
+                    statusLabel.setText("Error sending SOS: " + DbExecutor.rootCause(err).getMessage());
+                    return;
+                }
+                System.out.println(sosStandby.getPressToFirstLaunch());
+                java.util.List<String> invalidNumbers = new java.util.ArrayList<>();
+                int sentCount = 0;
+                for (DispatchEngine.Outcome o : outcomes) {
+                    String who = o.contact.contact.getName() + " (" + o.contact.rawPhone + ")";
+                    if (o.sent) sentCount++;
+                    else if (!o.contact.isValid()) invalidNumbers.add(who);
+                    else invalidNumbers.add(who + " - couldn't send (" + o.error + ")");
                 }
 
-                final int sentCount = opened;
-                SwingUtilities.invokeLater(() -> {
-                    String statusMsg = "Opened WhatsApp tabs for " + sentCount + " contact(s).";
-                    if (!invalidNumbers.isEmpty()) {
-                        statusMsg += " Skipped " + invalidNumbers.size() + " invalid/failed contact(s).";
-                    }
-                    statusLabel.setText(statusMsg + " Click Send in each tab!");
-
-                    if (!invalidNumbers.isEmpty()) {
-                        // Show details and guidance to fix phone numbers
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("The following contacts have invalid or problematic numbers:\n\n");
-                        for (String s : invalidNumbers) sb.append("- ").append(s).append("\n");
-                        sb.append("\nPlease edit these contacts and ensure phone numbers include the country code and only digits (e.g., 919876543210).\n");
-                        JOptionPane.showMessageDialog(Main.this, sb.toString(), "Invalid Contacts", JOptionPane.WARNING_MESSAGE);
-                    }
-                });
-            }).start();
+                String statusMsg = "Sent SOS to " + sentCount + " contact(s).";
+                if (!invalidNumbers.isEmpty()) {
+                    statusMsg += " Skipped " + invalidNumbers.size() + " invalid/failed contact(s).";
+                }
+                statusLabel.setText(statusMsg + " Click Send in each WhatsApp tab!");
+
+                if (!invalidNumbers.isEmpty()) {
+                    // Show details and guidance to fix phone numbers
+                    StringBuilder sb = new StringBuilder();
+                    sb.append("The following contacts have invalid or problematic numbers:\n\n");
+                    for (String s : invalidNumbers) sb.append("- ").append(s).append("\n");
+                    sb.append("\nPlease edit these contacts and ensure phone numbers include the country code and only digits (e.g., 919876543210).\n");
+                    JOptionPane.showMessageDialog(Main.this, sb.toString(), "Invalid Contacts", JOptionPane.WARNING_MESSAGE);
+                }
+            }, DbExecutor.EDT);
             
         } catch (Exception e) {
             statusLabel.setText("Error sending SOS: " + e.getMessage());
             e.printStackTrace();
         }
     }
-    
-    private void updateLocation() {
-        new Thread(() -> {
-            try {
-                // First try browser/device geolocation (asks user permission in the browser)
-                boolean got = tryBrowserGeolocation();
-                if (!got) {
-                    // Fallback to IP-based geolocation
-                    URL url = URI.create("http://ip-api.com/json/").toURL();
-                    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                    reader.close();
-
-                    String jsonResponse = response.toString();
-                    String[] parts = jsonResponse.split(",");
-                    for (String part : parts) {
-                        if (part.contains("\"lat\":")) {
-                            latitude = Double.parseDouble(part.split(":")[1].trim());
-                        } else if (part.contains("\"lon\":")) {
-                            longitude = Double.parseDouble(part.split(":")[1].trim());
-                        }
-                    }
-                }
 
-                if (autoLocation && currentUser != null) {
-                    database.saveLocation(currentUser.email, latitude, longitude);
+    /** Sends the SOS to opted-in users near the fix; their contact details are looked up off the EDT. */
+    private void alertNearby(java.util.List<NearbyIndex.Neighbor> nearby) {
+        DbExecutor.supplyUrgent(() -> nearbyUsers.contactsFor(nearby))
+            .thenCompose(contacts -> dispatchEngine.dispatch(sosStandby.snapshotFor(contacts), outcome -> { }))
+            .whenCompleteAsync((outcomes, err) -> {
+                if (err != null) {
+                    System.err.println("Could not alert nearby users: " + DbExecutor.rootCause(err).getMessage());
+                    return;
                 }
-            } catch (Exception e) {
-                SwingUtilities.invokeLater(() -> statusLabel.setText("Could not get location"));
-            }
-        }).start();
+                long sent = outcomes.stream().filter(o -> o.sent).count();
+                if (sent > 0) statusLabel.setText(statusLabel.getText() + " Alerted " + sent + " nearby user(s).");
+            }, DbExecutor.EDT);
     }
 
-    /**
-     * Launches a tiny local HTTP server and serves a page that requests navigator.geolocation
-     * If the user allows, the page POSTs coordinates back to /coords which this method waits for.
-     * Returns true if coordinates were obtained and set into latitude/longitude.
-     */
-    private boolean tryBrowserGeolocation() {
-        if (!Desktop.isDesktopSupported()) return false;
+    /** dispatch.batch=always|never|auto; auto uses the single-page launcher above dispatch.batch.threshold contacts. */
+    private boolean useBatchMode(int contactCount) {
+        String mode = appConfig.get("dispatch.batch", "auto");
+        if (mode.equalsIgnoreCase("always")) return true;
+        if (mode.equalsIgnoreCase("never")) return false;
+        return desktop != null && contactCount > appConfig.getInt("dispatch.batch.threshold", 5);
+    }
 
-        try {
-            HttpServer server = HttpServer.create(new InetSocketAddress(0), 0);
-            final double[] coords = new double[2];
-            final CountDownLatch latch = new CountDownLatch(1);
-
-            // Handler for root: serves HTML + JS that requests geolocation and posts to /coords
-            server.createContext("/", exchange -> {
-                String page = "<!doctype html><html><head><meta charset=\"utf-8\"><title>Share location</title></head><body>"
-                    + "<h3>Please allow location access in the browser to share your location with the app.</h3>"
-                    + "<script>function postCoords(lat,lon){fetch('/coords',{method:'POST',headers:{'Content-Type':'application/json'},body:JSON.stringify({lat:lat,lon:lon})}).then(()=>{document.body.innerHTML='<p>Location sent. You can close this tab.</p>';}).catch(()=>{document.body.innerHTML='<p>Failed to send.</p>';});}"
-                    + "if(navigator.geolocation){navigator.geolocation.getCurrentPosition(function(p){postCoords(p.coords.latitude,p.coords.longitude);},function(e){document.body.innerHTML='<p>Permission denied or unavailable.</p>';});}else{document.body.innerHTML='<p>Geolocation not supported.</p>';}</script></body></html>";
-                byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
-                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
-                exchange.sendResponseHeaders(200, bytes.length);
-                try (OutputStream os = exchange.getResponseBody()) { os.write(bytes); }
-            });
-
-            // Handler to receive coords
-            server.createContext("/coords", exchange -> {
-                if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-                    exchange.sendResponseHeaders(405, -1);
+    /** Opens one local page with every contact's send links instead of launching one tab per contact. */
+    private void sendSOSBatch(SosStandby.Snapshot payload, long startedAt) {
+        statusLabel.setText("Opening SOS page for " + payload.contacts.size() + " contact(s)...");
+        DbExecutor.runUrgent(() -> batchLauncher.launch(payload, (index, state, opened, sent, total) ->
+                SwingUtilities.invokeLater(() ->
+                    statusLabel.setText("SOS page: " + opened + " of " + total + " contact(s) opened, " + sent + " marked sent"))))
+            .whenCompleteAsync((ok, err) -> {
+                if (err != null) {
+                    statusLabel.setText("Could not open SOS page: " + DbExecutor.rootCause(err).getMessage());
                     return;
                 }
-                String body;
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
-                    body = br.lines().collect(Collectors.joining("\n"));
+                sosStandby.getPressToFirstLaunch().recordNanos(System.nanoTime() - startedAt);
+                java.util.List<String> invalidNumbers = new java.util.ArrayList<>();
+                for (SosStandby.PreparedContact pc : payload.contacts) {
+                    if (!pc.isValid()) invalidNumbers.add(pc.contact.getName() + " (" + pc.rawPhone + ")");
                 }
-                // simple parse
-                try {
-                    String s = body.replaceAll("[{}\" ]", "");
-                    String[] parts = s.split(",");
-                    double lat = Double.NaN, lon = Double.NaN;
-                    for (String p : parts) {
-                        if (p.startsWith("lat:")) lat = Double.parseDouble(p.substring(4));
-                        if (p.startsWith("lon:")) lon = Double.parseDouble(p.substring(4));
-                    }
-                    if (!Double.isNaN(lat) && !Double.isNaN(lon)) {
-                        coords[0] = lat; coords[1] = lon;
-                        latch.countDown();
-                    }
-                } catch (Exception ex) {
-                    // ignore
+                statusLabel.setText("SOS page opened in your browser. Open each contact there and click Send!");
+                if (!invalidNumbers.isEmpty()) {
+                    StringBuilder sb = new StringBuilder();
+                    sb.append("The following contacts have invalid or problematic numbers:\n\n");
+                    for (String s : invalidNumbers) sb.append("- ").append(s).append("\n");
+                    sb.append("\nPlease edit these contacts and ensure phone numbers include the country code and only digits (e.g., 919876543210).\n");
+                    JOptionPane.showMessageDialog(Main.this, sb.toString(), "Invalid Contacts", JOptionPane.WARNING_MESSAGE);
                 }
-                String resp = "OK";
-                byte[] rb = resp.getBytes(StandardCharsets.UTF_8);
-                exchange.sendResponseHeaders(200, rb.length);
-                try (OutputStream os = exchange.getResponseBody()) { os.write(rb); }
-            });
-
-            server.setExecutor(Executors.newCachedThreadPool());
-            server.start();
-
-            int port = server.getAddress().getPort();
-            String url = "http://localhost:" + port + "/";
-
-            // Open browser to request permission
-            Desktop.getDesktop().browse(new URI(url));
-
-            // Wait up to 20 seconds for user to allow and for page to POST coords
-            boolean ok = latch.await(20, TimeUnit.SECONDS);
-            if (ok) {
-                latitude = coords[0];
-                longitude = coords[1];
-            }
+            }, DbExecutor.EDT);
+    }
 
-            server.stop(0);
-            return ok;
-        } catch (Exception e) {
-            return false;
+    /** Called by the location service (on its own thread) whenever the position changes. */
+    private void onLocationChanged(LocationFix fix) {
+        sosStandby.setLocation(fix.latitude, fix.longitude);
+        UserManager.User user = currentUser;
+        // During an SOS the incident tracker records every fix; don't store them twice
+        if (autoLocation && user != null && fix.isMeasured() && (incidentTracker == null || !incidentTracker.isActive())) {
+            storage.saveLocation(user.id, fix.latitude, fix.longitude);
         }
     }
 
+    /** Fills the {@code <name>} placeholder and hands the template to the standby engine. */
+    private void refreshSosTemplate() {
+        UserManager.User user = currentUser;
+        String name = user != null && user.fullName != null && !user.fullName.isBlank() ? user.fullName : "";
+        sosStandby.setTemplate(defaultMessage.replace("<name>", name));
+    }
+
     // Circular button implementation
     private static class CircularButton extends JButton {
         public CircularButton(String text) {
@@ -526,8 +618,28 @@ public class Main extends JFrame {
         statusLabel.setFont(getAppFont(Font.PLAIN, 14f));
         statusLabel.setForeground(new Color(100, 100, 100));
         
+        // Shown while live tracking runs after an SOS
+        stopTrackingButton = new JButton("I'm safe - stop live tracking");
+        stopTrackingButton.setFont(getAppFont(Font.PLAIN, 13f));
+        stopTrackingButton.setFocusPainted(false);
+        stopTrackingButton.setVisible(false);
+        stopTrackingButton.addActionListener(e -> incidentTracker.stop());
+        if (incidentTracker != null) {
+            incidentTracker.setListener(active -> SwingUtilities.invokeLater(() -> {
+                stopTrackingButton.setVisible(active);
+                if (!active) statusLabel.setText("Live tracking stopped");
+            }));
+        }
+        JPanel south = new JPanel(new BorderLayout(0, 8));
+        south.setOpaque(false);
+        south.add(statusLabel, BorderLayout.CENTER);
+        JPanel trackingRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 0, 0));
+        trackingRow.setOpaque(false);
+        trackingRow.add(stopTrackingButton);
+        south.add(trackingRow, BorderLayout.SOUTH);
+
         panel.add(centerPanel, BorderLayout.CENTER);
-        panel.add(statusLabel, BorderLayout.SOUTH);
+        panel.add(south, BorderLayout.SOUTH);
         
         panels.put("Emergency", panel);
         contentPanel.add(panel, "Emergency");
@@ -589,6 +701,8 @@ public class Main extends JFrame {
             }
         });
         contactsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Fixed row size, so the list never measures (and with that loads) every contact
+        contactsList.setPrototypeCellValue(new ContactModel("Prototype Contact Name", "+00 00000 00000"));
 
         // Mouse listener for Edit/Delete
         contactsList.addMouseListener(new MouseAdapter() {
@@ -596,7 +710,8 @@ public class Main extends JFrame {
             public void mouseClicked(MouseEvent e) {
                 int index = contactsList.locationToIndex(e.getPoint());
                 if (index != -1) {
-                    ContactModel cm = contactManager.getContactsListModel().getElementAt(index);
+                    ContactModel cm = contactsList.getModel().getElementAt(index);
+                    if (cm == ContactListModel.LOADING) return;
                     Rectangle bounds = contactsList.getCellBounds(index, index);
                     int btnWidth = 90; // ~width for "EditDelete"
                     int editWidth = 40; // ~width for "Edit"
@@ -608,7 +723,7 @@ public class Main extends JFrame {
                         // Delete button clicked
                         int confirm = JOptionPane.showConfirmDialog(Main.this, "Delete this contact?", "Confirm Delete", JOptionPane.YES_NO_OPTION);
                         if (confirm == JOptionPane.YES_OPTION) {
-                            contactManager.deleteContact(cm);
+                            reportContactFailure(contactManager.deleteContact(cm), "delete");
                         }
                     } else {
                         // Non-button click: navigate to Emergency panel
@@ -621,6 +736,43 @@ public class Main extends JFrame {
 
         JScrollPane scrollPane = new JScrollPane(contactsList);
         scrollPane.setBorder(BorderFactory.createLineBorder(AppStyles.ACCENT_COLOR));
+        // The model loads contacts a page at a time; tell it what is on screen
+        scrollPane.getViewport().addChangeListener(e -> {
+            if (contactsList.getModel() == contactManager.getContactsListModel()) {
+                contactManager.getContactsListModel().prefetch(contactsList.getFirstVisibleIndex(), contactsList.getLastVisibleIndex());
+            }
+        });
+
+        // Search: filters the list on every keystroke (by name, or by the start or end of the number)
+        contactSearchField = new JTextField(18);
+        contactSearchField.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        contactSearchField.setToolTipText("Name, or the first or last digits of the number");
+        contactSearchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override public void insertUpdate(javax.swing.event.DocumentEvent e) { showContacts(); }
+            @Override public void removeUpdate(javax.swing.event.DocumentEvent e) { showContacts(); }
+            @Override public void changedUpdate(javax.swing.event.DocumentEvent e) { showContacts(); }
+        });
+        buttonsPanel.add(new JLabel("Search:"));
+        buttonsPanel.add(contactSearchField);
+
+        // Bulk import and export; progress shows beside the buttons while one runs
+        transferProgress = new JProgressBar();
+        transferProgress.setIndeterminate(true);
+        transferProgress.setStringPainted(true);
+        transferProgress.setVisible(false);
+        cancelTransferButton = new JButton("Cancel");
+        cancelTransferButton.setVisible(false);
+        cancelTransferButton.addActionListener(e -> {
+            if (contactTransfer != null) contactTransfer.cancel();
+        });
+        importContactsButton = new JButton("Import...");
+        importContactsButton.addActionListener(e -> importContacts());
+        exportContactsButton = new JButton("Export...");
+        exportContactsButton.addActionListener(e -> exportContacts());
+        buttonsPanel.add(transferProgress);
+        buttonsPanel.add(cancelTransferButton);
+        buttonsPanel.add(importContactsButton);
+        buttonsPanel.add(exportContactsButton);
 
         // Add Contact Panel
         JPanel addContactPanel = new JPanel(new GridBagLayout());
@@ -669,7 +821,7 @@ public class Main extends JFrame {
                 String name = nameField.getText().trim();
                 String phone = phoneField.getText().trim();
                 if (!name.isEmpty() && !phone.isEmpty()) {
-                    contactManager.addContact(name, phone);
+                    reportContactFailure(contactManager.addContact(name, phone), "add");
                     nameField.setText("");
                     phoneField.setText("");
                 }
@@ -696,6 +848,22 @@ public class Main extends JFrame {
         contentPanel.add(panel, "Contacts");
     }
 
+    private void createHistoryPanel() {
+        if (database == null) {
+            JPanel placeholder = new JPanel(new BorderLayout());
+            placeholder.setBackground(AppStyles.BACKGROUND_COLOR);
+            JLabel note = new JLabel("Location history needs the MySQL backend (db.backend=mysql).", SwingConstants.CENTER);
+            note.setForeground(AppStyles.SECONDARY_TEXT_COLOR);
+            placeholder.add(note, BorderLayout.CENTER);
+            panels.put("History", placeholder);
+            contentPanel.add(placeholder, "History");
+            return;
+        }
+        historyPanel = new HistoryPanel(new LocationHistory(database), desktop);
+        panels.put("History", historyPanel);
+        contentPanel.add(historyPanel, "History");
+    }
+
     private void showEditContactDialog(ContactModel contact) {
         JTextField nameField = new JTextField(contact.getName(), 15);
         JTextField phoneField = new JTextField(contact.getPhoneNumber(), 15);
@@ -713,7 +881,7 @@ public class Main extends JFrame {
             String newName = nameField.getText().trim();
             String newPhone = phoneField.getText().trim();
             if (!newName.isEmpty() && !newPhone.isEmpty()) {
-                contactManager.editContact(contact, newName, newPhone);
+                reportContactFailure(contactManager.editContact(contact, newName, newPhone), "edit");
             }
         }
     }
@@ -809,6 +977,7 @@ public class Main extends JFrame {
         saveButton.addActionListener(e -> {
             defaultMessage = messageField.getText();
             autoLocation = locationCheck.isSelected();
+            refreshSosTemplate();
             JOptionPane.showMessageDialog(Main.this, "Settings saved successfully!", "Settings", JOptionPane.INFORMATION_MESSAGE);
         });
 
@@ -921,11 +1090,16 @@ public class Main extends JFrame {
         ));
         logoutBtn.addActionListener(e -> {
             // Clear session and return to auth dialog
-            userManager.clearSession();
+            DbExecutor.run(userManager::clearSession);
             currentUser = null;
+            if (incidentTracker != null) incidentTracker.stop();
             // Reset contact manager to an empty model until login
-            contactManager = new ContactManager(database, "");
-            contactsList.setModel(contactManager.getContactsListModel());
+            contactManager.close();
+            contactManager = new ContactManager(storage, 0, appConfig, sosStandby);
+            contactSearchField.setText("");
+            showContacts();
+            refreshSosTemplate();
+            if (historyPanel != null) historyPanel.setUser(0);
             showAuthDialog();
         });
 
@@ -1028,17 +1202,21 @@ public class Main extends JFrame {
         loginBtn.addActionListener(e -> {
             String email = emailField.getText().trim();
             String pass = new String(passField.getPassword());
-            if (userManager.login(email, pass)) {
-                currentUser = userManager.getUser(email);
-                contactManager = new ContactManager(database, currentUser.email);
-                contactsList.setModel(contactManager.getContactsListModel());
-                updateProfilePanel();
-                dlg.dispose();
-            } else {
-                String detail = userManager.getLastError();
-                if (detail == null || detail.isBlank()) detail = "Invalid credentials.";
-                JOptionPane.showMessageDialog(Main.this, "Login failed: " + detail, "Login failed", JOptionPane.ERROR_MESSAGE);
-            }
+            loginBtn.setEnabled(false);
+            backBtn.setEnabled(false);
+            DbExecutor.supply(() -> userManager.login(email, pass))
+                .whenCompleteAsync((user, err) -> {
+                    loginBtn.setEnabled(true);
+                    backBtn.setEnabled(true);
+                    if (user != null) {
+                        signIn(user);
+                        dlg.dispose();
+                    } else {
+                        String detail = err != null ? DbExecutor.rootCause(err).getMessage() : userManager.getLastError();
+                        if (detail == null || detail.isBlank()) detail = "Invalid credentials.";
+                        JOptionPane.showMessageDialog(Main.this, "Login failed: " + detail, "Login failed", JOptionPane.ERROR_MESSAGE);
+                    }
+                }, DbExecutor.EDT);
         });
 
         dlg.setContentPane(p);
@@ -1122,26 +1300,34 @@ public class Main extends JFrame {
                 JOptionPane.showMessageDialog(Main.this, "Please fill all fields", "Missing data", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            // Check if email already exists to provide clear feedback
-            UserManager.User existing = userManager.getUser(email);
-            if (existing != null) {
-                JOptionPane.showMessageDialog(Main.this, "This email is already registered. Please login or use another email.", "Email in use", JOptionPane.WARNING_MESSAGE);
-                return;
-            }
             UserManager.User u = new UserManager.User(fullName, idT, idN, email, phone, pass);
-            boolean ok = userManager.register(u);
-            if (!ok) {
-                String detail = userManager.getLastError();
-                if (detail == null || detail.isBlank()) detail = "Please try a different email or check your database connection.";
-                JOptionPane.showMessageDialog(Main.this, "Registration failed: " + detail, "Register failed", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-            currentUser = u;
-            autoLocation = allowLoc.isSelected();
-            contactManager = new ContactManager(database, currentUser.email);
-            contactsList.setModel(contactManager.getContactsListModel());
-            updateProfilePanel();
-            dlg.dispose();
+            registerBtn.setEnabled(false);
+            backBtn.setEnabled(false);
+            AtomicBoolean emailInUse = new AtomicBoolean(false);
+            DbExecutor.supply(() -> {
+                // Check if email already exists to provide clear feedback
+                if (userManager.getUser(email) != null) {
+                    emailInUse.set(true);
+                    return null;
+                }
+                return userManager.register(u);
+            }).whenCompleteAsync((saved, err) -> {
+                registerBtn.setEnabled(true);
+                backBtn.setEnabled(true);
+                if (emailInUse.get()) {
+                    JOptionPane.showMessageDialog(Main.this, "This email is already registered. Please login or use another email.", "Email in use", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                if (saved == null) {
+                    String detail = err != null ? DbExecutor.rootCause(err).getMessage() : userManager.getLastError();
+                    if (detail == null || detail.isBlank()) detail = "Please try a different email or check your database connection.";
+                    JOptionPane.showMessageDialog(Main.this, "Registration failed: " + detail, "Register failed", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                autoLocation = allowLoc.isSelected();
+                signIn(saved);
+                dlg.dispose();
+            }, DbExecutor.EDT);
         });
 
         dlg.setContentPane(p);
@@ -1171,24 +1357,6 @@ public class Main extends JFrame {
         return new Font("Segoe UI", style, (int)size);
     }
 
-    /**
-     * Normalize phone numbers by removing punctuation and ensuring country code present.
-     * Returns digits-only phone string suitable for WhatsApp URL (e.g. 919876543210)
-     * or null if invalid.
-     */
-    private String normalizePhone(String raw) {
-        if (raw == null) return null;
-        // Remove spaces, plus signs, parentheses, dashes
-        String digits = raw.replaceAll("[^0-9]", "");
-        if (digits.isEmpty()) return null;
-        // If number looks like local (10 digits) try to assume default country code? We should not guess.
-        // Require at least country code + number (minimum 11-12 digits depending on country). We'll accept 10-15 digits.
-        if (digits.length() < 10 || digits.length() > 15) return null;
-        // If length == 10, user likely omitted country code; return null to force user to fix
-        if (digits.length() == 10) return null;
-        return digits;
-    }
-    
     public static void main(String[] args) {
         javax.swing.SwingUtilities.invokeLater(() -> {
             new Main().setVisible(true);
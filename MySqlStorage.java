@@ -0,0 +1,504 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link Storage} on MySQL through a {@link Database}. While the server is unreachable, contact changes are
+ * queued in the {@link Outbox} and accounts and contact lists are read from the {@link LocalSnapshot}; the
+ * session is kept in session.txt.
+ */
+public class MySqlStorage implements Storage {
+    private static final String USER_SQL = "SELECT id, full_name, id_type, id_number, email, phone, password_hash FROM users WHERE email = ?";
+
+    /**
+     * How far each change poll reaches back before the watermark. updated_at is set when a row is written but
+     * only visible once its transaction commits, which can be later than a poll that already passed it.
+     */
+    private static final long CHANGE_OVERLAP_MS = 30_000;
+    /** More changes than this in one poll and a full reload is cheaper. */
+    private static final int MAX_CHANGES = 1_000;
+    /**
+     * How long tombstones are kept. A poll reaching back further might miss deletes whose tombstones are gone,
+     * so it asks for a reload instead.
+     */
+    private static final long TOMBSTONE_RETENTION_MS = 24 * 60 * 60 * 1000L;
+
+    private final Database db;
+    private final Path sessionFile = Paths.get("session.txt");
+    private volatile boolean offline = false;
+    // Set when contact changes go to the outbox; the next change poll after it drains asks for a reload
+    private volatile boolean contactsQueued;
+    private volatile boolean syncPaused = false;
+
+    public MySqlStorage(Database db) {
+        this.db = db;
+        this.contactsQueued = db.getOutbox().hasPending(); // left over from the last run
+    }
+
+    /** For the MySQL-only features (history, nearby users, live tracking). */
+    public Database getDatabase() {
+        return db;
+    }
+
+    /** Falls back to the offline copy of the account while the database is unreachable. */
+    @Override
+    public UserManager.User findUser(String email) throws SQLException {
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(USER_SQL)) {
+            ps.setString(1, email);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                UserManager.User user = new UserManager.User(rs.getInt(1), rs.getString(2), rs.getString(3),
+                        rs.getString(4), rs.getString(5), rs.getString(6), rs.getString(7));
+                db.getSnapshot().saveUser(user);
+                offline = false;
+                return user;
+            }
+        } catch (SQLException e) {
+            UserManager.User saved = Outbox.isOffline(e) ? db.getSnapshot().loadUser(email) : null;
+            if (saved == null) throw e;
+            System.err.println("Database unreachable, using the offline copy of " + email + ": " + e.getMessage());
+            offline = true;
+            return saved;
+        }
+    }
+
+    @Override
+    public UserManager.User insertUser(UserManager.User user, String passwordHash) throws SQLException {
+        String sql = "INSERT INTO users(full_name, id_type, id_number, email, phone, password_hash, allow_location) VALUES(?,?,?,?,?,?,1)";
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, user.fullName);
+            ps.setString(2, user.idType);
+            ps.setString(3, user.idNumber);
+            ps.setString(4, user.email);
+            ps.setString(5, user.phone);
+            ps.setString(6, passwordHash);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (!keys.next()) throw new SQLException("Registration did not return a user id.");
+                UserManager.User stored = new UserManager.User(keys.getInt(1), user.fullName, user.idType, user.idNumber,
+                        user.email, user.phone, passwordHash);
+                db.getSnapshot().saveUser(stored);
+                offline = false;
+                return stored;
+            }
+        }
+    }
+
+    /**
+     * Reads the list from the database, or from the snapshot while the database is unreachable or does not
+     * have the queued changes yet.
+     */
+    @Override
+    public List<ContactModel> loadContacts(int userId) throws SQLException {
+        List<ContactModel> saved = null;
+        if (db.getOutbox().hasPending() && (saved = db.getSnapshot().loadContacts(userId)) != null) return saved;
+        List<ContactModel> rows = new ArrayList<>();
+        String sql = "SELECT id, name, phone FROM contacts WHERE user_id = ? ORDER BY id DESC";
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new ContactModel(rs.getInt(1), rs.getString(2), rs.getString(3)));
+                }
+            }
+        } catch (SQLException e) {
+            if (!Outbox.isOffline(e) || (saved = db.getSnapshot().loadContacts(userId)) == null) throw e;
+            System.err.println("Database unreachable, showing the saved contacts: " + e.getMessage());
+            return saved;
+        }
+        return rows;
+    }
+
+    @Override
+    public int countContacts(int userId) throws SQLException {
+        List<ContactModel> saved = null;
+        if (db.getOutbox().hasPending() && (saved = db.getSnapshot().loadContacts(userId)) != null) return saved.size();
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM contacts WHERE user_id = ?")) {
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            if (!Outbox.isOffline(e) || (saved = db.getSnapshot().loadContacts(userId)) == null) throw e;
+            return saved.size();
+        }
+    }
+
+    /**
+     * Walks idx_contacts_user, which InnoDB keys on (user_id, id), from {@code afterId} down. Rows to skip are
+     * stepped over a page at a time with probes that read only the index, never the skipped rows themselves,
+     * so a page far from the anchor costs index entries rather than the rows in between. Like
+     * {@link #loadContacts} it pages the saved list instead while the database is unreachable or changes are
+     * queued.
+     */
+    @Override
+    public List<ContactModel> loadContactsPage(int userId, int afterId, int skip, int limit) throws SQLException {
+        List<ContactModel> saved = null;
+        if (db.getOutbox().hasPending() && (saved = db.getSnapshot().loadContacts(userId)) != null) {
+            return ContactListModel.slice(saved, afterId, skip, limit);
+        }
+        List<ContactModel> rows = new ArrayList<>(limit);
+        String probe = "SELECT id FROM contacts WHERE user_id = ? AND id < ? ORDER BY id DESC LIMIT 1 OFFSET ?";
+        String page = "SELECT id, name, phone FROM contacts WHERE user_id = ? AND id < ? ORDER BY id DESC LIMIT ?";
+        try (Connection conn = db.getConnection()) {
+            int anchor = afterId != 0 ? afterId : Integer.MAX_VALUE;
+            try (PreparedStatement ps = conn.prepareStatement(probe)) {
+                for (int left = skip; left > 0; ) {
+                    int step = Math.min(left, limit);
+                    ps.setInt(1, userId);
+                    ps.setInt(2, anchor);
+                    ps.setInt(3, step - 1);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) return rows; // the list ends before the page
+                        anchor = rs.getInt(1);
+                    }
+                    left -= step;
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(page)) {
+                ps.setInt(1, userId);
+                ps.setInt(2, anchor);
+                ps.setInt(3, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new ContactModel(rs.getInt(1), rs.getString(2), rs.getString(3)));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            if (!Outbox.isOffline(e) || (saved = db.getSnapshot().loadContacts(userId)) == null) throw e;
+            return ContactListModel.slice(saved, afterId, skip, limit);
+        }
+        return rows;
+    }
+
+    @Override
+    public int addContact(int userId, String name, String phone) throws SQLException {
+        // Should the insert reach the database but its answer be lost, the outbox replay finds the row by this
+        long clientRef = ThreadLocalRandom.current().nextLong();
+        int[] id = {0};
+        writeOrQueue(conn -> id[0] = insertOne(conn, userId, clientRef, name, phone),
+                () -> db.getOutbox().addContact(userId, clientRef, name, phone));
+        return id[0];
+    }
+
+    /** Inserts a contact under its client_ref and returns its id. Also used by the outbox replay. */
+    static int insertOne(Connection conn, int userId, long clientRef, String name, String phone) throws SQLException {
+        String sql = "INSERT INTO contacts(user_id, name, phone, client_ref) VALUES(?, ?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setInt(1, userId);
+            ps.setString(2, name);
+            ps.setString(3, phone);
+            ps.setLong(4, clientRef);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                return keys.next() ? keys.getInt(1) : 0;
+            }
+        }
+    }
+
+    /** The id of the contact added under {@code clientRef}, or 0. */
+    static int contactIdByRef(Connection conn, int userId, long clientRef) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM contacts WHERE user_id = ? AND client_ref = ?")) {
+            ps.setInt(1, userId);
+            ps.setLong(2, clientRef);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * One JDBC batch in one transaction; with rewriteBatchedStatements=true in db.url Connector/J sends it as
+     * multi-row INSERTs. Refused while changes wait in the outbox, so a batch never overtakes them.
+     */
+    @Override
+    public void addContacts(int userId, List<ContactModel> contacts) throws SQLException {
+        if (db.getOutbox().hasPending()) {
+            throw new SQLException("Changes made offline are still being saved; try again once they are", "08000");
+        }
+        String sql = "INSERT INTO contacts(user_id, name, phone) VALUES(?, ?, ?)";
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            try {
+                for (ContactModel c : contacts) {
+                    ps.setInt(1, userId);
+                    ps.setString(2, c.getName());
+                    ps.setString(3, c.getPhoneNumber());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void updateContact(int userId, ContactModel contact, String newName, String newPhone) throws SQLException {
+        writeOrQueue(conn -> updateOne(conn, userId, contact, newName, newPhone),
+                () -> db.getOutbox().editContact(userId, contact, newName, newPhone));
+    }
+
+    @Override
+    public void deleteContact(int userId, ContactModel contact) throws SQLException {
+        writeOrQueue(conn -> {
+            conn.setAutoCommit(false);
+            try {
+                deleteOne(conn, userId, contact);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }, () -> db.getOutbox().deleteContact(userId, contact));
+    }
+
+    /**
+     * Reads contacts.updated_at (kept by MySQL on every insert and update) and contact_tombstones (written
+     * by {@link #deleteOne}).
+     * <p>
+     * Sync pauses while changes are queued in the outbox: the list then shows the saved copy, in which
+     * contacts added offline have no id yet, so rows from the database could not be matched with them. No
+     * changes are reported and the watermark stays put. The first poll after the outbox drains returns
+     * {@code complete=false}, so the list is loaded again with the ids the replay gave those contacts and
+     * whatever changed elsewhere in the meantime.
+     */
+    @Override
+    public ContactSync.Changes contactChanges(int userId, long sinceMillis) throws SQLException {
+        List<ContactModel> changed = new ArrayList<>();
+        List<Long> changedMillis = new ArrayList<>();
+        List<Integer> deleted = new ArrayList<>();
+        List<Long> deletedMillis = new ArrayList<>();
+        if (db.getOutbox().hasPending()) {
+            contactsQueued = true;
+            if (!syncPaused) System.err.println("Contact sync paused until the changes made offline are saved");
+            syncPaused = true;
+            return new ContactSync.Changes(changed, changedMillis, deleted, deletedMillis, 0, sinceMillis, true);
+        }
+        try (Connection conn = db.getConnection()) {
+            long now;
+            try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT NOW(3)")) {
+                rs.next();
+                now = rs.getTimestamp(1).getTime();
+            }
+            if (syncPaused) System.err.println("Contact sync resumed");
+            syncPaused = false;
+            boolean reload = contactsQueued;
+            contactsQueued = false;
+            if (reload && sinceMillis != 0) {
+                return new ContactSync.Changes(changed, changedMillis, deleted, deletedMillis, 0, now, false);
+            }
+            if (sinceMillis == 0) {
+                purgeTombstones(conn, now); // once per login is plenty
+                return new ContactSync.Changes(changed, changedMillis, deleted, deletedMillis, 0, now, true);
+            }
+            Timestamp from = new Timestamp(sinceMillis - CHANGE_OVERLAP_MS);
+            if (from.getTime() < now - TOMBSTONE_RETENTION_MS) {
+                // E.g. a laptop waking up after two days: deletes from back then may be purged already
+                return new ContactSync.Changes(changed, changedMillis, deleted, deletedMillis, 0, now, false);
+            }
+            long latest = 0;
+            String sql = "SELECT id, name, phone, updated_at FROM contacts WHERE user_id = ? AND updated_at >= ? ORDER BY updated_at LIMIT ?";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, userId);
+                ps.setTimestamp(2, from);
+                ps.setInt(3, MAX_CHANGES + 1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        changed.add(new ContactModel(rs.getInt(1), rs.getString(2), rs.getString(3)));
+                        changedMillis.add(rs.getTimestamp(4).getTime());
+                        latest = Math.max(latest, rs.getTimestamp(4).getTime());
+                    }
+                }
+            }
+            sql = "SELECT contact_id, deleted_at FROM contact_tombstones WHERE user_id = ? AND deleted_at >= ? ORDER BY deleted_at LIMIT ?";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, userId);
+                ps.setTimestamp(2, from);
+                ps.setInt(3, MAX_CHANGES + 1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        deleted.add(rs.getInt(1));
+                        deletedMillis.add(rs.getTimestamp(2).getTime());
+                        latest = Math.max(latest, rs.getTimestamp(2).getTime());
+                    }
+                }
+            }
+            boolean complete = changed.size() <= MAX_CHANGES && deleted.size() <= MAX_CHANGES;
+            return new ContactSync.Changes(changed, changedMillis, deleted, deletedMillis, latest, now, complete);
+        }
+    }
+
+    /**
+     * Deletes tombstones, of every user, older than {@link #TOMBSTONE_RETENTION_MS} before {@code now}; a new
+     * login starts from a fresh list, and a poll reaching back further asks for one.
+     */
+    private static void purgeTombstones(Connection conn, long now) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM contact_tombstones WHERE deleted_at < ? LIMIT 1000")) {
+            ps.setTimestamp(1, new Timestamp(now - TOMBSTONE_RETENTION_MS));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Changes the one contact named by {@code contact} (see {@link Storage#updateContact}) and returns the
+     * number of rows changed. Also used by the outbox replay.
+     */
+    static int updateOne(Connection conn, int userId, ContactModel contact, String newName, String newPhone) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("UPDATE contacts SET name = ?, phone = ?" + whereOne(contact))) {
+            ps.setString(1, newName);
+            ps.setString(2, newPhone);
+            bindOne(ps, 3, userId, contact);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Deletes the one contact named by {@code contact}, leaves a tombstone for {@link #contactChanges} and
+     * returns the number of rows deleted. Run it in a transaction so the two go together.
+     */
+    static int deleteOne(Connection conn, int userId, ContactModel contact) throws SQLException {
+        int id = contact.getId();
+        if (id == 0) {
+            try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM contacts" + whereOne(contact) + " FOR UPDATE")) {
+                bindOne(ps, 1, userId, contact);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return 0;
+                    id = rs.getInt(1);
+                }
+            }
+        }
+        int n;
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM contacts WHERE id = ? AND user_id = ?")) {
+            ps.setInt(1, id);
+            ps.setInt(2, userId);
+            n = ps.executeUpdate();
+        }
+        if (n > 0) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO contact_tombstones(contact_id, user_id) VALUES(?, ?) ON DUPLICATE KEY UPDATE deleted_at = NOW(3)")) {
+                ps.setInt(1, id);
+                ps.setInt(2, userId);
+                ps.executeUpdate();
+            }
+        }
+        return n;
+    }
+
+    private static String whereOne(ContactModel contact) {
+        return contact.getId() != 0 ? " WHERE id = ? AND user_id = ?"
+                : " WHERE user_id = ? AND name = ? AND phone = ? ORDER BY id LIMIT 1";
+    }
+
+    private static void bindOne(PreparedStatement ps, int at, int userId, ContactModel contact) throws SQLException {
+        if (contact.getId() != 0) {
+            ps.setInt(at, contact.getId());
+            ps.setInt(at + 1, userId);
+        } else {
+            ps.setInt(at, userId);
+            ps.setString(at + 1, contact.getName());
+            ps.setString(at + 2, contact.getPhoneNumber());
+        }
+    }
+
+    @Override
+    public void cacheContacts(int userId, List<ContactModel> contacts) {
+        db.getSnapshot().saveContacts(userId, contacts);
+    }
+
+    private interface DirectWrite {
+        void run(Connection conn) throws SQLException;
+    }
+
+    private interface QueuedWrite {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs {@code direct} against the database; if it is unreachable, or earlier changes are still waiting in
+     * the outbox (this one must not overtake them), queues {@code queued} there instead.
+     */
+    private void writeOrQueue(DirectWrite direct, QueuedWrite queued) throws SQLException {
+        try {
+            if (db.getOutbox().hasPending()) {
+                queued.run();
+                contactsQueued = true; // after, so a poll in between sees the record pending
+                return;
+            }
+            try (Connection conn = db.getConnection()) {
+                direct.run(conn);
+            } catch (SQLException e) {
+                if (!Outbox.isOffline(e)) throw e;
+                queued.run();
+                contactsQueued = true;
+            }
+        } catch (IOException e) {
+            throw new SQLException("Could not save the change locally: " + e.getMessage(), "58030", e);
+        }
+    }
+
+    @Override
+    public void saveLocation(int userId, double lat, double lon) {
+        db.saveLocation(userId, lat, lon);
+    }
+
+    @Override
+    public List<LocationHistory.Row> findLocations(int userId, long fromMillis, long toMillis, int limit) throws SQLException {
+        return new LocationHistory(db).page(userId, new Timestamp(fromMillis), new Timestamp(toMillis), null, false, limit).rows;
+    }
+
+    @Override
+    public String loadSession() {
+        if (!Files.exists(sessionFile)) return null;
+        try {
+            String email = new String(Files.readAllBytes(sessionFile), StandardCharsets.UTF_8).trim();
+            return email.isEmpty() ? null : email;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void saveSession(String email) {
+        try {
+            Files.write(sessionFile, email.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException ex) {
+            System.err.println("Failed to save session: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void clearSession() {
+        try {
+            Files.deleteIfExists(sessionFile);
+        } catch (IOException ex) {
+            System.err.println("Failed to clear session: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isOffline() {
+        return offline;
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+}
@@ -0,0 +1,356 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory grid index of users' last known positions for "N nearest within R km" lookups.
+ * The world is cut into square cells of {@code cellDegrees}; a query scans rings of cells outward from the
+ * query cell and stops as soon as no unscanned cell can hold anything closer than the current N-th hit,
+ * so only the neighbourhood is touched no matter how many users are indexed. Positions live in parallel
+ * primitive arrays and both maps have primitive keys; NearbyIndexBench measures about 85 bytes per user, so
+ * 85 MB for a million.
+ * Thread-safe: lookups share a read lock, updates take the write lock briefly.
+ */
+public class NearbyIndex {
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private final double cellDegrees;
+    private final int lonCells;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Slot arrays: one slot per indexed user
+    private int size = 0;
+    private int[] userIds = new int[1024];
+    private double[] lats = new double[1024];
+    private double[] lons = new double[1024];
+    private long[] times = new long[1024];
+    private long[] cellOf = new long[1024];
+    private int[] posInCell = new int[1024];
+    private final IntIntMap slotOf = new IntIntMap();
+    private final CellMap cells = new CellMap();
+
+    public NearbyIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        this.lonCells = (int) Math.ceil(360 / cellDegrees);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Adds or moves a user. Older positions than the indexed one are ignored. */
+    public void put(int userId, double lat, double lon, long timeMillis) {
+        long cell = cellKey(lat, lon);
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf.get(userId);
+            if (slot < 0) {
+                slot = size++;
+                if (slot == userIds.length) grow();
+                userIds[slot] = userId;
+                slotOf.put(userId, slot);
+                cellOf[slot] = cell;
+                addToCell(cell, slot);
+            } else {
+                if (timeMillis < times[slot]) return;
+                if (cellOf[slot] != cell) {
+                    removeFromCell(slot);
+                    cellOf[slot] = cell;
+                    addToCell(cell, slot);
+                }
+            }
+            lats[slot] = lat;
+            lons[slot] = lon;
+            times[slot] = timeMillis;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int userId) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf.get(userId);
+            if (slot < 0) return;
+            removeFromCell(slot);
+            slotOf.remove(userId);
+            int last = --size;
+            if (slot != last) {
+                // Move the last slot into the hole and repoint its map entry and cell entry
+                userIds[slot] = userIds[last];
+                lats[slot] = lats[last];
+                lons[slot] = lons[last];
+                times[slot] = times[last];
+                cellOf[slot] = cellOf[last];
+                posInCell[slot] = posInCell[last];
+                cells.get(cellOf[slot]).slots[posInCell[slot]] = slot;
+                slotOf.put(userIds[slot], slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Up to {@code n} users within {@code radiusKm} of the point, nearest first, skipping
+     * {@code excludeUserId} and positions older than {@code maxAgeMillis} (0 = any age).
+     */
+    public List<Neighbor> nearest(double lat, double lon, int n, double radiusKm, long maxAgeMillis, int excludeUserId) {
+        long minTime = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        // Max-heap on distance holding the best n so far
+        PriorityQueue<Neighbor> best = new PriorityQueue<>((a, b) -> Double.compare(b.distanceKm, a.distanceKm));
+        int latIdx = latIndex(lat), lonIdx = lonIndex(lon);
+        // Narrowest cell side near the query (longitude shrinks with latitude); clamped so polar queries terminate
+        double cellKm = cellDegrees * KM_PER_DEGREE * Math.max(Math.cos(Math.toRadians(Math.min(Math.abs(lat) + cellDegrees, 85))), 0.05);
+        int maxRing = (int) Math.ceil(radiusKm / cellKm) + 1;
+        lock.readLock().lock();
+        try {
+            for (int ring = 0; ring <= maxRing; ring++) {
+                // Anything in this ring or beyond is at least (ring - 1) cells away
+                if (best.size() == n && best.peek().distanceKm <= (ring - 1) * cellKm) break;
+                for (int dy = -ring; dy <= ring; dy++) {
+                    int step = (dy == -ring || dy == ring) ? 1 : 2 * ring; // perimeter only
+                    for (int dx = -ring; dx <= ring; dx += Math.max(step, 1)) {
+                        Cell cell = cells.get(key(latIdx + dy, lonIdx + dx));
+                        if (cell == null) continue;
+                        for (int i = 0; i < cell.size; i++) {
+                            int slot = cell.slots[i];
+                            if (userIds[slot] == excludeUserId || times[slot] < minTime) continue;
+                            double d = distanceKm(lat, lon, lats[slot], lons[slot]);
+                            if (d > radiusKm) continue;
+                            if (best.size() < n) {
+                                best.add(new Neighbor(userIds[slot], lats[slot], lons[slot], times[slot], d));
+                            } else if (d < best.peek().distanceKm) {
+                                best.poll();
+                                best.add(new Neighbor(userIds[slot], lats[slot], lons[slot], times[slot], d));
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Neighbor> result = new ArrayList<>(best);
+        result.sort((a, b) -> Double.compare(a.distanceKm, b.distanceKm));
+        return result;
+    }
+
+    /** Great-circle (haversine) distance. */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1), dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private int latIndex(double lat) {
+        return (int) Math.floor((lat + 90) / cellDegrees);
+    }
+
+    private int lonIndex(double lon) {
+        return (int) Math.floor((lon + 180) / cellDegrees);
+    }
+
+    private long cellKey(double lat, double lon) {
+        return key(latIndex(lat), lonIndex(lon));
+    }
+
+    /** Longitude wraps around the antimeridian; latitude beyond the poles simply has no cells. */
+    private long key(int latIdx, int lonIdx) {
+        return (long) latIdx * lonCells + Math.floorMod(lonIdx, lonCells);
+    }
+
+    private void addToCell(long key, int slot) {
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+        }
+        if (cell.size == cell.slots.length) cell.slots = Arrays.copyOf(cell.slots, cell.size * 2);
+        posInCell[slot] = cell.size;
+        cell.slots[cell.size++] = slot;
+    }
+
+    private void removeFromCell(int slot) {
+        Cell cell = cells.get(cellOf[slot]);
+        int pos = posInCell[slot];
+        int moved = cell.slots[--cell.size];
+        cell.slots[pos] = moved;
+        posInCell[moved] = pos;
+        if (cell.size == 0) cells.remove(cellOf[slot]);
+    }
+
+    private void grow() {
+        int n = userIds.length * 2;
+        userIds = Arrays.copyOf(userIds, n);
+        lats = Arrays.copyOf(lats, n);
+        lons = Arrays.copyOf(lons, n);
+        times = Arrays.copyOf(times, n);
+        cellOf = Arrays.copyOf(cellOf, n);
+        posInCell = Arrays.copyOf(posInCell, n);
+    }
+
+    public static class Neighbor {
+        public final int userId;
+        public final double latitude;
+        public final double longitude;
+        public final long timeMillis;
+        public final double distanceKm;
+
+        Neighbor(int userId, double latitude, double longitude, long timeMillis, double distanceKm) {
+            this.userId = userId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.timeMillis = timeMillis;
+            this.distanceKm = distanceKm;
+        }
+    }
+
+    private static class Cell {
+        int[] slots = new int[4];
+        int size;
+    }
+
+    /** Open-addressing map from cell key to cell (null = absent); a HashMap would box every key. */
+    private static class CellMap {
+        private long[] keys = new long[1024];
+        private Cell[] values = new Cell[1024];
+        private int count = 0;
+
+        Cell get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] == null) return null;
+                if (keys[i] == key) return values[i];
+            }
+        }
+
+        void put(long key, Cell value) {
+            if ((count + 1) * 2 > keys.length) rehash(keys.length * 2);
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] == null) {
+                    keys[i] = key;
+                    values[i] = value;
+                    count++;
+                    return;
+                }
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+        }
+
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != key || values[i] == null) {
+                if (values[i] == null) return;
+                i = (i + 1) & mask;
+            }
+            values[i] = null;
+            count--;
+            // Re-insert the rest of the probe run so lookups past the hole still work
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                long k = keys[j];
+                Cell v = values[j];
+                values[j] = null;
+                count--;
+                put(k, v);
+            }
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            Cell[] oldValues = values;
+            keys = new long[capacity];
+            values = new Cell[capacity];
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) if (oldValues[i] != null) put(oldKeys[i], oldValues[i]);
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /** Open-addressing int to int map (-1 = absent), to avoid boxing a million entries. */
+    private static class IntIntMap {
+        private static final int FREE = Integer.MIN_VALUE;
+        private int[] keys = new int[2048];
+        private int[] values = new int[2048];
+        private int count = 0;
+
+        IntIntMap() {
+            Arrays.fill(keys, FREE);
+        }
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == FREE) return -1;
+                if (keys[i] == key) return values[i];
+            }
+        }
+
+        void put(int key, int value) {
+            if ((count + 1) * 2 > keys.length) rehash(keys.length * 2);
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == FREE) {
+                    keys[i] = key;
+                    values[i] = value;
+                    count++;
+                    return;
+                }
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != key) {
+                if (keys[i] == FREE) return;
+                i = (i + 1) & mask;
+            }
+            keys[i] = FREE;
+            count--;
+            // Re-insert the rest of the probe run so lookups past the hole still work
+            for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+                int k = keys[j], v = values[j];
+                keys[j] = FREE;
+                count--;
+                put(k, v);
+            }
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys, oldValues = values;
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, FREE);
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) if (oldKeys[i] != FREE) put(oldKeys[i], oldValues[i]);
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds opted-in users (users.allow_location = 1) near an SOS so they can be alerted too.
+ * Lookups hit an in-memory {@link NearbyIndex} and never touch the database. The index is built at startup
+ * from user_last_location (one row per user, kept current by the {@link LocationWriter}), refreshed every
+ * nearby.refreshMs from the rows changed since the last refresh, and rebuilt from scratch every
+ * nearby.rebuildMs so users who opted out or went quiet drop out.
+ */
+public class NearbyUsers {
+    private static final String ALL_SQL = "SELECT l.user_id, l.latitude, l.longitude, l.recorded_at FROM user_last_location l"
+            + " JOIN users u ON u.id = l.user_id WHERE u.allow_location = 1 AND l.recorded_at >= ?";
+    private static final String CHANGED_SQL = "SELECT l.user_id, l.latitude, l.longitude, l.recorded_at, u.allow_location"
+            + " FROM user_last_location l JOIN users u ON u.id = l.user_id WHERE l.recorded_at >= ?";
+    private static final String CONTACTS_SQL = "SELECT id, full_name, phone FROM users WHERE allow_location = 1 AND id IN ";
+    /**
+     * Fixes reach the table out of recorded_at order (write-behind batching, held-back track points), so each
+     * refresh re-reads this much before the newest time already seen. Re-applying a fix is harmless.
+     */
+    private static final long REFRESH_OVERLAP_MS = 5 * 60_000L;
+
+    private final Database db;
+    private final double cellDegrees;
+    private final double radiusKm;
+    private final int maxUsers;
+    private final long maxAgeMs;
+    private final long refreshMs;
+    private final long rebuildMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "nearby-users");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Replaced wholesale by a rebuild, so lookups never see a half-built index
+    private volatile NearbyIndex index;
+    private volatile boolean ready = false;
+    // Only touched on the scheduler thread
+    private long watermark = 0;
+    private long lastRebuild = 0;
+
+    public NearbyUsers(Database db, AppConfig config) {
+        this.db = db;
+        this.cellDegrees = config.getDouble("nearby.cellDegrees", 0.01);
+        this.radiusKm = config.getDouble("nearby.radiusKm", 2);
+        this.maxUsers = Math.max(1, config.getInt("nearby.maxUsers", 5));
+        this.maxAgeMs = Math.max(0, config.getLong("nearby.maxAgeMinutes", 30)) * 60_000L;
+        this.refreshMs = Math.max(1000, config.getLong("nearby.refreshMs", 30_000));
+        this.rebuildMs = Math.max(refreshMs, config.getLong("nearby.rebuildMs", 3_600_000));
+        this.index = new NearbyIndex(cellDegrees);
+    }
+
+    /** Builds the index in the background, then keeps it fresh. Lookups return nothing until the first build is done. */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (System.currentTimeMillis() - lastRebuild >= rebuildMs) rebuild();
+                else refresh();
+            } catch (SQLException e) {
+                System.err.println("Nearby users refresh failed (will retry): " + e.getMessage());
+            }
+        }, 0, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public double getRadiusKm() {
+        return radiusKm;
+    }
+
+    /**
+     * Up to nearby.maxUsers opted-in users within nearby.radiusKm of the point whose last fix is at most
+     * nearby.maxAgeMinutes old, nearest first. Safe to call on the EDT.
+     */
+    public List<NearbyIndex.Neighbor> nearest(double lat, double lon, int excludeUserId) {
+        if (!ready) return Collections.emptyList();
+        return index.nearest(lat, lon, maxUsers, radiusKm, maxAgeMs, excludeUserId);
+    }
+
+    /**
+     * Looks up names and phones for the given neighbours, in the same order, as contacts to alert. Users who
+     * opted out since the index was built are left out. Blocking; run it off the EDT.
+     */
+    public List<ContactModel> contactsFor(List<NearbyIndex.Neighbor> neighbors) throws SQLException {
+        if (neighbors.isEmpty()) return Collections.emptyList();
+        StringBuilder sql = new StringBuilder(CONTACTS_SQL).append('(');
+        for (int i = 0; i < neighbors.size(); i++) sql.append(i == 0 ? "?" : ", ?");
+        sql.append(')');
+        Map<Integer, ContactModel> byId = new HashMap<>();
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < neighbors.size(); i++) ps.setInt(i + 1, neighbors.get(i).userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) byId.put(rs.getInt(1), new ContactModel(rs.getString(2), rs.getString(3)));
+            }
+        }
+        List<ContactModel> contacts = new ArrayList<>(byId.size());
+        for (NearbyIndex.Neighbor n : neighbors) {
+            ContactModel cm = byId.get(n.userId);
+            if (cm == null) continue;
+            String name = (cm.getName() == null || cm.getName().isBlank() ? "User" : cm.getName())
+                    + String.format(Locale.ROOT, " (nearby, %.1f km)", n.distanceKm);
+            contacts.add(new ContactModel(name, cm.getPhoneNumber()));
+        }
+        return contacts;
+    }
+
+    public String getStats() {
+        return "nearby users: " + index.size() + " indexed" + (ready ? "" : " (building)");
+    }
+
+    private void rebuild() throws SQLException {
+        long started = System.currentTimeMillis();
+        NearbyIndex fresh = new NearbyIndex(cellDegrees);
+        long newest = load(ALL_SQL, false, maxAgeMs > 0 ? started - maxAgeMs : 0, fresh);
+        index = fresh;
+        ready = true;
+        // Rows written while loading are picked up by the next refresh through the overlap
+        watermark = Math.max(newest, started - REFRESH_OVERLAP_MS);
+        lastRebuild = started;
+        System.out.println("Nearby users index rebuilt: " + fresh.size() + " users in " + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    private void refresh() throws SQLException {
+        watermark = Math.max(watermark, load(CHANGED_SQL, true, watermark - REFRESH_OVERLAP_MS, index));
+    }
+
+    /**
+     * Streams matching rows into {@code target}; with {@code withOptIn} the fifth column says whether to keep
+     * or drop the user. Returns the newest recorded_at seen (0 if none).
+     */
+    private long load(String sql, boolean withOptIn, long sinceMillis, NearbyIndex target) throws SQLException {
+        long newest = 0;
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(db.getUrl().contains("useCursorFetch=true") ? LocationHistory.CURSOR_FETCH_SIZE : Integer.MIN_VALUE);
+            ps.setTimestamp(1, new Timestamp(Math.max(1000, sinceMillis))); // TIMESTAMP starts at 1970-01-01 00:00:01
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int userId = rs.getInt(1);
+                    long time = rs.getTimestamp(4).getTime();
+                    newest = Math.max(newest, time);
+                    if (withOptIn && !rs.getBoolean(5)) target.remove(userId);
+                    else target.put(userId, rs.getDouble(2), rs.getDouble(3), time);
+                }
+            }
+        }
+        return newest;
+    }
+}
@@ -0,0 +1,556 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable write-ahead outbox for writes that cannot reach MySQL. Contact changes and location fixes are
+ * appended to a log file (outbox.file) and replayed to the database, in order, once it is reachable again.
+ * <ul>
+ *   <li>Each record is length-prefixed and covered by a CRC32, so a tail torn by a crash is found and cut
+ *       off when the file is reopened.</li>
+ *   <li>fsync is batched: every outbox.syncMs one force covers all records appended since the last one.
+ *       Contact changes wait for it; location fixes do not.</li>
+ *   <li>The replayer applies a batch and stores its last sequence number in job_state in the same
+ *       transaction, so every record is applied exactly once, even if the app dies mid-replay.</li>
+ *   <li>Edits and deletes name the contact by id (or, for one added offline, by name and number). An add
+ *       carries the random client_ref the app gave it, so if its first attempt did reach the database after
+ *       all, the replay finds that row and skips; a second contact with the same name and number is still
+ *       added. Conflicts keep the user's data: an edit whose original row is gone is stored as a new
+ *       contact, and deleting a row that is already gone is a no-op. A record the
+ *       database rejects outright (e.g. its user was deleted) is logged and dropped, so it cannot block the
+ *       records behind it.</li>
+ * </ul>
+ * Once everything has been replayed the log starts afresh under a new file id.
+ */
+public class Outbox {
+    private static final int MAGIC = 0x534F534F; // "SOSO"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16; // magic | version | file id
+
+    // EDIT_CONTACT and DELETE_CONTACT match by name and number, for contacts that were queued before they had an id.
+    // ADD_CONTACT (without a client_ref) is only read from logs written by older versions.
+    private static final byte ADD_CONTACT = 1, EDIT_CONTACT = 2, DELETE_CONTACT = 3, FIX = 4,
+            EDIT_CONTACT_BY_ID = 5, DELETE_CONTACT_BY_ID = 6, ADD_CONTACT_WITH_REF = 7;
+
+    private static final String STATE_GET_SQL = "SELECT value FROM job_state WHERE name = ?";
+    private static final String STATE_PUT_SQL = "INSERT INTO job_state(name, value) VALUES(?, ?)"
+            + " ON DUPLICATE KEY UPDATE value = VALUES(value)";
+    private static final String STATE_DELETE_SQL = "DELETE FROM job_state WHERE name = ?";
+
+    private final Database db;
+    private final Path path;
+    private final long syncMs;
+    private final long replayMs;
+    private final int batchSize;
+    private final ScheduledExecutorService syncer = daemonScheduler("outbox-sync");
+    // Separate thread, so waiting on an unreachable database never delays an fsync
+    private final ScheduledExecutorService replayer = daemonScheduler("outbox-replay");
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private FileChannel channel;
+    private long fileId;
+    private long nextSeq;     // sequence number of the next record appended
+    private long end;         // file offset after the last record
+    private long syncedSeq;   // records up to here are on disk
+    private long syncedEnd;
+    private long appliedSeq;  // records up to here are in the database
+    private boolean closed = false;
+    private long appended = 0;
+
+    // Replayer thread only
+    private boolean resumed = false;  // appliedSeq has been read from job_state
+    private long replayPos = HEADER_BYTES;
+    private boolean failing = false;
+    private long replayed = 0;
+    private long conflicts = 0;
+    private long rejected = 0;
+
+    public Outbox(Database db, Properties props) throws IOException {
+        this.db = db;
+        this.path = Paths.get(props.getProperty("outbox.file", "outbox.log").trim());
+        this.syncMs = Math.max(1, Long.parseLong(props.getProperty("outbox.syncMs", "20").trim()));
+        this.replayMs = Math.max(100, Long.parseLong(props.getProperty("outbox.replayMs", "5000").trim()));
+        this.batchSize = Math.max(1, Integer.parseInt(props.getProperty("outbox.batchSize", "500").trim()));
+        open();
+        syncer.scheduleWithFixedDelay(this::sync, syncMs, syncMs, TimeUnit.MILLISECONDS);
+        replayer.scheduleWithFixedDelay(this::replay, 0, replayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledExecutorService daemonScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** True if {@code t} (or a cause) means the database could not be reached, as opposed to rejecting the statement. */
+    public static boolean isOffline(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientConnectionException || t instanceof SQLNonTransientConnectionException
+                    || t instanceof SQLTimeoutException) return true;
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && state.startsWith("08")) return true;
+            }
+        }
+        return false;
+    }
+
+    /** True while records are waiting to be replayed; later writes should queue behind them to keep their order. */
+    public boolean hasPending() {
+        synchronized (lock) {
+            return nextSeq - 1 > appliedSeq;
+        }
+    }
+
+    /** Queues adding a contact, keyed by {@code clientRef} (see contacts.client_ref), and returns once the record is on disk. */
+    public void addContact(int userId, long clientRef, String name, String phone) throws IOException {
+        appendDurable(record(ADD_CONTACT_WITH_REF, userId, out -> {
+            out.writeLong(clientRef);
+            out.writeUTF(name);
+            out.writeUTF(phone);
+        }));
+    }
+
+    /** Queues changing a contact and returns once the record is on disk. */
+    public void editContact(int userId, ContactModel contact, String newName, String newPhone) throws IOException {
+        appendDurable(record(contact.getId() != 0 ? EDIT_CONTACT_BY_ID : EDIT_CONTACT, userId, out -> {
+            if (contact.getId() != 0) out.writeInt(contact.getId());
+            out.writeUTF(contact.getName());
+            out.writeUTF(contact.getPhoneNumber());
+            out.writeUTF(newName);
+            out.writeUTF(newPhone);
+        }));
+    }
+
+    /** Queues deleting a contact and returns once the record is on disk. */
+    public void deleteContact(int userId, ContactModel contact) throws IOException {
+        appendDurable(record(contact.getId() != 0 ? DELETE_CONTACT_BY_ID : DELETE_CONTACT, userId, out -> {
+            if (contact.getId() != 0) out.writeInt(contact.getId());
+            out.writeUTF(contact.getName());
+            out.writeUTF(contact.getPhoneNumber());
+        }));
+    }
+
+    /** Queues location fixes; they reach the disk with the next batched fsync. */
+    public void addFixes(List<LocationWriter.Fix> fixes) throws IOException {
+        for (LocationWriter.Fix f : fixes) {
+            append(record(FIX, f.userId, out -> {
+                out.writeDouble(f.lat);
+                out.writeDouble(f.lon);
+                out.writeLong(f.recordedAt.getTime());
+            }));
+        }
+        kick();
+    }
+
+    /** Stops replaying and forces what has been appended to disk. */
+    public void close() {
+        replayer.shutdownNow();
+        syncer.shutdown();
+        try {
+            syncer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Outbox: close failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public String getStats() {
+        synchronized (lock) {
+            return "outbox: " + appended + " appended, " + replayed + " replayed, " + (nextSeq - 1 - appliedSeq) + " pending, "
+                    + conflicts + " conflicts, " + rejected + " rejected";
+        }
+    }
+
+    // ---- Log file ----
+
+    /** Opens (or creates) the log, cutting off a torn tail left by a crash. */
+    private void open() throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (ch.size() < HEADER_BYTES) {
+            ch.close();
+            startNewFile();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        RecordLog.readFully(ch, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            ch.close();
+            throw new IOException(path + " is not an outbox file; move it away to start a new one");
+        }
+        long pos = HEADER_BYTES, lastSeq = 0;
+        Record r;
+        while ((r = readRecord(ch, pos, ch.size())) != null) {
+            lastSeq = r.seq;
+            pos = r.next;
+        }
+        if (pos < ch.size()) {
+            System.err.println("Outbox: dropping " + (ch.size() - pos) + " byte(s) of a record torn by a crash");
+            ch.truncate(pos);
+            ch.force(true);
+        }
+        synchronized (lock) {
+            channel = ch;
+            fileId = header.getLong(8);
+            nextSeq = lastSeq + 1;
+            end = pos;
+            syncedSeq = lastSeq;
+            syncedEnd = pos;
+            appliedSeq = 0; // known once job_state has been read
+        }
+        if (lastSeq > 0) System.out.println("Outbox: " + lastSeq + " record(s) from an earlier run, replaying once the database is reachable");
+    }
+
+    /**
+     * Replaces the log with an empty one under a new file id. The new file is written aside and moved into
+     * place, so a crash leaves either the old (fully replayed) log or the new one. Called with nothing pending.
+     */
+    private void startNewFile() throws IOException {
+        long id = new SecureRandom().nextLong();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putLong(id);
+            header.flip();
+            RecordLog.write(ch, header, 0);
+            ch.force(true);
+        }
+        synchronized (lock) {
+            if (channel != null) channel.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            fileId = id;
+            nextSeq = 1;
+            end = HEADER_BYTES;
+            syncedSeq = 0;
+            syncedEnd = HEADER_BYTES;
+            appliedSeq = 0;
+        }
+        replayPos = HEADER_BYTES;
+        resumed = true; // nothing of a new file is in the database yet
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Encodes a record payload, | seq | type | user id | body |, with the sequence number still to be filled in. */
+    private static byte[] record(byte type, int userId, Body body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0);
+        out.writeByte(type);
+        out.writeInt(userId);
+        body.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Numbers the record and writes it at the end of the log; returns its sequence number. */
+    private long append(byte[] rec) throws IOException {
+        synchronized (lock) {
+            if (closed) throw new IOException("Outbox is closed");
+            long seq = nextSeq;
+            ByteBuffer.wrap(rec).putLong(0, seq);
+            end = RecordLog.write(channel, RecordLog.frame(rec), end);
+            nextSeq++;
+            appended++;
+            return seq;
+        }
+    }
+
+    private void appendDurable(byte[] rec) throws IOException {
+        long seq = append(rec);
+        synchronized (lock) {
+            while (syncedSeq < seq) {
+                if (closed) throw new IOException("Outbox closed before the change reached the disk");
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while saving the change", e);
+                }
+            }
+        }
+        kick();
+    }
+
+    /**
+     * Forces everything appended so far to disk and wakes the writers waiting for it. The force runs under
+     * the lock: appends are short, and the writers that queue up meanwhile share the next one.
+     */
+    private void sync() {
+        synchronized (lock) {
+            if (closed || syncedSeq == nextSeq - 1) return;
+            try {
+                channel.force(false);
+                syncedSeq = nextSeq - 1;
+                syncedEnd = end;
+            } catch (IOException e) {
+                System.err.println("Outbox: fsync failed, will retry: " + e.getMessage());
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private static class Record {
+        final long seq;
+        final byte type;
+        final int userId;
+        final DataInputStream body;
+        final long next;
+
+        Record(long seq, byte type, int userId, DataInputStream body, long next) {
+            this.seq = seq;
+            this.type = type;
+            this.userId = userId;
+            this.body = body;
+            this.next = next;
+        }
+    }
+
+    /** Reads the record at {@code pos}, or null if there is none before {@code limit} or it is damaged. */
+    private static Record readRecord(FileChannel ch, long pos, long limit) throws IOException {
+        byte[] payload = RecordLog.read(ch, pos, limit);
+        if (payload == null || payload.length < 13) return null;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long seq = in.readLong();
+        byte type = in.readByte();
+        int userId = in.readInt();
+        return new Record(seq, type, userId, in, pos + RecordLog.size(payload));
+    }
+
+
+    // ---- Replay ----
+
+    private void kick() {
+        if (!failing) {
+            try {
+                replayer.execute(this::replay);
+            } catch (RejectedExecutionException e) {
+                // Closing
+            }
+        }
+    }
+
+    /** Applies synced records to the database until none are left or the database fails. */
+    private void replay() {
+        try {
+            if (!resumed) resume();
+            while (true) {
+                FileChannel ch;
+                long limit, applied;
+                synchronized (lock) {
+                    if (closed) return;
+                    ch = channel;
+                    limit = syncedEnd; // never apply a record that could still be lost
+                    applied = appliedSeq;
+                }
+                List<Record> batch = new ArrayList<>();
+                long pos = replayPos;
+                Record r;
+                while (batch.size() < batchSize && (r = readRecord(ch, pos, limit)) != null) {
+                    if (r.seq > applied) batch.add(r);
+                    pos = r.next;
+                }
+                if (batch.isEmpty()) {
+                    replayPos = pos;
+                    break;
+                }
+                apply(batch);
+                synchronized (lock) {
+                    appliedSeq = batch.get(batch.size() - 1).seq;
+                }
+                replayPos = pos;
+                replayed += batch.size();
+                if (failing) System.out.println("Outbox: database reachable again, replaying");
+                failing = false;
+            }
+            compact();
+        } catch (SQLException e) {
+            if (!failing) System.err.println("Outbox: database unavailable, keeping changes locally: " + e.getMessage());
+            failing = true;
+        } catch (IOException e) {
+            System.err.println("Outbox: could not read " + path + ": " + e.getMessage());
+        }
+    }
+
+    /** Reads how far an earlier run got; records up to there are already in the database. */
+    private void resume() throws SQLException {
+        long fromDb;
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(STATE_GET_SQL)) {
+            ps.setString(1, stateKey());
+            try (ResultSet rs = ps.executeQuery()) {
+                fromDb = rs.next() ? Long.parseLong(rs.getString(1)) : 0;
+            }
+        }
+        synchronized (lock) {
+            appliedSeq = Math.max(appliedSeq, fromDb);
+        }
+        resumed = true;
+    }
+
+    private String stateKey() {
+        synchronized (lock) {
+            return "outbox." + Long.toHexString(fileId) + ".applied";
+        }
+    }
+
+    private void apply(List<Record> batch) throws SQLException, IOException {
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            List<LocationWriter.Fix> fixes = new ArrayList<>();
+            for (Record r : batch) {
+                if (r.type == FIX) {
+                    fixes.add(new LocationWriter.Fix(r.userId, r.body.readDouble(), r.body.readDouble(), new Timestamp(r.body.readLong())));
+                    continue;
+                }
+                Savepoint sp = conn.setSavepoint();
+                try {
+                    applyContact(conn, r);
+                } catch (SQLException e) {
+                    if (isOffline(e)) throw e;
+                    conn.rollback(sp);
+                    rejected++;
+                    System.err.println("Outbox: dropping contact change #" + r.seq + " the database rejected: " + e.getMessage());
+                }
+            }
+            // Fixes go to another table, so applying them after the contact changes keeps every order that matters
+            if (!fixes.isEmpty()) {
+                Savepoint sp = conn.setSavepoint();
+                try {
+                    LocationWriter.insert(conn, fixes);
+                } catch (SQLException e) {
+                    if (isOffline(e)) throw e;
+                    conn.rollback(sp);
+                    rejected += fixes.size();
+                    System.err.println("Outbox: dropping " + fixes.size() + " location fix(es) the database rejected: " + e.getMessage());
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(STATE_PUT_SQL)) {
+                ps.setString(1, stateKey());
+                ps.setString(2, Long.toString(batch.get(batch.size() - 1).seq));
+                ps.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+
+    private void applyContact(Connection conn, Record r) throws SQLException, IOException {
+        int id = r.type == EDIT_CONTACT_BY_ID || r.type == DELETE_CONTACT_BY_ID ? r.body.readInt() : 0;
+        long clientRef = r.type == ADD_CONTACT_WITH_REF ? r.body.readLong() : 0;
+        ContactModel contact = new ContactModel(id, r.body.readUTF(), r.body.readUTF());
+        String name = contact.getName(), phone = contact.getPhoneNumber();
+        switch (r.type) {
+            case ADD_CONTACT_WITH_REF:
+                if (MySqlStorage.contactIdByRef(conn, r.userId, clientRef) != 0) {
+                    conflict(r, "its first attempt reached the database after all, skipped");
+                } else {
+                    MySqlStorage.insertOne(conn, r.userId, clientRef, name, phone);
+                }
+                break;
+            case ADD_CONTACT:
+                if (contactExists(conn, r.userId, name, phone)) {
+                    conflict(r, "already added elsewhere, skipped");
+                } else {
+                    insertContact(conn, r.userId, name, phone);
+                }
+                break;
+            case EDIT_CONTACT:
+            case EDIT_CONTACT_BY_ID: {
+                String newName = r.body.readUTF(), newPhone = r.body.readUTF();
+                if (MySqlStorage.updateOne(conn, r.userId, contact, newName, newPhone) > 0) break;
+                // The original was changed or deleted elsewhere; keep the edited contact rather than lose it
+                if (contactExists(conn, r.userId, newName, newPhone)) {
+                    conflict(r, "original gone and the edited contact already exists, skipped");
+                } else {
+                    insertContact(conn, r.userId, newName, newPhone);
+                    conflict(r, "original gone, stored as a new contact");
+                }
+                break;
+            }
+            case DELETE_CONTACT:
+            case DELETE_CONTACT_BY_ID:
+                if (MySqlStorage.deleteOne(conn, r.userId, contact) == 0) conflict(r, "already deleted elsewhere");
+                break;
+            default:
+                throw new IOException("Unknown outbox record type " + r.type + " at #" + r.seq);
+        }
+    }
+
+    private void conflict(Record r, String what) {
+        conflicts++;
+        System.out.println("Outbox: contact change #" + r.seq + " for user " + r.userId + ": " + what);
+    }
+
+    private static boolean contactExists(Connection conn, int userId, String name, String phone) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM contacts WHERE user_id = ? AND name = ? AND phone = ? LIMIT 1")) {
+            ps.setInt(1, userId);
+            ps.setString(2, name);
+            ps.setString(3, phone);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static void insertContact(Connection conn, int userId, String name, String phone) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO contacts(user_id, name, phone) VALUES(?, ?, ?)")) {
+            ps.setInt(1, userId);
+            ps.setString(2, name);
+            ps.setString(3, phone);
+            ps.executeUpdate();
+        }
+    }
+
+    /** Once everything has been replayed, starts a new log and forgets the old one's progress. */
+    private void compact() throws SQLException, IOException {
+        String oldKey;
+        synchronized (lock) {
+            if (closed || end == HEADER_BYTES || appliedSeq != nextSeq - 1 || syncedSeq != appliedSeq) return;
+            oldKey = stateKey();
+            startNewFile();
+        }
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(STATE_DELETE_SQL)) {
+            ps.setString(1, oldKey);
+            ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+public class PhoneUtil {
+    /**
+     * Normalize phone numbers by removing punctuation and ensuring country code present.
+     * Returns digits-only phone string suitable for WhatsApp URL (e.g. 919876543210)
+     * or null if invalid.
+     */
+    public static String normalize(String raw) {
+        if (raw == null) return null;
+        // Keep digits only (drops spaces, plus signs, parentheses, dashes) without a regex
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+        }
+        if (sb.length() == 0) return null;
+        // We should not guess a country code. Accept 11-15 digits; a 10 digit number
+        // most likely omitted the country code, so return null to force the user to fix it.
+        if (sb.length() <= 10 || sb.length() > 15) return null;
+        return sb.toString();
+    }
+}
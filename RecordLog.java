@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Record framing shared by the append-only files ({@link Outbox}, {@link EmbeddedStorage}):
+ * | payload length | CRC32 of the payload | payload |. A record cut short or damaged by a crash reads as
+ * missing, which marks the end of the intact log.
+ */
+final class RecordLog {
+    static final int MAX_PAYLOAD = 1 << 16;
+
+    private RecordLog() {
+    }
+
+    /** The framed record for {@code payload}, ready to write. */
+    static ByteBuffer frame(byte[] payload) throws IOException {
+        if (payload.length > MAX_PAYLOAD) throw new IOException("Record too large: " + payload.length + " bytes");
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(8 + payload.length);
+        buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        buf.flip();
+        return buf;
+    }
+
+    /** Size on disk of a record with this payload. */
+    static long size(byte[] payload) {
+        return 8L + payload.length;
+    }
+
+    /** The payload of the record at {@code pos}, or null if none ends before {@code limit} or it is damaged. */
+    static byte[] read(FileChannel ch, long pos, long limit) throws IOException {
+        if (pos + 8 > limit) return null;
+        ByteBuffer head = ByteBuffer.allocate(8);
+        readFully(ch, head, pos);
+        int length = head.getInt(0);
+        if (length < 0 || length > MAX_PAYLOAD || pos + 8 + length > limit) return null;
+        byte[] payload = new byte[length];
+        readFully(ch, ByteBuffer.wrap(payload), pos + 8);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == head.getInt(4) ? payload : null;
+    }
+
+    /** Writes all of {@code buf} at {@code pos} and returns the position after it. */
+    static long write(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) pos += ch.write(buf, pos);
+        return pos;
+    }
+
+    static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("Unexpected end of file");
+            pos += n;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the SOS payload ready to go. Whenever the location or the message template change,
+ * the message, its URL encoding and the per-contact WhatsApp URIs are rebuilt; a changed
+ * contact only prepares its own. Pressing SOS only has to read {@link #getSnapshot()} and
+ * start launching.
+ */
+public class SosStandby implements ContactManager.Listener {
+    private final LatencyHistogram pressToFirstLaunch = new LatencyHistogram("SOS press to first launch");
+
+    private final Object lock = new Object();
+    // Inputs, guarded by lock
+    private List<ContactModel> contacts = new ArrayList<>(); // in ContactModel.NEWEST_FIRST order
+    private String template = "";
+    private double latitude;
+    private double longitude;
+    // Derived, guarded by lock: prepared.get(i) is contacts.get(i) ready to send, or null if it has no number
+    private String message = "";
+    private String encoded = "";
+    private List<PreparedContact> prepared = new ArrayList<>();
+    // Phone normalization is the per-contact cost that repeats across rebuilds, so remember it
+    private final Map<String, String> normalizedCache = new HashMap<>();
+
+    // Null after a contact changed, until the next getSnapshot
+    private volatile Snapshot snapshot = new Snapshot("", Collections.emptyList());
+
+    /**
+     * Replaces the recipients with all of the user's contacts. {@link ContactManager} calls this after loading;
+     * the list on screen only holds the pages in view, so it cannot be followed instead. Any thread.
+     */
+    @Override
+    public void contactsLoaded(List<ContactModel> contacts) {
+        List<ContactModel> copy = new ArrayList<>(contacts);
+        synchronized (lock) {
+            this.contacts = copy;
+            normalizedCache.keySet().retainAll(rawPhones(copy));
+            rebuild();
+        }
+    }
+
+    /** Prepares just the changed contact. Any thread. */
+    @Override
+    public void contactChanged(ContactModel old, ContactModel now) {
+        synchronized (lock) {
+            if (old != null) {
+                int at = ContactManager.find(contacts, old);
+                if (at != -1) {
+                    contacts.remove(at);
+                    prepared.remove(at);
+                }
+            }
+            if (now != null) {
+                int at = ContactManager.insertionPoint(contacts, now);
+                contacts.add(at, now);
+                prepared.add(at, prepare(now, encoded, normalizedCache));
+            }
+            snapshot = null;
+        }
+    }
+
+    /** Sets the message template with the {@code <name>} placeholder already filled in. */
+    public void setTemplate(String template) {
+        synchronized (lock) {
+            this.template = template;
+            rebuild();
+        }
+    }
+
+    public void setLocation(double latitude, double longitude) {
+        synchronized (lock) {
+            if (latitude == this.latitude && longitude == this.longitude) return;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            rebuild();
+        }
+    }
+
+    /** The payload; after a contact changed, the first call gathers the prepared contacts again (no URIs are built). */
+    public Snapshot getSnapshot() {
+        Snapshot s = snapshot;
+        if (s != null) return s;
+        synchronized (lock) {
+            if (snapshot == null) snapshot = gather();
+            return snapshot;
+        }
+    }
+
+    public LatencyHistogram getPressToFirstLaunch() {
+        return pressToFirstLaunch;
+    }
+
+    private static List<String> rawPhones(List<ContactModel> contacts) {
+        List<String> phones = new ArrayList<>(contacts.size());
+        for (ContactModel cm : contacts) phones.add(cm.getPhoneNumber().trim());
+        return phones;
+    }
+
+    // Caller holds lock
+    private void rebuild() {
+        message = template + " " + String.format(Locale.ROOT, "My location: https://www.google.com/maps?q=%f,%f", latitude, longitude);
+        encoded = URLEncoder.encode(message, StandardCharsets.UTF_8);
+        prepared = new ArrayList<>(contacts.size());
+        for (ContactModel cm : contacts) prepared.add(prepare(cm, encoded, normalizedCache));
+        snapshot = gather();
+    }
+
+    // Caller holds lock
+    private Snapshot gather() {
+        List<PreparedContact> ready = new ArrayList<>(prepared.size());
+        for (PreparedContact pc : prepared) {
+            if (pc != null) ready.add(pc);
+        }
+        return new Snapshot(message, Collections.unmodifiableList(ready));
+    }
+
+    /**
+     * The current message prepared for other recipients than the saved contacts
+     * (e.g. nearby users from {@link NearbyUsers}). Not cached; meant for a handful of contacts.
+     */
+    public Snapshot snapshotFor(List<ContactModel> recipients) {
+        String message;
+        synchronized (lock) {
+            message = this.message;
+        }
+        String encoded = URLEncoder.encode(message, StandardCharsets.UTF_8);
+        Map<String, String> normalized = new HashMap<>();
+        List<PreparedContact> ready = new ArrayList<>(recipients.size());
+        for (ContactModel cm : recipients) {
+            PreparedContact pc = prepare(cm, encoded, normalized);
+            if (pc != null) ready.add(pc);
+        }
+        return new Snapshot(message, Collections.unmodifiableList(ready));
+    }
+
+    /** {@code cm} ready to send {@code encoded}, or null if it has no number. */
+    private static PreparedContact prepare(ContactModel cm, String encoded, Map<String, String> normalizedCache) {
+        String rawPhone = cm.getPhoneNumber().trim();
+        if (rawPhone.isEmpty()) return null;
+        String normalized = normalizedCache.computeIfAbsent(rawPhone, p -> {
+            String n = PhoneUtil.normalize(p);
+            return n == null ? "" : n;
+        });
+        if (normalized.isEmpty()) return new PreparedContact(cm, rawPhone, null, null, null);
+        return new PreparedContact(cm, rawPhone, normalized,
+                URI.create("whatsapp://send?phone=" + normalized + "&text=" + encoded),
+                URI.create("https://web.whatsapp.com/send?phone=" + normalized + "&text=" + encoded));
+    }
+
+    /** Immutable, ready-to-dispatch view of the SOS payload. */
+    public static class Snapshot {
+        public final String message;
+        public final List<PreparedContact> contacts;
+
+        Snapshot(String message, List<PreparedContact> contacts) {
+            this.message = message;
+            this.contacts = contacts;
+        }
+    }
+
+    public static class PreparedContact {
+        public final ContactModel contact;
+        public final String rawPhone;
+        public final String normalizedPhone; // null if the number is invalid
+        public final URI desktopUri;
+        public final URI webUri;
+
+        PreparedContact(ContactModel contact, String rawPhone, String normalizedPhone, URI desktopUri, URI webUri) {
+            this.contact = contact;
+            this.rawPhone = rawPhone;
+            this.normalizedPhone = normalizedPhone;
+            this.desktopUri = desktopUri;
+            this.webUri = webUri;
+        }
+
+        public boolean isValid() {
+            return normalizedPhone != null;
+        }
+    }
+}
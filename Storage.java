@@ -0,0 +1,127 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Where accounts, contacts, location fixes and the saved session live. {@link MySqlStorage} keeps them in MySQL
+ * (through {@link Database}); {@link EmbeddedStorage} keeps them in one local file and needs no server. Errors
+ * are reported as {@link SQLException}s with standard SQL states on both, e.g. 23000 for a duplicate email.
+ * Methods may block and must not be called on the event dispatch thread.
+ */
+public interface Storage {
+
+    /**
+     * Opens the backend named by db.backend in the given properties file: {@code mysql} (the default) or
+     * {@code embedded}, which stores everything in db.file.
+     */
+    static Storage open(String propertiesPath) {
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(propertiesPath)) {
+            props.load(fis);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load DB properties from " + propertiesPath + ": " + e.getMessage(), e);
+        }
+        String backend = props.getProperty("db.backend", "mysql").trim();
+        if (backend.equalsIgnoreCase("mysql")) {
+            return new MySqlStorage(new Database(propertiesPath));
+        }
+        if (backend.equalsIgnoreCase("embedded")) {
+            try {
+                return new EmbeddedStorage(Paths.get(props.getProperty("db.file", "sos.db").trim()));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open the local database: " + e.getMessage(), e);
+            }
+        }
+        throw new RuntimeException("db.backend must be mysql or embedded, not " + backend);
+    }
+
+    // ---- Users ----
+
+    /** The account with this email (its password field holds the hash), or null. */
+    UserManager.User findUser(String email) throws SQLException;
+
+    /** Stores a new account and returns it with its id. Fails with SQL state 23000 if the email is taken. */
+    UserManager.User insertUser(UserManager.User user, String passwordHash) throws SQLException;
+
+    // ---- Contacts ----
+
+    /** The user's contacts with their ids, newest first. */
+    List<ContactModel> loadContacts(int userId) throws SQLException;
+
+    /** How many contacts {@link #loadContacts} would return. */
+    default int countContacts(int userId) throws SQLException {
+        return loadContacts(userId).size();
+    }
+
+    /**
+     * Part of {@link #loadContacts}: the contacts after the one with id {@code afterId} (0 = from the start),
+     * skipping {@code skip}, at most {@code limit}. Backends with an index answer this with a keyset query, so
+     * a page deep in the list costs the same as the first.
+     */
+    default List<ContactModel> loadContactsPage(int userId, int afterId, int skip, int limit) throws SQLException {
+        return ContactListModel.slice(loadContacts(userId), afterId, skip, limit);
+    }
+
+    /** Stores a contact and returns its id, or 0 if it was queued to be stored later. */
+    int addContact(int userId, String name, String phone) throws SQLException;
+
+    /**
+     * Stores many contacts at once, e.g. from an import, with one commit or disk sync for all of them rather
+     * than one per contact. Needs the database: unlike {@link #addContact} nothing is queued while it is
+     * unreachable. On MySQL a failure stores none of them.
+     */
+    default void addContacts(int userId, List<ContactModel> contacts) throws SQLException {
+        for (ContactModel c : contacts) addContact(userId, c.getName(), c.getPhoneNumber());
+    }
+
+    /**
+     * Changes exactly one contact: the one with {@code contact}'s id, or, for a contact that has no id yet,
+     * one with its name and number.
+     */
+    void updateContact(int userId, ContactModel contact, String newName, String newPhone) throws SQLException;
+
+    /** Deletes exactly one contact, chosen as in {@link #updateContact}. */
+    void deleteContact(int userId, ContactModel contact) throws SQLException;
+
+    /**
+     * The user's contacts added, edited or deleted after {@code sinceMillis}, a watermark from the previous
+     * call; 0 returns no changes, only the watermark to start from. Changes near the watermark may come back
+     * in the next call too. Null if the backend has no change feed: nothing but this process writes to it, so
+     * there is nothing to sync.
+     */
+    default ContactSync.Changes contactChanges(int userId, long sinceMillis) throws SQLException {
+        return null;
+    }
+
+    /** Remembers the list as the user sees it, for backends that can show it while their server is down. */
+    default void cacheContacts(int userId, List<ContactModel> contacts) {
+    }
+
+    // ---- Locations ----
+
+    /** Offers a fix taken now. Backends may thin fixes out or write them later, so it need not show up at once. */
+    void saveLocation(int userId, double lat, double lon);
+
+    /** Stored fixes of the user during [fromMillis, toMillis), oldest first, at most {@code limit}. */
+    List<LocationHistory.Row> findLocations(int userId, long fromMillis, long toMillis, int limit) throws SQLException;
+
+    // ---- Session ----
+
+    /** Email of the user who stayed signed in, or null. */
+    String loadSession();
+
+    void saveSession(String email);
+
+    void clearSession();
+
+    /** True while the backend is serving local copies because its server is unreachable. */
+    default boolean isOffline() {
+        return false;
+    }
+
+    /** Writes what is pending and releases the backend. */
+    void close();
+}
@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresses each user's location track before it reaches the {@link LocationWriter}.
+ * <ul>
+ *   <li>Fixes closer than location.track.minDistanceMeters to the last stored point are dropped,
+ *       except for one heartbeat every location.track.heartbeatMs, so a stationary user costs one row
+ *       per heartbeat instead of one per refresh.</li>
+ *   <li>Movement is collected into a burst, which is simplified with Douglas-Peucker
+ *       (location.track.toleranceMeters) when it reaches location.track.maxBurstPoints or has been held for
+ *       location.track.maxHoldMs. Only the points that carry the shape of the path are stored.</li>
+ * </ul>
+ * All work happens on one background thread, so callers never block.
+ */
+public class TrackCompressor {
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+    private final LocationWriter writer;
+    private final double minDistanceMeters;
+    private final long heartbeatMs;
+    private final double toleranceMeters;
+    private final int maxBurstPoints;
+    private final long maxHoldMs;
+
+    private final Map<Integer, Track> tracks = new HashMap<>(); // only touched on the executor thread
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "track-compressor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong stationary = new AtomicLong();
+    private final AtomicLong simplified = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+
+    public TrackCompressor(LocationWriter writer, Properties props) {
+        this.writer = writer;
+        this.minDistanceMeters = Math.max(0, Double.parseDouble(props.getProperty("location.track.minDistanceMeters", "25").trim()));
+        this.heartbeatMs = Math.max(1_000, Long.parseLong(props.getProperty("location.track.heartbeatMs", "1800000").trim()));
+        this.toleranceMeters = Math.max(0, Double.parseDouble(props.getProperty("location.track.toleranceMeters", "10").trim()));
+        this.maxBurstPoints = Math.max(3, Integer.parseInt(props.getProperty("location.track.maxBurstPoints", "50").trim()));
+        this.maxHoldMs = Math.max(1_000, Long.parseLong(props.getProperty("location.track.maxHoldMs", "60000").trim()));
+        long sweep = Math.max(500, maxHoldMs / 2);
+        executor.scheduleWithFixedDelay(this::flushExpired, sweep, sweep, TimeUnit.MILLISECONDS);
+    }
+
+    /** Offers a fix taken at {@code timeMillis}. Never blocks. */
+    public void offer(int userId, double lat, double lon, long timeMillis) {
+        received.incrementAndGet();
+        try {
+            executor.execute(() -> accept(userId, new Point(lat, lon, timeMillis)));
+        } catch (RuntimeException e) {
+            // Shut down: hand the fix straight to the writer, which decides whether it still takes it
+            writer.enqueue(userId, lat, lon, timeMillis);
+        }
+    }
+
+    /** Stores every held burst and stops the background thread. */
+    public void shutdown(long timeout, TimeUnit unit) {
+        if (executor.isShutdown()) return;
+        executor.execute(() -> {
+            for (Map.Entry<Integer, Track> e : tracks.entrySet()) flush(e.getKey(), e.getValue());
+        });
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getStats() {
+        return "track compressor: " + received.get() + " received, " + stored.get() + " stored, "
+                + stationary.get() + " stationary, " + simplified.get() + " simplified away";
+    }
+
+    private void accept(int userId, Point p) {
+        Track track = tracks.get(userId);
+        if (track == null) {
+            // First fix for this user in this session: store it as is
+            tracks.put(userId, track = new Track());
+            track.lastStored = p;
+            store(userId, p);
+            return;
+        }
+        Point reference = track.burst.isEmpty() ? track.lastStored : track.burst.get(track.burst.size() - 1);
+        if (distanceMeters(reference, p) < minDistanceMeters) {
+            if (track.burst.isEmpty() && p.time - track.lastStored.time >= heartbeatMs) {
+                track.lastStored = p;
+                store(userId, p);
+            } else {
+                stationary.incrementAndGet();
+            }
+            return;
+        }
+        if (track.burst.isEmpty()) {
+            track.burst.add(track.lastStored); // anchor, already stored
+            track.burstStartedAt = System.currentTimeMillis();
+        }
+        track.burst.add(p);
+        if (track.burst.size() >= maxBurstPoints) flush(userId, track);
+    }
+
+    private void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, Track> e : tracks.entrySet()) {
+            Track track = e.getValue();
+            if (!track.burst.isEmpty() && now - track.burstStartedAt >= maxHoldMs) flush(e.getKey(), track);
+        }
+    }
+
+    private void flush(int userId, Track track) {
+        if (track.burst.isEmpty()) return;
+        List<Point> kept = simplify(track.burst, toleranceMeters);
+        simplified.addAndGet(track.burst.size() - kept.size());
+        for (Point p : kept.subList(1, kept.size())) store(userId, p); // the anchor is stored already
+        // The last stored point anchors the next burst, so the path stays continuous across flushes
+        track.lastStored = kept.get(kept.size() - 1);
+        track.burst.clear();
+    }
+
+    private void store(int userId, Point p) {
+        stored.incrementAndGet();
+        writer.enqueue(userId, p.lat, p.lon, p.time);
+    }
+
+    /**
+     * Douglas-Peucker line simplification: keeps the first and last point and, recursively, every point that
+     * lies further than {@code toleranceMeters} from the line through the points kept around it.
+     */
+    static List<Point> simplify(List<Point> points, double toleranceMeters) {
+        int n = points.size();
+        if (n < 3) return new ArrayList<>(points);
+        boolean[] keep = new boolean[n];
+        keep[0] = keep[n - 1] = true;
+        // Explicit stack instead of recursion, so a long burst can't overflow it
+        ArrayList<int[]> stack = new ArrayList<>();
+        stack.add(new int[]{0, n - 1});
+        while (!stack.isEmpty()) {
+            int[] range = stack.remove(stack.size() - 1);
+            int from = range[0], to = range[1];
+            double maxDist = -1;
+            int index = -1;
+            for (int i = from + 1; i < to; i++) {
+                double d = crossTrackMeters(points.get(i), points.get(from), points.get(to));
+                if (d > maxDist) {
+                    maxDist = d;
+                    index = i;
+                }
+            }
+            if (index >= 0 && maxDist > toleranceMeters) {
+                keep[index] = true;
+                stack.add(new int[]{from, index});
+                stack.add(new int[]{index, to});
+            }
+        }
+        List<Point> kept = new ArrayList<>();
+        for (int i = 0; i < n; i++) if (keep[i]) kept.add(points.get(i));
+        return kept;
+    }
+
+    /** Equirectangular distance; accurate to well under a percent at the distances compared here. */
+    static double distanceMeters(Point a, Point b) {
+        double x = Math.toRadians(b.lon - a.lon) * Math.cos(Math.toRadians((a.lat + b.lat) / 2));
+        double y = Math.toRadians(b.lat - a.lat);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS;
+    }
+
+    /** Distance of {@code p} from the segment a-b, in a local flat projection around {@code a}. */
+    private static double crossTrackMeters(Point p, Point a, Point b) {
+        double cos = Math.cos(Math.toRadians(a.lat));
+        double bx = Math.toRadians(b.lon - a.lon) * cos, by = Math.toRadians(b.lat - a.lat);
+        double px = Math.toRadians(p.lon - a.lon) * cos, py = Math.toRadians(p.lat - a.lat);
+        double len2 = bx * bx + by * by;
+        double t = len2 == 0 ? 0 : Math.max(0, Math.min(1, (px * bx + py * by) / len2));
+        double dx = px - t * bx, dy = py - t * by;
+        return Math.sqrt(dx * dx + dy * dy) * EARTH_RADIUS_METERS;
+    }
+
+    /** A fix on a track. */
+    public static class Point {
+        public final double lat;
+        public final double lon;
+        public final long time;
+
+        public Point(double lat, double lon, long time) {
+            this.lat = lat;
+            this.lon = lon;
+            this.time = time;
+        }
+    }
+
+    private static class Track {
+        Point lastStored;
+        final List<Point> burst = new ArrayList<>(); // anchor + unstored movement
+        long burstStartedAt;
+    }
+}
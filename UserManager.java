@@ -1,15 +1,12 @@
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
-import java.sql.*;
-import java.util.*;
+import java.sql.SQLException;
+import java.util.Optional;
 
 public class UserManager {
-    private final Path sessionFile;
-    private final Database db;
+    private final Storage storage;
     private volatile String lastError = null;
 
     public static class User {
+        public final int id; // users.id; 0 until the user has been stored
         public final String fullName;
         public final String idType;
         public final String idNumber;
@@ -18,6 +15,11 @@ public class UserManager {
         public final String password; // stored in plain text per current requirement
 
         public User(String fullName, String idType, String idNumber, String email, String phone, String password) {
+            this(0, fullName, idType, idNumber, email, phone, password);
+        }
+
+        public User(int id, String fullName, String idType, String idNumber, String email, String phone, String password) {
+            this.id = id;
             this.fullName = fullName;
             this.idType = idType;
             this.idNumber = idNumber;
@@ -27,28 +29,27 @@ public class UserManager {
         }
     }
 
-    public UserManager(Database db) {
-        this.db = db;
-        this.sessionFile = Paths.get("session.txt");
+    public UserManager(Storage storage) {
+        this.storage = storage;
     }
 
-    public boolean register(User user) {
-        String sql = "INSERT INTO users(full_name, id_type, id_number, email, phone, password_hash, allow_location) VALUES(?,?,?,?,?,?,1)";
-        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, user.fullName);
-            ps.setString(2, user.idType);
-            ps.setString(3, user.idNumber);
-            ps.setString(4, user.email);
-            ps.setString(5, user.phone);
-            ps.setString(6, PasswordUtil.hashPassword(user.password.toCharArray()));
-            ps.executeUpdate();
+    /**
+     * Stores a new user and returns it with its generated id, or null on failure (see getLastError()).
+     */
+    public User register(User user) {
+        try {
+            User stored = storage.insertUser(user, PasswordUtil.hashPassword(user.password.toCharArray()));
             saveSession(user.email);
             lastError = null;
-            return true;
+            return new User(stored.id, user.fullName, user.idType, user.idNumber, user.email, user.phone, user.password);
         } catch (SQLException e) {
             // Duplicate email (unique key) or other errors
             String sqlState = e.getSQLState();
-            if (sqlState != null && (sqlState.equals("23000") || sqlState.startsWith("23"))) {
+            if (Outbox.isOffline(e)) {
+                // The account id comes from the database, so registering needs it
+                System.err.println("Register failed - database unreachable: " + e.getMessage());
+                lastError = "The database is unreachable. Registering needs a connection; please try again later.";
+            } else if (sqlState != null && (sqlState.equals("23000") || sqlState.startsWith("23"))) {
                 // Integrity constraint violation
                 System.err.println("Register failed - duplicate or constraint: " + e.getMessage());
                 lastError = "Email already registered (constraint).";
@@ -56,48 +57,40 @@ public class UserManager {
                 System.err.println("Register failed: " + e.getMessage());
                 lastError = e.getMessage();
             }
-            return false;
+            return null;
         }
     }
 
-    public boolean login(String email, String password) {
-        String sql = "SELECT password_hash FROM users WHERE email = ?";
-        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, email);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    boolean ok = PasswordUtil.verifyPassword(password.toCharArray(), rs.getString(1));
-                    if (ok) { saveSession(email); lastError = null; }
-                    else lastError = "Invalid email or password.";
-                    return ok;
-                }
+    /**
+     * Verifies the credentials and returns the user (including its id), or null on failure (see getLastError()).
+     * While the database is unreachable, an account that has signed in on this computer before is checked
+     * against its offline copy.
+     */
+    public User login(String email, String password) {
+        try {
+            User user = storage.findUser(email);
+            if (user == null) {
                 lastError = "User not found.";
-                return false;
+                return null;
             }
+            if (!PasswordUtil.verifyPassword(password.toCharArray(), user.password)) {
+                lastError = "Invalid email or password.";
+                return null;
+            }
+            saveSession(email);
+            lastError = null;
+            return user;
         } catch (SQLException e) {
             System.err.println("Login failed: " + e.getMessage());
-            lastError = e.getMessage();
-            return false;
+            lastError = Outbox.isOffline(e) ? "The database is unreachable and this account has not signed in on this computer before." : e.getMessage();
+            return null;
         }
     }
 
+    /** Looks up an account; on MySQL this falls back to its offline copy while the database is unreachable. */
     public User getUser(String email) {
-        String sql = "SELECT full_name, id_type, id_number, email, phone, password_hash FROM users WHERE email = ?";
-        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, email);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return new User(
-                            rs.getString(1), // full_name
-                            rs.getString(2), // id_type
-                            rs.getString(3), // id_number
-                            rs.getString(4), // email
-                            rs.getString(5), // phone
-                            rs.getString(6)  // password_hash (not used directly)
-                    );
-                }
-                return null;
-            }
+        try {
+            return storage.findUser(email);
         } catch (SQLException e) {
             System.err.println("getUser failed: " + e.getMessage());
             return null;
@@ -105,35 +98,25 @@ public class UserManager {
     }
 
     public Optional<User> getCurrentSessionUser() {
-        if (!Files.exists(sessionFile)) return Optional.empty();
-        try {
-            String email = new String(Files.readAllBytes(sessionFile), StandardCharsets.UTF_8).trim();
-            if (email.isEmpty()) return Optional.empty();
-            return Optional.ofNullable(getUser(email));
-        } catch (IOException ex) {
-            return Optional.empty();
-        }
+        String email = storage.loadSession();
+        if (email == null) return Optional.empty();
+        return Optional.ofNullable(getUser(email));
     }
 
     public void saveSession(String email) {
-        try {
-            Files.write(sessionFile, email.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException ex) {
-            System.err.println("Failed to save session: " + ex.getMessage());
-        }
+        storage.saveSession(email);
     }
 
     public void clearSession() {
-        try {
-            if (Files.exists(sessionFile)) {
-                Files.delete(sessionFile);
-            }
-        } catch (IOException ex) {
-            System.err.println("Failed to clear session: " + ex.getMessage());
-        }
+        storage.clearSession();
     }
 
     public String getLastError() {
         return lastError;
     }
+
+    /** True if the last sign-in used the offline copy because the database was unreachable. */
+    public boolean isOffline() {
+        return storage.isOffline();
+    }
 }
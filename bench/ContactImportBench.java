@@ -0,0 +1,139 @@
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Imports a CSV file of N contacts (100,000 by default) through {@link ContactTransfer} and times it. About
+ * 2% of the rows repeat an earlier number and 1% have a bad one. It then exports the contacts to CSV and vCard,
+ * imports the vCard file for a second user and checks that the two users end up with the same contacts. A few
+ * hand-written vCard 3.0 and 4.0 cards check the parser. Finally it times adding contacts one by one, as the form
+ * does, for comparison. Uses the embedded backend in temporary files; --mysql uses db.properties (add
+ * rewriteBatchedStatements=true to db.url) and deletes its bench users at the end.
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out *.java bench/*.java
+ * java -cp out ContactImportBench 100000
+ * </pre>
+ */
+public class ContactImportBench {
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : 100_000;
+        boolean mysql = Arrays.asList(args).contains("--mysql");
+        Path dir = Files.createTempDirectory("sos-import");
+        Path file = dir.resolve("sos.db");
+        Storage storage = mysql ? new MySqlStorage(new Database("db.properties")) : new EmbeddedStorage(file);
+        List<Integer> users = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                users.add(storage.insertUser(new UserManager.User("Import Bench", "bench", "0",
+                        "import-bench-" + i + "-" + System.nanoTime() + "@example.invalid", "0", "x"), "hash").id);
+            }
+            run(storage, users, dir, n);
+            System.out.println("all checks passed");
+        } finally {
+            if (mysql) {
+                try (Connection conn = ((MySqlStorage) storage).getDatabase().getConnection();
+                     PreparedStatement ps = conn.prepareStatement("DELETE FROM users WHERE id = ?")) {
+                    for (int id : users) {
+                        ps.setInt(1, id);
+                        ps.executeUpdate(); // contacts go with them (ON DELETE CASCADE)
+                    }
+                }
+            }
+            storage.close();
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) Files.delete(p);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static void run(Storage storage, List<Integer> users, Path dir, int n) throws Exception {
+        Path csv = dir.resolve("in.csv");
+        int bad = 0, repeated = 0;
+        Random rnd = new Random(42);
+        Set<Long> numbers = new HashSet<>();
+        try (BufferedWriter out = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            out.write("First Name,Last Name,Phone 1 - Type,Phone 1 - Value\r\n");
+            for (int i = 0; i < n; i++) {
+                long number = 919_000_000_000L + i;
+                if (i > 0 && rnd.nextInt(50) == 0) number = 919_000_000_000L + rnd.nextInt(i); // repeats an earlier row
+                String phone = "+" + number / 10_000_000_000L + " " + number % 10_000_000_000L;
+                if (rnd.nextInt(100) == 0) {
+                    phone = "12345"; // no country code
+                    bad++;
+                } else if (!numbers.add(number)) {
+                    repeated++;
+                }
+                String last = i % 10 == 0 ? "\"Smith, Jr.\"" : "Patel";
+                out.write("Contact " + i + "," + last + ",Mobile," + phone + "\r\n");
+            }
+        }
+        System.out.printf("wrote %,d rows (%.1f MB), %,d repeated numbers, %,d bad ones%n", n, Files.size(csv) / 1e6, repeated, bad);
+
+        int first = users.get(0), second = users.get(1), third = users.get(2);
+        long t = System.nanoTime();
+        ContactTransfer.Result r = new ContactTransfer(storage, first, 1000).importFrom(csv, null);
+        double ms = (System.nanoTime() - t) / 1e6;
+        System.out.printf("import csv:   %8.0f ms, %,.0f rows/s: %,d added, %,d duplicates, %,d failed%n",
+                ms, n / (ms / 1000), r.added, r.duplicates, r.failed);
+        check(r.read == n, "every row is read");
+        check(r.failed == bad, "bad numbers are reported");
+        check(r.duplicates == repeated, "repeated numbers are skipped");
+        check(r.added == n - bad - repeated, "the rest is added");
+        check(storage.countContacts(first) == r.added, "the storage holds what was added");
+        check(r.errors.get(0).contains("12345"), "an error names the row's number");
+        check(storage.loadContacts(first).stream().anyMatch(c -> c.getName().equals("Contact 0 Smith, Jr.")), "quoted commas are kept");
+
+        for (ContactTransfer.Format format : ContactTransfer.Format.values()) {
+            Path out = dir.resolve("out." + format.extension);
+            t = System.nanoTime();
+            long written = new ContactTransfer(storage, first, 1000).export(format, out, null);
+            System.out.printf("export %-6s %7.0f ms, %.1f MB%n", format.extension + ":", (System.nanoTime() - t) / 1e6, Files.size(out) / 1e6);
+            check(written == r.added, "the export has every contact");
+        }
+        t = System.nanoTime();
+        ContactTransfer.Result again = new ContactTransfer(storage, second, 1000).importFrom(dir.resolve("out.vcf"), null);
+        System.out.printf("import vcard: %8.0f ms%n", (System.nanoTime() - t) / 1e6);
+        check(again.added == r.added && again.failed == 0, "the vCard export imports whole");
+        List<ContactModel> a = storage.loadContacts(first), b = storage.loadContacts(second);
+        for (int i = 0; i < a.size(); i++) {
+            // An export is newest first, so re-importing it reverses the order
+            ContactModel x = a.get(i), y = b.get(b.size() - 1 - i);
+            check(x.getName().equals(y.getName()) && x.getPhoneNumber().equals(y.getPhoneNumber()), "contact " + i + " survives export and import");
+        }
+        check(new ContactTransfer(storage, first, 1000).importFrom(dir.resolve("out.csv"), null).duplicates == r.added,
+                "importing the CSV export again only finds duplicates");
+
+        Path cards = dir.resolve("cards.vcf");
+        Files.write(cards, ("BEGIN:VCARD\r\nVERSION:3.0\r\nFN:Ann\r\n  Lee\\, MD\r\nTEL;TYPE=HOME:+44 20 7946 0000\r\n"
+                + "TEL;TYPE=CELL:+44 7700 900123\r\nEND:VCARD\r\n"
+                + "BEGIN:VCARD\r\nVERSION:4.0\r\nN:Rao;Ravi;;;\r\nitem1.TEL;VALUE=uri;TYPE=\"cell,voice\":tel:+91-98765-43210;ext=2\r\nEND:VCARD\r\n"
+                + "BEGIN:VCARD\r\nVERSION:4.0\r\nFN:No Number\r\nEND:VCARD\r\n").getBytes(StandardCharsets.UTF_8));
+        ContactTransfer.Result small = new ContactTransfer(storage, third, 1000).importFrom(cards, null);
+        check(small.added == 2 && small.failed == 1 && small.errors.get(0).startsWith("line 13:"), "cards are read and the bad one reported");
+        List<ContactModel> c = storage.loadContacts(third);
+        check(c.get(1).getName().equals("Ann Lee, MD") && c.get(1).getPhoneNumber().equals("+447700900123"), "folded FN and the mobile TEL");
+        check(c.get(0).getName().equals("Ravi Rao") && c.get(0).getPhoneNumber().equals("+919876543210"), "N and a tel: URI");
+
+        // For comparison: the add form's path, one call (and commit or disk sync) per contact
+        int sample = Math.min(n, 2_000);
+        t = System.nanoTime();
+        for (int i = 0; i < sample; i++) storage.addContact(users.get(3), "Contact " + i, "+" + (919_000_000_000L + i));
+        ms = (System.nanoTime() - t) / 1e6;
+        System.out.printf("one by one:   %8.2f ms per contact, about %,.0f s for %,d%n", ms / sample, ms / sample * n / 1000, n);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * In-memory benchmark for {@link ContactIndex}; needs no database. Builds the index over N synthetic contacts
+ * (50,000 by default) and reports the build time, the heap it takes per contact and the latency of queries
+ * typed one keystroke at a time, by name and by number, capped at the default contacts.searchLimit. It also times adding and removing single contacts, and
+ * checks a sample of results against a scan of the whole list.
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out *.java bench/*.java
+ * java -cp out ContactIndexBench 50000
+ * </pre>
+ */
+public class ContactIndexBench {
+    private static final String[] FIRST = {
+            "Aarav", "Aditi", "Amit", "Ananya", "Anna", "Arjun", "Ben", "Chloe", "Deepak", "Divya", "Emma", "Farhan",
+            "Gaurav", "Hannah", "Isha", "Jack", "Kavya", "Liam", "Meera", "Mohan", "Neha", "Noah", "Olivia", "Priya",
+            "Rahul", "Ravi", "Riya", "Sanjay", "Sara", "Sneha", "Tom", "Vikram", "Yash", "Zoe"
+    };
+    private static final String[] LAST = {
+            "Agarwal", "Bose", "Brown", "Chopra", "Das", "Fernandes", "Gupta", "Iyer", "Jones", "Joshi", "Kapoor",
+            "Khan", "Kumar", "Mehta", "Menon", "Nair", "Patel", "Rao", "Reddy", "Shah", "Sharma", "Singh", "Smith",
+            "Taylor", "Verma", "Williams"
+    };
+    private static final int ROUNDS = 2_000;
+    private static final int LIMIT = 200; // contacts.searchLimit's default
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        Random rnd = new Random(42);
+        List<ContactModel> contacts = new ArrayList<>(n);
+        for (int i = n; i >= 1; i--) { // newest first, as loadContacts returns them
+            String name = FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)] + (rnd.nextInt(4) == 0 ? " Office" : "");
+            String phone = "+91 " + (70_000 + rnd.nextInt(30_000)) + " " + (10_000 + rnd.nextInt(90_000));
+            contacts.add(new ContactModel(i, name, phone));
+        }
+
+        Runtime rt = Runtime.getRuntime();
+        long before = usedHeap(rt);
+        long t = System.nanoTime();
+        ContactIndex index = new ContactIndex(contacts);
+        System.out.printf("built over %,d contacts in %.1f ms%n", n, (System.nanoTime() - t) / 1e6);
+        long after = usedHeap(rt);
+        System.out.printf("heap:          %.1f MB, %.0f bytes per contact (not counting the contacts)%n",
+                (after - before) / 1e6, (after - before) / (double) n);
+
+        // One query per keystroke, as the search field sends them
+        List<String> typed = new ArrayList<>();
+        for (String q : new String[]{"priya", "sharma", "an sm", "rahul office", "+91 78", "43210", "zz"}) {
+            for (int i = 1; i <= q.length(); i++) typed.add(q.substring(0, i));
+        }
+        for (int i = 0; i < ROUNDS; i++) typed.add(contacts.get(rnd.nextInt(n)).getPhoneNumber().substring(12)); // last digits
+        // Warm up long enough that the JIT is done: on a single core its compiles otherwise show up as multi-ms outliers
+        for (int round = 0; round < 20; round++) for (String q : typed) index.search(q, LIMIT);
+        for (String q : new String[]{"p", "pr", "priya", "an sm", "+91 78", "43210"}) {
+            long[] nanos = new long[ROUNDS];
+            int hits = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long s = System.nanoTime();
+                hits = index.search(q, LIMIT).size();
+                nanos[i] = System.nanoTime() - s;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("search %-8s p50 %7.1f us, p99 %7.1f us, max %7.1f us, %,6d shown%n", '"' + q + '"',
+                    nanos[ROUNDS / 2] / 1e3, nanos[ROUNDS * 99 / 100] / 1e3, nanos[ROUNDS - 1] / 1e3, hits);
+        }
+        long[] nanos = new long[typed.size()];
+        for (int i = 0; i < typed.size(); i++) {
+            long s = System.nanoTime();
+            index.search(typed.get(i), LIMIT);
+            nanos[i] = System.nanoTime() - s;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("every keystroke (%,d): p50 %.1f us, p99 %.1f us, max %.1f us%n", nanos.length,
+                nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3, nanos[nanos.length - 1] / 1e3);
+
+        // Incremental updates: an add, an edit and a delete, as ContactManager does them
+        long[] addNanos = new long[ROUNDS], editNanos = new long[ROUNDS], removeNanos = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            ContactModel c = new ContactModel(n + 1 + i, "Added " + FIRST[i % FIRST.length], "+91 99999 " + (10_000 + i));
+            long s = System.nanoTime();
+            index.add(c);
+            addNanos[i] = System.nanoTime() - s;
+            ContactModel edited = c.withDetails("Edited " + LAST[i % LAST.length], c.getPhoneNumber());
+            s = System.nanoTime();
+            index.remove(c);
+            index.add(edited);
+            editNanos[i] = System.nanoTime() - s;
+            s = System.nanoTime();
+            index.remove(edited);
+            removeNanos[i] = System.nanoTime() - s;
+        }
+        Arrays.sort(addNanos);
+        Arrays.sort(editNanos);
+        Arrays.sort(removeNanos);
+        System.out.printf("add p50 %.1f us, edit p50 %.1f us, delete p50 %.1f us%n",
+                addNanos[ROUNDS / 2] / 1e3, editNanos[ROUNDS / 2] / 1e3, removeNanos[ROUNDS / 2] / 1e3);
+        check(index.size() == n, "the index is back to its size after removing what was added");
+
+        // Results must be what a scan finds, in list order
+        for (String q : typed.subList(0, 60)) {
+            List<ContactModel> expected = new ArrayList<>();
+            for (ContactModel c : contacts) if (matches(c, q)) expected.add(c);
+            check(index.search(q, Integer.MAX_VALUE).equals(expected), "search \"" + q + "\" matches a full scan");
+            check(index.search(q, LIMIT).equals(expected.subList(0, Math.min(LIMIT, expected.size()))),
+                    "search \"" + q + "\" keeps the newest " + LIMIT);
+        }
+        ContactModel unsaved = new ContactModel("Priya Unsaved", "+91 70000 00000");
+        index.add(unsaved);
+        check(index.search("priya u", LIMIT).equals(List.of(unsaved)), "a contact without an id is found");
+        check(index.search("pri", LIMIT).get(0) == unsaved, "a contact without an id comes first");
+        System.out.println("all checks passed");
+    }
+
+    /** The rules in ContactIndex's class comment, by brute force. */
+    private static boolean matches(ContactModel c, String query) {
+        List<String> nameWords = ContactIndex.words(c.getName());
+        List<String> queryWords = ContactIndex.words(query);
+        boolean byName = !queryWords.isEmpty();
+        for (String q : queryWords) {
+            boolean found = false;
+            for (String w : nameWords) found |= w.startsWith(q);
+            byName &= found;
+        }
+        String digits = ContactIndex.digits(query);
+        boolean numberLike = !digits.isEmpty() && query.matches("[0-9 +\\-().]*");
+        String phone = ContactIndex.digits(c.getPhoneNumber());
+        return byName || (numberLike && (phone.startsWith(digits) || phone.endsWith(digits)));
+    }
+
+    private static long usedHeap(Runtime rt) {
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
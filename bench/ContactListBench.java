@@ -0,0 +1,206 @@
+import javax.swing.SwingUtilities;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a contact list of N contacts (20,000 by default) the way the app does and compares it with loading
+ * every contact: time to the first screen, a jump to the end of the list, and the contacts held in memory.
+ * It also checks that the paged list shows the same contacts in the same order as {@link Storage#loadContacts},
+ * including after adds and deletes, and times edits made through {@link ContactManager}. Uses the embedded
+ * backend in a temporary file; --mysql uses db.properties and deletes its bench user at the end.
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out *.java bench/*.java
+ * java -cp out ContactListBench 20000
+ * </pre>
+ */
+public class ContactListBench {
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : 20_000;
+        boolean mysql = Arrays.asList(args).contains("--mysql");
+        Path file = Files.createTempFile("sos", ".db");
+        Storage storage = mysql ? new MySqlStorage(new Database("db.properties")) : new EmbeddedStorage(file);
+        UserManager.User user = null;
+        try {
+            user = storage.insertUser(new UserManager.User("List Bench", "bench", "0", "list-bench-" + System.nanoTime() + "@example.invalid", "0", "x"), "hash");
+            long t = System.nanoTime();
+            for (int i = 0; i < n; i++) storage.addContact(user.id, "Contact " + i, "91" + (9_000_000_000L + i));
+            System.out.printf("added %,d contacts in %.0f ms%n", n, (System.nanoTime() - t) / 1e6);
+            run(storage, user.id, n);
+            System.out.println("all checks passed");
+        } finally {
+            if (mysql && user != null) {
+                try (Connection conn = ((MySqlStorage) storage).getDatabase().getConnection();
+                     PreparedStatement ps = conn.prepareStatement("DELETE FROM users WHERE id = ?")) {
+                    ps.setInt(1, user.id);
+                    ps.executeUpdate(); // contacts go with it (ON DELETE CASCADE)
+                }
+            }
+            storage.close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".lock"));
+        }
+    }
+
+    private static void run(Storage storage, int userId, int n) throws Exception {
+        long t = System.nanoTime();
+        List<ContactModel> all = storage.loadContacts(userId);
+        System.out.printf("load all:          %8.1f ms, %,d contacts held%n", (System.nanoTime() - t) / 1e6, all.size());
+
+        ContactListModel model = onEdt(() -> new ContactListModel(storage, userId));
+        t = System.nanoTime();
+        onEdt(model::reload).get(30, TimeUnit.SECONDS);
+        awaitLoaded(model, 0, 30);
+        System.out.printf("first screen:      %8.1f ms%n", (System.nanoTime() - t) / 1e6);
+        check(onEdt(model::getSize) == n, "the size is the number of contacts");
+
+        t = System.nanoTime();
+        onEdt(() -> { model.prefetch(n - 30, n - 1); return null; });
+        awaitLoaded(model, n - 30, n - 1);
+        System.out.printf("jump to the end:   %8.1f ms%n", (System.nanoTime() - t) / 1e6);
+        for (int first = 0; first < n; first += 30) {
+            int from = first;
+            onEdt(() -> { model.prefetch(from, Math.min(n - 1, from + 29)); return null; });
+        }
+        t = System.nanoTime();
+        awaitLoaded(model, n - 30, n - 1);
+        System.out.printf("scrolled through:  %8.1f ms after the last scroll%n", (System.nanoTime() - t) / 1e6);
+        int held = loadedRows(model);
+        System.out.printf("contacts held:     %,8d of %,d%n", held, n);
+        check(held <= ContactListModel.MAX_PAGES * ContactListModel.PAGE_SIZE, "at most MAX_PAGES pages are kept");
+        checkSame(storage, userId, model);
+
+        // Back to the top and local changes there: the loaded rows move along, nothing is fetched again
+        onEdt(() -> { model.prefetch(0, 29); return null; });
+        awaitLoaded(model, 0, 29);
+        int heldBefore = loadedRows(model);
+        int id = storage.addContact(userId, "Newest", "555-0100");
+        onEdt(() -> {
+            model.add(0, new ContactModel(id, "Newest", "555-0100"));
+            model.remove(250);
+            return null;
+        });
+        check(onEdt(() -> model.indexOf(new ContactModel(id, "", ""))) == 0, "a loaded contact is found by id");
+        check(loadedRows(model) >= heldBefore - ContactListModel.MAX_PAGES, "the loaded pages stay loaded");
+        ContactModel gone = storage.loadContacts(userId).get(250);
+        storage.deleteContact(userId, gone);
+        checkSame(storage, userId, model);
+
+        editThroughManager(storage, userId);
+    }
+
+    /**
+     * Edits contacts through a {@link ContactManager} feeding a {@link SosStandby}, timing the part that runs on
+     * the EDT, then checks that its model and the SOS payload have every contact with its edits.
+     */
+    private static void editThroughManager(Storage storage, int userId) throws Exception {
+        SosStandby standby = new SosStandby();
+        ContactManager manager = onEdt(() -> new ContactManager(storage, userId, new AppConfig(new Properties()), standby));
+        List<ContactModel> all = storage.loadContacts(userId);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (standby.getSnapshot().contacts.size() != all.size()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("the SOS payload never got the contacts");
+            Thread.sleep(10);
+        }
+        int edits = 200;
+        long[] nanos = new long[edits];
+        List<CompletableFuture<Void>> stored = new ArrayList<>();
+        for (int i = 0; i < edits; i++) {
+            int at = i;
+            ContactModel c = all.get(i * (all.size() / edits));
+            stored.add(onEdt(() -> {
+                long t = System.nanoTime();
+                CompletableFuture<Void> f = manager.editContact(c, "Edited " + at, c.getPhoneNumber());
+                nanos[at] = System.nanoTime() - t;
+                return f;
+            }));
+        }
+        CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        Arrays.sort(nanos);
+        System.out.printf("edit, on the EDT:  %8.3f ms p50, %.3f ms max, %,d contacts%n", nanos[edits / 2] / 1e6, nanos[edits - 1] / 1e6, all.size());
+        // The manager's model copies its pages from the full list; after the edits it still shows what the storage has
+        ContactListModel served = manager.getContactsListModel();
+        long t = System.nanoTime();
+        onEdt(() -> { served.prefetch(all.size() - 30, all.size() - 1); return null; });
+        awaitLoaded(served, all.size() - 30, all.size() - 1);
+        System.out.printf("end, from memory:  %8.1f ms%n", (System.nanoTime() - t) / 1e6);
+        checkSame(storage, userId, served);
+        onEdt(() -> { manager.close(); return null; });
+
+        // The payload follows on its own thread; give it a moment
+        int named = 0;
+        for (int tries = 0; tries < 100 && named != edits; tries++) {
+            if (tries > 0) Thread.sleep(10);
+            named = 0;
+            for (SosStandby.PreparedContact pc : standby.getSnapshot().contacts) if (pc.contact.getName().startsWith("Edited ")) named++;
+        }
+        check(named == edits, "the SOS payload has every edit");
+        check(standby.getSnapshot().contacts.size() == all.size(), "the SOS payload has every contact");
+    }
+
+    private static int loadedRows(ContactListModel model) throws Exception {
+        return onEdt(() -> {
+            int loaded = 0;
+            for (int i = 0; i < model.getSize(); i++) if (model.getElementAt(i) != ContactListModel.LOADING) loaded++;
+            return loaded;
+        });
+    }
+
+    /** Scrolls the model top to bottom and compares every row with the full list. */
+    private static void checkSame(Storage storage, int userId, ContactListModel model) throws Exception {
+        List<ContactModel> all = storage.loadContacts(userId);
+        check(onEdt(model::getSize) == all.size(), "the size matches the storage");
+        for (int first = 0; first < all.size(); first += ContactListModel.PAGE_SIZE) {
+            int from = first, to = Math.min(all.size() - 1, first + ContactListModel.PAGE_SIZE - 1);
+            onEdt(() -> { model.prefetch(from, to); return null; });
+            awaitLoaded(model, from, to);
+            for (int i = from; i <= to; i++) {
+                int row = i;
+                ContactModel shown = onEdt(() -> model.getElementAt(row));
+                check(shown.getId() == all.get(i).getId() && shown.getName().equals(all.get(i).getName()),
+                        "row " + i + " shows the contact loadContacts lists there");
+            }
+        }
+    }
+
+    private static void awaitLoaded(ContactListModel model, int first, int last) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (true) {
+            boolean done = onEdt(() -> {
+                for (int i = first; i <= last; i++) if (model.getElementAt(i) == ContactListModel.LOADING) return false;
+                return true;
+            });
+            if (done) return;
+            if (System.nanoTime() > deadline) throw new AssertionError("rows " + first + ".." + last + " never loaded");
+            Thread.sleep(1);
+        }
+    }
+
+    private static <T> T onEdt(Callable<T> work) throws Exception {
+        Object[] result = new Object[1];
+        Exception[] error = new Exception[1];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result[0] = work.call();
+            } catch (Exception e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) throw error[0];
+        @SuppressWarnings("unchecked") T t = (T) result[0];
+        return t;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,118 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Throughput benchmark for {@link LocationAnalytics} aggregation; needs no database. It feeds N synthetic fixes
+ * (5,000,000 by default) from 10,000 users, in chunks of 50,000 as read from the table, once with one thread
+ * and once with every core, and reports rows per second. It also checks that aggregating in two halves
+ * through a saved state gives the same heatmap and dwells as one pass.
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out *.java bench/*.java
+ * java -cp out LocationAnalyticsBench 5000000
+ * </pre>
+ */
+public class LocationAnalyticsBench {
+    private static final int USERS = 10_000;
+    private static final int CHUNK = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        run(rows, 1);
+        if (cores > 1) run(rows, cores);
+        checkIncremental(Math.min(rows, 1_000_000));
+    }
+
+    private static LocationAnalytics.State run(int rows, int threads) {
+        LocationAnalytics analytics = analytics(threads);
+        LocationAnalytics.State state = analytics.newState();
+        Generator gen = new Generator();
+        // Warm-up on a separate state
+        LocationAnalytics.State warm = analytics.newState();
+        for (int i = 0; i < 10; i++) analytics.aggregate(gen.next(CHUNK), warm);
+
+        gen = new Generator();
+        long generating = 0, started = System.nanoTime();
+        for (int done = 0; done < rows; done += CHUNK) {
+            long g = System.nanoTime();
+            List<LocationAnalytics.Fix> chunk = gen.next(Math.min(CHUNK, rows - done));
+            generating += System.nanoTime() - g;
+            analytics.aggregate(chunk, state);
+        }
+        double seconds = (System.nanoTime() - started - generating) / 1e9;
+        System.out.printf("%d thread(s): %,d rows in %.2f s = %,.0f rows/s (%,d cells, %,d dwells)%n",
+                threads, rows, seconds, rows / seconds, state.getHeat().cells(), state.getDwells().size());
+        return state;
+    }
+
+    private static void checkIncremental(int rows) throws Exception {
+        LocationAnalytics analytics = analytics(Runtime.getRuntime().availableProcessors());
+        Generator gen = new Generator();
+        List<List<LocationAnalytics.Fix>> chunks = new ArrayList<>();
+        for (int done = 0; done < rows; done += CHUNK) chunks.add(gen.next(Math.min(CHUNK, rows - done)));
+
+        LocationAnalytics.State once = analytics.newState();
+        for (List<LocationAnalytics.Fix> c : chunks) analytics.aggregate(c, once);
+
+        LocationAnalytics.State first = analytics.newState();
+        for (List<LocationAnalytics.Fix> c : chunks.subList(0, chunks.size() / 2)) analytics.aggregate(c, first);
+        Path file = Files.createTempFile("analytics", ".state");
+        first.save(file);
+        LocationAnalytics.State resumed = LocationAnalytics.State.load(file);
+        Files.delete(file);
+        for (List<LocationAnalytics.Fix> c : chunks.subList(chunks.size() / 2, chunks.size())) analytics.aggregate(c, resumed);
+
+        if (!once.getHeat().counts.equals(resumed.getHeat().counts)) throw new AssertionError("heatmaps differ");
+        if (once.getDwells().size() != resumed.getDwells().size()) throw new AssertionError("dwell counts differ");
+        System.out.printf("incremental run over a saved state matches a single pass (%,d rows, %,d dwells)%n",
+                rows, once.getDwells().size());
+    }
+
+    private static LocationAnalytics analytics(int threads) {
+        Properties props = new Properties();
+        props.setProperty("analytics.threads", Integer.toString(threads));
+        return new LocationAnalytics(null, new AppConfig(props));
+    }
+
+    /**
+     * Users around a city, one fix a minute each in id order: they walk, and now and then stop for
+     * 10 to 90 minutes.
+     */
+    private static class Generator {
+        private final Random random = new Random(42);
+        private final double[] lat = new double[USERS], lon = new double[USERS];
+        private final int[] stopLeft = new int[USERS];
+        private long id = 0;
+        private long time = 1_700_000_000_000L;
+
+        Generator() {
+            for (int u = 0; u < USERS; u++) {
+                lat[u] = 12.97 + random.nextGaussian() * 0.1;
+                lon[u] = 77.59 + random.nextGaussian() * 0.1;
+            }
+        }
+
+        List<LocationAnalytics.Fix> next(int n) {
+            List<LocationAnalytics.Fix> chunk = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int u = (int) (id % USERS);
+                if (u == 0) time += 60_000;
+                if (stopLeft[u] > 0) {
+                    stopLeft[u]--;
+                } else if (random.nextInt(200) == 0) {
+                    stopLeft[u] = 10 + random.nextInt(80);
+                } else {
+                    lat[u] += random.nextGaussian() * 0.002;
+                    lon[u] += random.nextGaussian() * 0.002;
+                }
+                chunk.add(new LocationAnalytics.Fix(++id, u + 1, lat[u] + random.nextGaussian() * 1e-5, lon[u] + random.nextGaussian() * 1e-5, time));
+            }
+            return chunk;
+        }
+    }
+}
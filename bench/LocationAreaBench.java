@@ -0,0 +1,178 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark for {@link Database#findFixesInArea} against the database in db.properties. It loads N fixes
+ * (10,000,000 by default) for 1,000 synthetic users walking around a 50 km city over 30 days, then times
+ * 1 km x 1 km boxes over one-hour and one-day windows on idx_locations_geo_time, and a few of them without
+ * the index for comparison. The area query reads only the fixes in the covering cells during the window's
+ * hours, so its time should stay flat as the table grows; run it at 10M and at 100M+ rows to check:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp ".;mysql-connector-j-9.4.0.jar" -d out *.java bench/*.java
+ * java -cp "out;mysql-connector-j-9.4.0.jar" LocationAreaBench 10000000
+ * java -cp "out;mysql-connector-j-9.4.0.jar" LocationAreaBench 300000000 --keep
+ * </pre>
+ * Add rewriteBatchedStatements=true to db.url or loading takes much longer. The synthetic users (and their
+ * fixes) are deleted at the end unless --keep.
+ */
+public class LocationAreaBench {
+    private static final int USERS = 1000;
+    private static final int RUNS = 50;
+    private static final double CENTER_LAT = 12.9716, CENTER_LON = 77.5946;
+    private static final long SPAN_MS = 30 * 86_400_000L;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : 10_000_000;
+        boolean keep = Arrays.asList(args).contains("--keep");
+        Database db = new Database("db.properties");
+        List<Integer> users = new ArrayList<>();
+        try {
+            for (int i = 0; i < USERS; i++) users.add(createUser(db));
+            long start = System.currentTimeMillis() - SPAN_MS;
+            long t0 = System.nanoTime();
+            load(db, users, rows, start);
+            double loadSec = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("loaded %,d rows in %.1f s (%,.0f rows/s)%n", rows, loadSec, rows / loadSec);
+
+            Random random = new Random(7);
+            explain(db, random, start);
+            time("1 km box, 1 hour", db, random, start, 3_600_000L, RUNS, false);
+            time("1 km box, 1 day", db, random, start, 86_400_000L, RUNS, false);
+            time("1 km box, 30 days", db, random, start, SPAN_MS, 10, false);
+            time("1 km box, 1 hour, no index", db, random, start, 3_600_000L, 3, true);
+        } finally {
+            if (!keep) {
+                for (int id : users) deleteUser(db, id);
+            }
+            db.close();
+        }
+    }
+
+    private static void time(String name, Database db, Random random, long start, long windowMs, int runs, boolean noIndex) throws SQLException {
+        long[] samples = new long[runs];
+        long found = 0;
+        for (int i = 0; i < runs; i++) {
+            double[] box = randomBox(random);
+            long from = start + (long) (random.nextDouble() * Math.max(1, SPAN_MS - windowMs));
+            long t = System.nanoTime();
+            if (noIndex) {
+                found += scan(db, box, new Timestamp(from), new Timestamp(from + windowMs));
+            } else {
+                found += db.findFixesInArea(box[0], box[1], box[2], box[3], new Timestamp(from), new Timestamp(from + windowMs), 100_000).size();
+            }
+            samples[i] = System.nanoTime() - t;
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-28s median %9.2f ms   p90 %9.2f ms   %8.1f fixes/query%n", name,
+                samples[runs / 2] / 1e6, samples[runs * 9 / 10] / 1e6, found / (double) runs);
+    }
+
+    /** A 1 km x 1 km box somewhere in the city. */
+    private static double[] randomBox(Random random) {
+        double lat = CENTER_LAT + (random.nextDouble() - 0.5) * 0.4, lon = CENTER_LON + (random.nextDouble() - 0.5) * 0.4;
+        return new double[]{lat, lon, lat + 0.009, lon + 0.009};
+    }
+
+    /** The same filter without the spatial key: a scan of every row. */
+    private static long scan(Database db, double[] box, Timestamp from, Timestamp to) throws SQLException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM locations IGNORE INDEX (idx_locations_geo_time)"
+                     + " WHERE recorded_at >= ? AND recorded_at < ? AND latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ?")) {
+            ps.setTimestamp(1, from);
+            ps.setTimestamp(2, to);
+            ps.setDouble(3, box[0]);
+            ps.setDouble(4, box[2]);
+            ps.setDouble(5, box[1]);
+            ps.setDouble(6, box[3]);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static void explain(Database db, Random random, long start) throws SQLException {
+        double[] box = randomBox(random);
+        List<long[]> ranges = GeoCells.cover(box[0], box[1], box[2], box[3], 16);
+        int hour = GeoCells.hourBucket(start + SPAN_MS / 2);
+        StringBuilder sql = new StringBuilder("EXPLAIN SELECT id FROM locations WHERE hour_bucket IN (?, ?) AND (");
+        for (int i = 0; i < ranges.size(); i++) sql.append(i == 0 ? "" : " OR ").append("geohash BETWEEN ? AND ?");
+        sql.append(")");
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            int i = 1;
+            ps.setInt(i++, hour);
+            ps.setInt(i++, hour + 1);
+            for (long[] r : ranges) {
+                ps.setLong(i++, r[0]);
+                ps.setLong(i++, r[1]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) System.out.println("area plan: key=" + rs.getString("key") + ", type=" + rs.getString("type")
+                        + ", rows=" + rs.getString("rows") + ", " + ranges.size() + " cell range(s)");
+            }
+        }
+    }
+
+    private static int createUser(Database db) throws SQLException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement("INSERT INTO users(full_name, id_type, id_number, email, phone, password_hash)"
+                     + " VALUES('Area Bench', 'bench', '0', ?, '0', 'x')", Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, "area-bench-" + System.nanoTime() + "@example.invalid");
+            ps.executeUpdate();
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static void deleteUser(Database db, int userId) throws SQLException {
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement("DELETE FROM users WHERE id = ?")) {
+            ps.setInt(1, userId);
+            ps.executeUpdate(); // locations go with it (ON DELETE CASCADE)
+        }
+    }
+
+    /** Each user random-walks from a random start in the city; fixes are spread evenly over 30 days. */
+    private static void load(Database db, List<Integer> users, int rows, long start) throws SQLException {
+        Random random = new Random(42);
+        int n = users.size();
+        double[] lat = new double[n], lon = new double[n];
+        for (int u = 0; u < n; u++) {
+            lat[u] = CENTER_LAT + (random.nextDouble() - 0.5) * 0.45;
+            lon[u] = CENTER_LON + (random.nextDouble() - 0.5) * 0.45;
+        }
+        long stepMs = Math.max(1, SPAN_MS / Math.max(1, rows / n));
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement("INSERT INTO locations(user_id, latitude, longitude, recorded_at, hour_bucket, geohash)"
+                     + " VALUES(?, ?, ?, ?, ?, ?)")) {
+            conn.setAutoCommit(false);
+            for (int i = 0; i < rows; i++) {
+                int u = i % n;
+                long time = start + (long) (i / n) * stepMs;
+                lat[u] += random.nextGaussian() * 2e-4;
+                lon[u] += random.nextGaussian() * 2e-4;
+                ps.setInt(1, users.get(u));
+                ps.setDouble(2, lat[u]);
+                ps.setDouble(3, lon[u]);
+                ps.setTimestamp(4, new Timestamp(time));
+                ps.setInt(5, GeoCells.hourBucket(time));
+                ps.setLong(6, GeoCells.encode(lat[u], lon[u]));
+                ps.addBatch();
+                if ((i + 1) % 10_000 == 0 || i == rows - 1) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            }
+        }
+    }
+}
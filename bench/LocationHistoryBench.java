@@ -0,0 +1,165 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark for {@link LocationHistory} against the database in db.properties. It loads a synthetic user with
+ * N fixes (2,000,000 by default, one every 30 s) and then compares:
+ * OFFSET paging with keyset paging at the same depth, server-side downsampling of the whole range, and
+ * streaming every row, sampling heap use while it runs. The synthetic user is deleted at the end unless --keep.
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp ".;mysql-connector-j-9.4.0.jar" -d out *.java bench/*.java
+ * java -cp "out;mysql-connector-j-9.4.0.jar" LocationHistoryBench 2000000
+ * </pre>
+ * Add rewriteBatchedStatements=true to db.url or loading takes much longer.
+ */
+public class LocationHistoryBench {
+    private static final int RUNS = 20;
+    private static final int PAGE = 100;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : 2_000_000;
+        boolean keep = Arrays.asList(args).contains("--keep");
+        Database db = new Database("db.properties");
+        LocationHistory history = new LocationHistory(db);
+        int userId = createUser(db);
+        try {
+            long start = System.currentTimeMillis() - rows * 30_000L;
+            long t0 = System.nanoTime();
+            load(db, userId, rows, start);
+            System.out.printf("loaded %,d rows in %.1f s%n", rows, (System.nanoTime() - t0) / 1e9);
+
+            Timestamp from = new Timestamp(start), to = new Timestamp(System.currentTimeMillis() + 1000);
+            explain(db, userId, from, to);
+
+            // The same deep page read both ways
+            int depth = rows / 2;
+            Timestamp mid = new Timestamp(start + depth * 30_000L);
+            LocationHistory.Cursor cursor = new LocationHistory.Cursor(mid, 0);
+            report("keyset page, first", time(() -> history.page(userId, from, to, null, false, PAGE)));
+            report("keyset page, depth " + depth, time(() -> history.page(userId, from, to, cursor, false, PAGE)));
+            report("OFFSET page, first", time(() -> offsetPage(db, userId, from, to, 0)));
+            report("OFFSET page, depth " + depth, time(() -> offsetPage(db, userId, from, to, depth)));
+            report("downsample to 500 points", time(() -> history.downsample(userId, from, to, 500)));
+
+            Runtime rt = Runtime.getRuntime();
+            System.gc();
+            long baseHeap = rt.totalMemory() - rt.freeMemory();
+            long[] peak = {baseHeap, 0};
+            t0 = System.nanoTime();
+            long n = history.stream(userId, from, to, row -> {
+                if (++peak[1] % 50_000 == 0) peak[0] = Math.max(peak[0], rt.totalMemory() - rt.freeMemory());
+            });
+            System.out.printf("stream: %,d rows in %.1f s, heap grew by at most %,d KB%n",
+                    n, (System.nanoTime() - t0) / 1e9, (peak[0] - baseHeap) / 1024);
+        } finally {
+            if (!keep) deleteUser(db, userId);
+            db.close();
+        }
+    }
+
+    private interface Query {
+        void run() throws Exception;
+    }
+
+    private static long[] time(Query q) throws Exception {
+        q.run(); // warm-up
+        long[] samples = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long t = System.nanoTime();
+            q.run();
+            samples[i] = System.nanoTime() - t;
+        }
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    private static void report(String name, long[] samples) {
+        System.out.printf("%-32s median %8.2f ms   p90 %8.2f ms%n", name,
+                samples[samples.length / 2] / 1e6, samples[samples.length * 9 / 10] / 1e6);
+    }
+
+    private static void offsetPage(Database db, int userId, Timestamp from, Timestamp to, int offset) throws SQLException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT id, latitude, longitude, recorded_at FROM locations"
+                     + " WHERE user_id = ? AND recorded_at >= ? AND recorded_at < ? ORDER BY recorded_at, id LIMIT ? OFFSET ?")) {
+            ps.setInt(1, userId);
+            ps.setTimestamp(2, from);
+            ps.setTimestamp(3, to);
+            ps.setInt(4, PAGE);
+            ps.setInt(5, offset);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) rs.getLong(1);
+            }
+        }
+    }
+
+    private static void explain(Database db, int userId, Timestamp from, Timestamp to) throws SQLException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement("EXPLAIN SELECT id, latitude, longitude, recorded_at FROM locations"
+                     + " WHERE user_id = ? AND recorded_at < ? AND (recorded_at > ? OR (recorded_at = ? AND id > ?))"
+                     + " ORDER BY recorded_at, id LIMIT 101")) {
+            ps.setInt(1, userId);
+            ps.setTimestamp(2, to);
+            ps.setTimestamp(3, from);
+            ps.setTimestamp(4, from);
+            ps.setLong(5, 0);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) System.out.println("keyset plan: key=" + rs.getString("key") + ", type=" + rs.getString("type")
+                        + ", rows=" + rs.getString("rows") + ", extra=" + rs.getString("Extra"));
+            }
+        }
+    }
+
+    private static int createUser(Database db) throws SQLException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement("INSERT INTO users(full_name, id_type, id_number, email, phone, password_hash)"
+                     + " VALUES('History Bench', 'bench', '0', ?, '0', 'x')", Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, "history-bench-" + System.nanoTime() + "@example.invalid");
+            ps.executeUpdate();
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static void deleteUser(Database db, int userId) throws SQLException {
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement("DELETE FROM users WHERE id = ?")) {
+            ps.setInt(1, userId);
+            ps.executeUpdate(); // locations go with it (ON DELETE CASCADE)
+        }
+    }
+
+    /** A random walk around Bangalore, one fix every 30 s, committed every 10,000 rows. */
+    private static void load(Database db, int userId, int rows, long start) throws SQLException {
+        Random random = new Random(42);
+        double lat = 12.9716, lon = 77.5946;
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement("INSERT INTO locations(user_id, latitude, longitude, recorded_at, hour_bucket, geohash)"
+                     + " VALUES(?, ?, ?, ?, ?, ?)")) {
+            conn.setAutoCommit(false);
+            for (int i = 0; i < rows; i++) {
+                lat += random.nextGaussian() * 1e-4;
+                lon += random.nextGaussian() * 1e-4;
+                ps.setInt(1, userId);
+                ps.setDouble(2, lat);
+                ps.setDouble(3, lon);
+                ps.setTimestamp(4, new Timestamp(start + i * 30_000L));
+                ps.setInt(5, GeoCells.hourBucket(start + i * 30_000L));
+                ps.setLong(6, GeoCells.encode(lat, lon));
+                ps.addBatch();
+                if ((i + 1) % 10_000 == 0 || i == rows - 1) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * In-memory benchmark for {@link NearbyIndex}; needs no database. Indexes N users (1,000,000 by default), most
+ * of them clustered in a few cities and the rest spread worldwide, and reports the heap the index takes. It then
+ * times nearest-5-within-2-km lookups at random city points and checks a sample of them against a brute-force scan.
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out *.java bench/*.java
+ * java -cp out NearbyIndexBench 1000000
+ * </pre>
+ */
+public class NearbyIndexBench {
+    private static final double[][] CITIES = {
+            {19.076, 72.877}, {28.614, 77.209}, {12.972, 77.595}, {51.507, -0.128}, {40.713, -74.006}, {-33.869, 151.209}
+    };
+    private static final int QUERIES = 200_000;
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random rnd = new Random(42);
+        long now = System.currentTimeMillis();
+        double[][] positions = new double[users][];
+        for (int i = 0; i < users; i++) positions[i] = randomPoint(rnd);
+        Runtime rt = Runtime.getRuntime();
+        long before = usedHeap(rt);
+
+        long t0 = System.nanoTime();
+        NearbyIndex index = new NearbyIndex(0.01);
+        for (int i = 0; i < users; i++) index.put(i + 1, positions[i][0], positions[i][1], now);
+        System.out.printf("indexed %,d users in %.0f ms%n", users, (System.nanoTime() - t0) / 1e6);
+        long after = usedHeap(rt);
+        System.out.printf("index heap: %.0f MB, %.0f bytes per user%n", (after - before) / 1e6, (after - before) / (double) users);
+
+        // Warm up, then time
+        double[][] queries = new double[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) queries[i] = cityPoint(rnd, 0.2);
+        for (int i = 0; i < QUERIES; i++) index.nearest(queries[i][0], queries[i][1], 5, 2, 0, -1);
+        long[] nanos = new long[QUERIES];
+        long found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            long s = System.nanoTime();
+            found += index.nearest(queries[i][0], queries[i][1], 5, 2, 0, -1).size();
+            nanos[i] = System.nanoTime() - s;
+        }
+        java.util.Arrays.sort(nanos);
+        System.out.printf("nearest(5, 2 km): p50 %.1f us, p99 %.1f us, max %.1f us, %.2f hits/query%n",
+                nanos[QUERIES / 2] / 1e3, nanos[QUERIES * 99 / 100] / 1e3, nanos[QUERIES - 1] / 1e3, found / (double) QUERIES);
+
+        // Moving users: remove/put churn
+        t0 = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            int id = rnd.nextInt(users) + 1;
+            double[] p = randomPoint(rnd);
+            positions[id - 1] = p;
+            index.put(id, p[0], p[1], now + i);
+        }
+        System.out.printf("100,000 moves in %.0f ms%n", (System.nanoTime() - t0) / 1e6);
+
+        for (int q = 0; q < 50; q++) {
+            double[] p = cityPoint(rnd, 0.2);
+            List<NearbyIndex.Neighbor> got = index.nearest(p[0], p[1], 5, 2, 0, -1);
+            double[] expected = bruteForce(positions, p, 5, 2);
+            if (got.size() != expected.length) throw new AssertionError("query " + q + ": size " + got.size() + " != " + expected.length);
+            for (int i = 0; i < expected.length; i++) {
+                if (Math.abs(got.get(i).distanceKm - expected[i]) > 1e-9) throw new AssertionError("query " + q + ": distance mismatch");
+            }
+        }
+        System.out.println("50 lookups match brute force");
+    }
+
+    private static long usedHeap(Runtime rt) {
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static double[] randomPoint(Random rnd) {
+        if (rnd.nextInt(10) == 0) return new double[]{rnd.nextDouble() * 140 - 70, rnd.nextDouble() * 360 - 180};
+        return cityPoint(rnd, 0.3);
+    }
+
+    private static double[] cityPoint(Random rnd, double spreadDegrees) {
+        double[] c = CITIES[rnd.nextInt(CITIES.length)];
+        return new double[]{c[0] + rnd.nextGaussian() * spreadDegrees, c[1] + rnd.nextGaussian() * spreadDegrees};
+    }
+
+    private static double[] bruteForce(double[][] positions, double[] p, int n, double radiusKm) {
+        double[] best = new double[n];
+        int count = 0;
+        for (double[] u : positions) {
+            double d = NearbyIndex.distanceKm(p[0], p[1], u[0], u[1]);
+            if (d > radiusKm) continue;
+            if (count < n) {
+                best[count++] = d;
+            } else {
+                int worst = 0;
+                for (int i = 1; i < n; i++) if (best[i] > best[worst]) worst = i;
+                if (d < best[worst]) best[worst] = d;
+            }
+        }
+        double[] result = java.util.Arrays.copyOf(best, count);
+        java.util.Arrays.sort(result);
+        return result;
+    }
+}
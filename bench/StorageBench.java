@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the same scenario against a {@link Storage} backend and times it: opening, adding, editing and deleting
+ * contacts, loading the list, saving and finding fixes, and the session. Along the way it checks the results
+ * every backend must agree on (list order, contact ids, duplicate emails, update/delete semantics, session round trip), so
+ * running it against both backends shows they behave the same. By default it uses the embedded backend in a
+ * temporary file and also checks that everything survives reopening the file; --mysql uses db.properties.
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out *.java bench/*.java
+ * java -cp out StorageBench 1000
+ * java -cp "out;mysql-connector-j-9.4.0.jar" StorageBench 1000 --mysql
+ * </pre>
+ * On MySQL the bench user (and with it the bench contacts and fixes) is deleted at the end, and session.txt
+ * is put back as it was.
+ */
+public class StorageBench {
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : 1000;
+        boolean mysql = Arrays.asList(args).contains("--mysql");
+        Path file = Files.createTempFile("sos", ".db");
+        long t0 = System.nanoTime();
+        Storage storage = mysql ? new MySqlStorage(new Database("db.properties")) : new EmbeddedStorage(file);
+        System.out.printf("%s: opened in %.1f ms%n", mysql ? "mysql" : "embedded", (System.nanoTime() - t0) / 1e6);
+        String oldSession = storage.loadSession();
+        UserManager.User user = null;
+        try {
+            user = run(storage, n);
+            if (!mysql) {
+                storage.close();
+                t0 = System.nanoTime();
+                storage = new EmbeddedStorage(file);
+                System.out.printf("reopened in %.1f ms%n", (System.nanoTime() - t0) / 1e6);
+                check(storage.findUser(user.email) != null, "user survives reopening");
+                check(storage.loadContacts(user.id).size() == n - n / 2 + 1, "contacts survive reopening");
+                boolean refused = false;
+                try {
+                    new EmbeddedStorage(file).close();
+                } catch (IOException e) {
+                    refused = true;
+                }
+                check(refused, "a second open of the same file is refused");
+            }
+            System.out.println("all checks passed");
+        } finally {
+            if (oldSession != null) storage.saveSession(oldSession);
+            if (mysql && user != null) deleteUser(((MySqlStorage) storage).getDatabase(), user.id);
+            storage.close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".lock"));
+        }
+    }
+
+    private static UserManager.User run(Storage storage, int n) throws SQLException {
+        String email = "storage-bench-" + System.nanoTime() + "@example.invalid";
+        UserManager.User user = storage.insertUser(new UserManager.User("Storage Bench", "bench", "0", email, "0", "x"), "hash");
+        check(user.id > 0, "insertUser assigns an id");
+        check("hash".equals(storage.findUser(email).password), "findUser returns the password hash");
+        check(storage.findUser(email.toUpperCase()) != null, "emails match case-insensitively");
+        check(storage.findUser("missing-" + email) == null, "findUser returns null for unknown emails");
+        try {
+            storage.insertUser(new UserManager.User("Again", "bench", "0", email, "0", "x"), "hash");
+            check(false, "duplicate email is rejected");
+        } catch (SQLException e) {
+            check(e.getSQLState() != null && e.getSQLState().startsWith("23"), "duplicate email fails with SQL state 23xxx");
+        }
+
+        long t = System.nanoTime();
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) ids[i] = storage.addContact(user.id, "Contact " + i, "91" + (9_000_000_000L + i));
+        report("addContact", n, t);
+        check(ids[0] > 0 && ids[n - 1] > ids[0], "addContact returns increasing ids");
+        t = System.nanoTime();
+        List<ContactModel> list = storage.loadContacts(user.id);
+        report("loadContacts", 1, t);
+        check(list.size() == n, "every contact is listed");
+        check(list.get(0).getName().equals("Contact " + (n - 1)), "contacts are listed newest first");
+        check(list.get(0).getId() == ids[n - 1], "contacts are listed with their ids");
+
+        t = System.nanoTime();
+        for (int i = 0; i < n / 2; i++) storage.updateContact(user.id, new ContactModel(ids[i], "Contact " + i, "91" + (9_000_000_000L + i)), "Edited " + i, "91" + i);
+        report("updateContact", n / 2, t);
+        list = storage.loadContacts(user.id);
+        check(list.get(list.size() - 1).getName().equals("Edited 0"), "an edit keeps the contact's place");
+
+        int twin = storage.addContact(user.id, "Twin", "555-0100");
+        storage.addContact(user.id, "Twin", "555-0100");
+        storage.updateContact(user.id, new ContactModel(twin, "Twin", "555-0100"), "Twin", "555-0199");
+        check(count(storage, user.id, "555-0199") == 1 && count(storage, user.id, "555-0100") == 1, "an edit changes only the contact with that id");
+        storage.updateContact(user.id, new ContactModel("Twin", "555-0199"), "Twin", "555-0100");
+        check(count(storage, user.id, "555-0100") == 2, "a contact without an id is matched by name and number");
+        storage.deleteContact(user.id, new ContactModel(twin, "Twin", "555-0100"));
+        check(count(storage, user.id, "555-0100") == 1, "deleting one of two duplicates keeps the other");
+
+        t = System.nanoTime();
+        for (int i = 0; i < n / 2; i++) storage.deleteContact(user.id, new ContactModel(ids[i], "Edited " + i, "91" + i));
+        report("deleteContact", n / 2, t);
+        check(storage.loadContacts(user.id).size() == n - n / 2 + 1, "deleted contacts are gone");
+
+        long from = System.currentTimeMillis();
+        t = System.nanoTime();
+        for (int i = 0; i < n; i++) storage.saveLocation(user.id, 12.97 + i * 1e-4, 77.59);
+        report("saveLocation", n, t);
+        t = System.nanoTime();
+        List<LocationHistory.Row> fixes = storage.findLocations(user.id, from, System.currentTimeMillis() + 1, n);
+        report("findLocations", 1, t);
+        for (int i = 1; i < fixes.size(); i++) check(fixes.get(i - 1).recordedAt <= fixes.get(i).recordedAt, "fixes are oldest first");
+        check(storage.findLocations(user.id, from, System.currentTimeMillis() + 1, 5).size() <= 5, "findLocations honours the limit");
+
+        storage.saveSession(email);
+        check(email.equals(storage.loadSession()), "the session is saved");
+        storage.clearSession();
+        check(storage.loadSession() == null, "the session is cleared");
+        return user;
+    }
+
+    private static long count(Storage storage, int userId, String phone) throws SQLException {
+        return storage.loadContacts(userId).stream().filter(c -> c.getPhoneNumber().equals(phone)).count();
+    }
+
+    private static void report(String what, int ops, long startNanos) {
+        double ms = (System.nanoTime() - startNanos) / 1e6;
+        System.out.printf("%-14s %,7d op(s) in %9.1f ms  (%.3f ms/op)%n", what, ops, ms, ms / Math.max(1, ops));
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+
+    private static void deleteUser(Database db, int userId) throws SQLException {
+        try (Connection conn = db.getConnection(); PreparedStatement ps = conn.prepareStatement("DELETE FROM users WHERE id = ?")) {
+            ps.setInt(1, userId);
+            ps.executeUpdate(); // contacts and locations go with it (ON DELETE CASCADE)
+        }
+    }
+}
@@ -14,6 +14,7 @@ CREATE TABLE IF NOT EXISTS users (
   phone VARCHAR(50) NOT NULL,
   password_hash VARCHAR(255) NOT NULL,
   allow_location TINYINT(1) NOT NULL DEFAULT 1,
+  location_retention_days INT NULL, -- NULL = location.retention.days, 0 = keep forever
   created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
   UNIQUE KEY uk_users_email (email)
 );
@@ -25,10 +26,25 @@ CREATE TABLE IF NOT EXISTS contacts (
   name VARCHAR(100) NOT NULL,
   phone VARCHAR(50) NOT NULL,
   created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-  INDEX idx_contacts_user (user_id),
+  -- Change feed for other app instances of the same user (ContactSync); deletes go to contact_tombstones
+  updated_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+  -- Random key the app gives each add, so replaying it from the outbox never stores it twice
+  client_ref BIGINT NULL,
+  INDEX idx_contacts_user (user_id), -- InnoDB keys it on (user_id, id), which the contact list pages by
+  INDEX idx_contacts_user_updated (user_id, updated_at),
+  UNIQUE INDEX uq_contacts_client_ref (user_id, client_ref),
   CONSTRAINT fk_contacts_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
 );
 
+-- Deleted contacts, kept for a day so other app instances of the same user can drop them too
+CREATE TABLE IF NOT EXISTS contact_tombstones (
+  contact_id INT PRIMARY KEY,
+  user_id INT NOT NULL,
+  deleted_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  INDEX idx_contact_tombstones_user (user_id, deleted_at),
+  CONSTRAINT fk_contact_tombstones_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
 -- Location history
 CREATE TABLE IF NOT EXISTS locations (
   id INT AUTO_INCREMENT PRIMARY KEY,
@@ -36,12 +52,63 @@ CREATE TABLE IF NOT EXISTS locations (
   latitude DOUBLE NOT NULL,
   longitude DOUBLE NOT NULL,
   recorded_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  -- Spatio-temporal key for area queries (see GeoCells); NULL until backfilled on old rows
+  hour_bucket INT NULL, -- UNIX_TIMESTAMP(recorded_at) DIV 3600
+  geohash BIGINT NULL,
   INDEX idx_locations_user_time (user_id, recorded_at),
+  INDEX idx_locations_geo_time (hour_bucket, geohash),
   CONSTRAINT fk_locations_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
 );
 
+-- Newest fix per user, kept up to date by the location writer; the nearby-users index is rebuilt from it at startup
+CREATE TABLE IF NOT EXISTS user_last_location (
+  user_id INT PRIMARY KEY,
+  latitude DOUBLE NOT NULL,
+  longitude DOUBLE NOT NULL,
+  recorded_at TIMESTAMP(3) NOT NULL,
+  INDEX idx_user_last_location_time (recorded_at),
+  CONSTRAINT fk_user_last_location_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Hourly ('H') and daily ('D') centroids of fixes purged by the retention job
+CREATE TABLE IF NOT EXISTS location_rollups (
+  user_id INT NOT NULL,
+  granularity CHAR(1) NOT NULL,
+  bucket_start TIMESTAMP NOT NULL,
+  latitude DOUBLE NOT NULL,
+  longitude DOUBLE NOT NULL,
+  fix_count INT NOT NULL,
+  PRIMARY KEY (user_id, granularity, bucket_start),
+  CONSTRAINT fk_location_rollups_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Progress of background jobs, so they can resume after a restart
+CREATE TABLE IF NOT EXISTS job_state (
+  name VARCHAR(100) PRIMARY KEY,
+  value VARCHAR(255) NOT NULL,
+  updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+);
+
 -- If you already created the older schema with a 'password' column,
 -- you can migrate with:
 -- ALTER TABLE users CHANGE COLUMN password password_hash VARCHAR(255) NOT NULL;
 -- If you created the users table without full_name, add it with:
 -- ALTER TABLE users ADD COLUMN full_name VARCHAR(100) NOT NULL AFTER id;
+-- If you created the users table before per-user location retention, add it with:
+-- ALTER TABLE users ADD COLUMN location_retention_days INT NULL AFTER allow_location;
+-- If you created the schema before the nearby-users index, create user_last_location above and fill it with:
+-- INSERT INTO user_last_location(user_id, latitude, longitude, recorded_at)
+--   SELECT l.user_id, l.latitude, l.longitude, l.recorded_at FROM locations l
+--   JOIN (SELECT user_id, MAX(id) AS id FROM locations GROUP BY user_id) m ON m.id = l.id;
+-- If you created the locations table before it had a spatial key, add it with the lines below.
+-- The app fills geohash for existing rows in the background after startup:
+-- ALTER TABLE locations ADD COLUMN hour_bucket INT NULL AFTER recorded_at, ADD COLUMN geohash BIGINT NULL AFTER hour_bucket,
+--   ADD INDEX idx_locations_geo_time (hour_bucket, geohash);
+-- If you created the contacts table before contact sync, create contact_tombstones above and add:
+-- ALTER TABLE contacts ADD COLUMN updated_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+--   ADD INDEX idx_contacts_user_updated (user_id, updated_at);
+-- If you created the contacts table before it had client_ref, add it with:
+-- ALTER TABLE contacts ADD COLUMN client_ref BIGINT NULL AFTER updated_at, ADD UNIQUE INDEX uq_contacts_client_ref (user_id, client_ref);
+-- location_segments is no longer used (location.track.segments was removed). The app never read it back, so
+-- its rows are not part of the history; drop it once you no longer need them:
+-- DROP TABLE IF EXISTS location_segments;